@@ -0,0 +1,140 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that detectors running on a thread pool find the same lanes as sequential detectors,
+ * and logs their throughput measured on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MultiStreamLaneEngineTest {
+
+    private static final String LOG_TAG = MultiStreamLaneEngineTest.class.getSimpleName();
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 60;
+
+    @Before
+    public void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void detectorsDoNotShareLanes() throws Exception {
+        MultiStreamLaneEngine engine = new MultiStreamLaneEngine(2);
+        engine.addStream(WIDTH, HEIGHT);
+        engine.addStream(WIDTH / 2, HEIGHT / 2);
+
+        engine.processFrames(new Mat[]{roadFrame(WIDTH, HEIGHT), blankFrame(WIDTH / 2, HEIGHT / 2)});
+        engine.shutdown();
+
+        assertNull(engine.getDetector(1).getBisectorLine(0));
+        assertEquals(WIDTH, engine.getDetector(0).getContext().frameWidth);
+        assertEquals(WIDTH / 2, engine.getDetector(1).getContext().frameWidth);
+    }
+
+    @Test
+    public void concurrentStreamsMatchSequentialDetectors() throws Exception {
+        int streams = 4;
+        MultiStreamLaneEngine engine = new MultiStreamLaneEngine(streams);
+        LaneDetector[] sequential = new LaneDetector[streams];
+        Mat[] frames = new Mat[streams];
+        for (int i = 0; i < streams; i++) {
+            engine.addStream(WIDTH, HEIGHT);
+            sequential[i] = new LaneDetector(WIDTH, HEIGHT);
+            // lanes at different places in every stream
+            frames[i] = roadFrame(WIDTH, HEIGHT, 0.05 * i);
+        }
+
+        for (int frame = 0; frame < 5; frame++) {
+            engine.processFrames(frames);
+            for (int i = 0; i < streams; i++) {
+                sequential[i].processFrame(frames[i]);
+                assertSameLanes("stream " + i, sequential[i], engine.getDetector(i));
+            }
+        }
+        engine.shutdown();
+    }
+
+    @Test
+    public void throughputBenchmark() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        double single = framesPerSecond(1);
+        double parallel = framesPerSecond(cores);
+
+        Log.i(LOG_TAG, "cores=" + cores + " single=" + single + " fps, parallel=" + parallel
+                + " fps, speedup=" + parallel / single);
+    }
+
+    private static void assertSameLanes(String message, LaneDetector expected, LaneDetector actual) {
+        for (int pair = 0; pair < 2; pair++) {
+            assertEquals(message, expected.lanesFound(pair), actual.lanesFound(pair));
+            LinearEquation expectedBisector = expected.getBisectorLine(pair);
+            LinearEquation actualBisector = actual.getBisectorLine(pair);
+            if (expectedBisector == null) {
+                assertNull(message, actualBisector);
+            } else {
+                assertEquals(message, expectedBisector.a, actualBisector.a, 0);
+                assertEquals(message, expectedBisector.b, actualBisector.b, 0);
+            }
+        }
+    }
+
+    /**
+     * Processes FRAMES frames on every one of the given number of streams,
+     * with as many threads as streams, and returns the total frames per second.
+     */
+    private double framesPerSecond(int streams) throws Exception {
+        MultiStreamLaneEngine engine = new MultiStreamLaneEngine(streams);
+        Mat[] frames = new Mat[streams];
+        for (int i = 0; i < streams; i++) {
+            engine.addStream(WIDTH, HEIGHT);
+            frames[i] = roadFrame(WIDTH, HEIGHT);
+        }
+
+        // warm up
+        engine.processFrames(frames);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            engine.processFrames(frames);
+        }
+        long elapsed = System.nanoTime() - start;
+        engine.shutdown();
+
+        return streams * FRAMES / (elapsed / 1e9);
+    }
+
+    private static Mat roadFrame(int width, int height) {
+        return roadFrame(width, height, 0);
+    }
+
+    /**
+     * Draws two lanes converging to the top of the frame, moved right by shift of the width.
+     */
+    private static Mat roadFrame(int width, int height, double shift) {
+        Mat frame = blankFrame(width, height);
+        Imgproc.line(frame, new Point(width * (0.45 + shift), 0), new Point(width * (0.1 + shift), height), new Scalar(230, 230, 230, 255), 8);
+        Imgproc.line(frame, new Point(width * (0.55 + shift), 0), new Point(width * (0.9 + shift), height), new Scalar(230, 230, 230, 255), 8);
+        return frame;
+    }
+
+    private static Mat blankFrame(int width, int height) {
+        return new Mat(height, width, CvType.CV_8UC4, new Scalar(90, 90, 90, 255));
+    }
+}
@@ -0,0 +1,76 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * NV21 lane detector on 1280x720 frames at every processing scale, measured on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class Nv21LaneDetectorBenchmarkTest {
+
+    private static final String LOG_TAG = Nv21LaneDetectorBenchmarkTest.class.getSimpleName();
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int ITERATIONS = 20;
+    // the lane heuristics want the intersection between -400 and -height / 2
+    private static final double VANISHING_ROW = -380;
+    // columns of the lanes on the last row
+    private static final double LEFT_BOTTOM = 160;
+    private static final double RIGHT_BOTTOM = 1120;
+
+    @Test
+    public void nv21Benchmark() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        byte[] frame = roadFrame(new Random(4));
+
+        StringBuilder result = new StringBuilder("cores=" + cores);
+        for (int scale = 1; scale <= 4; scale *= 2) {
+            Nv21LaneDetector detector = new Nv21LaneDetector(WIDTH, HEIGHT, cores);
+            detector.setProcessingScale(scale);
+            detector.setRegionOfInterest(0.4, 1);
+            // warm up
+            for (int i = 0; i < ITERATIONS; i++) {
+                detector.processFrame(frame);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                detector.processFrame(frame);
+            }
+            long perFrame = (System.nanoTime() - start) / ITERATIONS / 1000;
+            assertTrue(detector.lanesFound(0));
+            detector.shutdown();
+            result.append(", scale ").append(scale).append("=").append(perFrame).append(" us");
+        }
+        Log.i(LOG_TAG, result.toString());
+    }
+
+    /**
+     * NV21 frame of a straight road: darker shoulders beside a lighter road, with some noise.
+     */
+    private static byte[] roadFrame(Random random) {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        double center = WIDTH / 2.0;
+        for (int row = 0; row < HEIGHT; row++) {
+            double t = (row - VANISHING_ROW) / (HEIGHT - VANISHING_ROW);
+            double left = center + (LEFT_BOTTOM - center) * t;
+            double right = center + (RIGHT_BOTTOM - center) * t;
+            for (int col = 0; col < WIDTH; col++) {
+                int luma = col > left && col < right ? 130 : 50;
+                frame[row * WIDTH + col] = (byte) (luma + random.nextInt(9) - 4);
+            }
+        }
+        for (int i = WIDTH * HEIGHT; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+        return frame;
+    }
+}
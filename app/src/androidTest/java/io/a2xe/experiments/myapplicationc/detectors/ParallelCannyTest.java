@@ -0,0 +1,144 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Band parallel Canny against the single threaded Canny, measured on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParallelCannyTest {
+
+    private static final String LOG_TAG = ParallelCannyTest.class.getSimpleName();
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int ITERATIONS = 30;
+
+    private Mat mGray;
+    private ParallelCanny mParallel;
+
+    @Before
+    public void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+        mParallel = new ParallelCanny(Runtime.getRuntime().availableProcessors());
+
+        mGray = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.randn(mGray, 90, 20);
+        Imgproc.GaussianBlur(mGray, mGray, new org.opencv.core.Size(5, 5), 0);
+        Imgproc.line(mGray, new Point(WIDTH * 0.45, 0), new Point(WIDTH * 0.1, HEIGHT), new Scalar(230), 8);
+        Imgproc.line(mGray, new Point(WIDTH * 0.55, 0), new Point(WIDTH * 0.9, HEIGHT), new Scalar(230), 8);
+    }
+
+    @After
+    public void tearDown() {
+        mParallel.shutdown();
+    }
+
+    @Test
+    public void differsOnlyAtBandSeams() {
+        Mat expected = new Mat();
+        Mat actual = new Mat();
+        Imgproc.Canny(mGray, expected, 40, 120);
+        mParallel.apply(mGray, actual, 40, 120);
+
+        Mat difference = new Mat();
+        Core.absdiff(expected, actual, difference);
+        Log.i(LOG_TAG, "edges=" + Core.countNonZero(expected) + " different=" + Core.countNonZero(difference));
+
+        // a differing edge belongs to a chain, of one output or the other, reaching a seam
+        Mat reachesSeam = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1, new Scalar(0));
+        markChainsAtSeams(expected, reachesSeam);
+        markChainsAtSeams(actual, reachesSeam);
+        Core.subtract(difference, reachesSeam, difference);
+        assertEquals(0, Core.countNonZero(difference));
+    }
+
+    @Test
+    public void matchesSingleThreadedCannyOnSingleBand() {
+        ParallelCanny single = new ParallelCanny(1);
+        try {
+            Mat expected = new Mat();
+            Mat actual = new Mat();
+            Imgproc.Canny(mGray, expected, 40, 120);
+            single.apply(mGray, actual, 40, 120);
+
+            Mat difference = new Mat();
+            Core.absdiff(expected, actual, difference);
+            assertEquals(0, Core.countNonZero(difference));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void cannyBenchmark() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        Mat edges = new Mat();
+
+        // warm up
+        Imgproc.Canny(mGray, edges, 40, 120);
+        mParallel.apply(mGray, edges, 40, 120);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Imgproc.Canny(mGray, edges, 40, 120);
+        }
+        long single = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            mParallel.apply(mGray, edges, 40, 120);
+        }
+        long banded = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(LOG_TAG, "cores=" + cores + " single=" + single / 1000 + " us, bands=" + banded / 1000 + " us");
+    }
+
+    /**
+     * Marks the 8-connected edge chains with a row next to a seam between two bands.
+     * Chains are connected, so a chain whose rows span a seam has pixels on both of its sides.
+     */
+    private void markChainsAtSeams(Mat edges, Mat marks) {
+        Mat labels = new Mat();
+        Mat stats = new Mat();
+        Mat centroids = new Mat();
+        int count = Imgproc.connectedComponentsWithStats(edges, labels, stats, centroids, 8, CvType.CV_32S);
+        int bands = mParallel.bandsFor(HEIGHT);
+
+        int[] label = new int[WIDTH * HEIGHT];
+        labels.get(0, 0, label);
+        boolean[] atSeam = new boolean[count];
+        for (int component = 1; component < count; component++) {
+            int top = (int) stats.get(component, Imgproc.CC_STAT_TOP)[0];
+            int bottom = top + (int) stats.get(component, Imgproc.CC_STAT_HEIGHT)[0] - 1;
+            for (int band = 1; band < bands; band++) {
+                int seam = HEIGHT * band / bands;
+                atSeam[component] |= top <= seam && bottom >= seam - 1;
+            }
+        }
+
+        byte[] mark = new byte[WIDTH * HEIGHT];
+        marks.get(0, 0, mark);
+        for (int i = 0; i < label.length; i++) {
+            if (atSeam[label[i]]) {
+                mark[i] = (byte) 255;
+            }
+        }
+        marks.put(0, 0, mark);
+    }
+}
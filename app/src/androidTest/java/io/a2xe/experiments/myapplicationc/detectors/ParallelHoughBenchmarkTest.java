@@ -0,0 +1,112 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Java Hough transform restricted to the lane angles against HoughLinesP on all angles,
+ * on the same edge frames at every processing scale, measured on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParallelHoughBenchmarkTest {
+
+    private static final String LOG_TAG = ParallelHoughBenchmarkTest.class.getSimpleName();
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int ITERATIONS = 20;
+
+    @Before
+    public void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void houghBenchmark() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        double maxAngle = Math.atan(LaneExtractor.VERTICAL_THRESHOLD_SLOPE);
+        int lengthThreshold = new DetectorContext(WIDTH, HEIGHT).lengthThreshold;
+
+        StringBuilder result = new StringBuilder("cores=" + cores);
+        for (int scale = 1; scale <= 4; scale *= 2) {
+            int width = WIDTH / scale, height = HEIGHT / scale;
+            Mat edges = edgeFrame(width, height);
+            byte[] pixels = new byte[width * height];
+            // the parameters of LaneDetector at this scale
+            int votes = Math.max(LaneDetector.HOUGH_MIN_VOTES, LaneDetector.HOUGH_VOTES / scale);
+            double minLength = (double) lengthThreshold / scale;
+            int maxGap = (int) Math.max(1, LaneDetector.HOUGH_MAX_LINE_GAP / scale);
+
+            Mat lines = new Mat();
+            // warm up
+            Imgproc.HoughLinesP(edges, lines, 1, Math.PI / 180, votes, minLength, maxGap);
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                Imgproc.HoughLinesP(edges, lines, 1, Math.PI / 180, votes, minLength, maxGap);
+            }
+            long nativeNanos = (System.nanoTime() - start) / ITERATIONS;
+            assertTrue(lines.rows() > 0);
+            result.append("\n").append(width).append("x").append(height)
+                    .append(" edges=").append(Core.countNonZero(edges))
+                    .append(" HoughLinesP=").append(nativeNanos / 1000).append(" us (")
+                    .append(lines.rows()).append(" segments)");
+
+            for (int threads : new int[]{1, cores}) {
+                ParallelHoughTransform transform = new ParallelHoughTransform(width, height,
+                        -maxAngle, maxAngle, Math.PI / 180, 1, threads);
+                try {
+                    // the copy out of the Mat is part of the cost, as in LaneDetector
+                    edges.get(0, 0, pixels);
+                    transform.setEdgeImage(pixels);
+                    transform.findSegments(votes, minLength, maxGap);
+
+                    int segments = 0;
+                    start = System.nanoTime();
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        edges.get(0, 0, pixels);
+                        transform.setEdgeImage(pixels);
+                        segments = transform.findSegments(votes, minLength, maxGap);
+                    }
+                    long javaNanos = (System.nanoTime() - start) / ITERATIONS;
+                    assertTrue(segments > 0);
+                    result.append(" threads=").append(threads).append(": ").append(javaNanos / 1000)
+                            .append(" us (").append(segments).append(" segments)");
+                } finally {
+                    transform.shutdown();
+                }
+            }
+        }
+        Log.i(LOG_TAG, result.toString());
+    }
+
+    /**
+     * Canny frame of a noisy road with two lanes, like the frames the detector votes on.
+     */
+    private static Mat edgeFrame(int width, int height) {
+        Mat gray = new Mat(height, width, CvType.CV_8UC1);
+        Core.randn(gray, 90, 20);
+        Imgproc.GaussianBlur(gray, gray, new Size(5, 5), 0);
+        int thickness = Math.max(2, width / 160);
+        Imgproc.line(gray, new Point(width * 0.45, 0), new Point(width * 0.1, height), new Scalar(230), thickness);
+        Imgproc.line(gray, new Point(width * 0.55, 0), new Point(width * 0.9, height), new Scalar(230), thickness);
+
+        Mat edges = new Mat();
+        Imgproc.Canny(gray, edges, 40, 120);
+        gray.release();
+        return edges;
+    }
+}
@@ -0,0 +1,104 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bulk read of the HoughLinesP output against the per row read, measured on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SegmentReadBenchmarkTest {
+
+    private static final String LOG_TAG = SegmentReadBenchmarkTest.class.getSimpleName();
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int[] LINE_COUNTS = {10, 50, 100, 200, 500};
+    private static final int ITERATIONS = 200;
+
+    private LaneDetector mDetector;
+
+    @Before
+    public void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+        mDetector = new LaneDetector(WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void bulkReadMatchesPerRowRead() {
+        Mat lines = houghLines(200, new Random(7));
+        LineSegmentBuffer bulk = new LineSegmentBuffer(mDetector.getContext());
+        LineSegmentBuffer perRow = new LineSegmentBuffer(mDetector.getContext());
+
+        int added = mDetector.readSegments(lines, bulk);
+        assertEquals(added, mDetector.readSegmentsPerRow(lines, perRow));
+        assertEquals(added, bulk.size());
+        assertTrue(added > 0);
+        for (int i = 0; i < added; i++) {
+            assertEquals(perRow.a[i], bulk.a[i], 0);
+            assertEquals(perRow.b[i], bulk.b[i], 0);
+            assertEquals(perRow.x1[i], bulk.x1[i], 0);
+            assertEquals(perRow.y2[i], bulk.y2[i], 0);
+        }
+    }
+
+    @Test
+    public void readBenchmark() {
+        Random random = new Random(11);
+        LineSegmentBuffer segments = new LineSegmentBuffer(mDetector.getContext());
+
+        for (int count : LINE_COUNTS) {
+            Mat lines = houghLines(count, random);
+
+            // warm up
+            segments.clear();
+            mDetector.readSegments(lines, segments);
+            segments.clear();
+            mDetector.readSegmentsPerRow(lines, segments);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                segments.clear();
+                mDetector.readSegmentsPerRow(lines, segments);
+            }
+            long perRow = (System.nanoTime() - start) / ITERATIONS;
+
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                segments.clear();
+                mDetector.readSegments(lines, segments);
+            }
+            long bulk = (System.nanoTime() - start) / ITERATIONS;
+
+            Log.i(LOG_TAG, "lines=" + count + " per row=" + perRow / 1000 + " us, bulk=" + bulk / 1000 + " us");
+            lines.release();
+        }
+    }
+
+    /**
+     * Creates a HoughLinesP like output with random segments inside the frame.
+     */
+    private static Mat houghLines(int count, Random random) {
+        int[] data = new int[count * 4];
+        for (int i = 0; i < count; i++) {
+            data[i * 4] = random.nextInt(WIDTH);
+            data[i * 4 + 1] = random.nextInt(HEIGHT);
+            data[i * 4 + 2] = random.nextInt(WIDTH);
+            data[i * 4 + 3] = random.nextInt(HEIGHT);
+        }
+        Mat lines = new Mat(count, 1, CvType.CV_32SC4);
+        lines.put(0, 0, data);
+        return lines;
+    }
+}
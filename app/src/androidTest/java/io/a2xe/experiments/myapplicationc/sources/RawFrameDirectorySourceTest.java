@@ -0,0 +1,169 @@
+package io.a2xe.experiments.myapplicationc.sources;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.Mat;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays a directory of synthetic NV21 frames through a listener, with both pacings.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RawFrameDirectorySourceTest {
+
+    private static final String LOG_TAG = RawFrameDirectorySourceTest.class.getSimpleName();
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAMES = 10;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        assertTrue(OpenCVLoader.initDebug());
+
+        mDirectory = File.createTempFile("frames", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int i = 0; i < FRAMES; i++) {
+            for (int p = 0; p < frame.length; p++) {
+                // luma of frame i is i * 10, neutral chroma
+                frame[p] = (byte) (p < WIDTH * HEIGHT ? i * 10 : 128);
+            }
+            FileOutputStream out = new FileOutputStream(new File(mDirectory, String.format(Locale.US, "%05d.nv21", i)));
+            out.write(frame);
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void replaysEveryFrameInOrder() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        long elapsed = replay(ReplayFrameSource.PACING_FAST, 30, listener);
+
+        assertEquals(WIDTH, listener.width);
+        assertEquals(HEIGHT, listener.height);
+        assertTrue(listener.stopped);
+        assertEquals(FRAMES, listener.luma.size());
+        for (int i = 0; i < FRAMES; i++) {
+            assertEquals(i * 10, (int) listener.luma.get(i));
+        }
+        Log.i(LOG_TAG, "fast replay of " + FRAMES + " frames: " + elapsed / 1000 + " us");
+    }
+
+    @Test
+    public void realTimePacingFollowsFrameRate() throws Exception {
+        double framesPerSecond = 100;
+        long elapsed = replay(ReplayFrameSource.PACING_REAL_TIME, framesPerSecond, new RecordingListener());
+
+        // the last frame is due (FRAMES - 1) frame periods after the first one
+        long expected = (long) ((FRAMES - 1) * 1e9 / framesPerSecond);
+        assertTrue("elapsed " + elapsed + " ns", elapsed >= expected);
+    }
+
+    @Test
+    public void restartsAfterStopFromListener() throws Exception {
+        final RawFrameDirectorySource source = new RawFrameDirectorySource(mDirectory, WIDTH, HEIGHT, 30);
+        final CountDownLatch[] finished = {new CountDownLatch(1)};
+        source.setOnFinishedListener(new ReplayFrameSource.OnFinishedListener() {
+            @Override
+            public void onFinished(long frames, long elapsedNanos) {
+                finished[0].countDown();
+            }
+        });
+        RecordingListener stopping = new RecordingListener() {
+            @Override
+            public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+                Mat frame = super.onCameraFrame(inputFrame);
+                if (luma.size() == 3) {
+                    source.stop();
+                }
+                return frame;
+            }
+        };
+        source.setCvCameraViewListener(stopping);
+        source.start();
+        assertTrue(finished[0].await(10, TimeUnit.SECONDS));
+        assertEquals(3, stopping.luma.size());
+        assertTrue(stopping.stopped);
+
+        RecordingListener listener = new RecordingListener();
+        finished[0] = new CountDownLatch(1);
+        source.setCvCameraViewListener(listener);
+        source.start();
+        assertTrue(finished[0].await(10, TimeUnit.SECONDS));
+        source.stop();
+        assertEquals(FRAMES, listener.luma.size());
+        assertEquals(FRAMES, source.getDeliveredFrames());
+    }
+
+    private long replay(int pacing, double framesPerSecond, RecordingListener listener) throws Exception {
+        RawFrameDirectorySource source = new RawFrameDirectorySource(mDirectory, WIDTH, HEIGHT, framesPerSecond);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final long[] elapsed = new long[1];
+        source.setPacing(pacing);
+        source.setCvCameraViewListener(listener);
+        source.setOnFinishedListener(new ReplayFrameSource.OnFinishedListener() {
+            @Override
+            public void onFinished(long frames, long elapsedNanos) {
+                elapsed[0] = elapsedNanos;
+                finished.countDown();
+            }
+        });
+        source.start();
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        source.stop();
+        assertEquals(FRAMES, source.getDeliveredFrames());
+        return elapsed[0];
+    }
+
+    private static class RecordingListener implements CameraBridgeViewBase.CvCameraViewListener2 {
+
+        int width;
+        int height;
+        boolean stopped;
+        final List<Integer> luma = new ArrayList<>();
+
+        @Override
+        public void onCameraViewStarted(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public void onCameraViewStopped() {
+            stopped = true;
+        }
+
+        @Override
+        public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+            luma.add((int) inputFrame.gray().get(0, 0)[0]);
+            return inputFrame.gray();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.opencv.android;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the derived images of a camera frame are computed once per generation.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CachedCameraViewFrameTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private CountingFrame mFrame;
+
+    @Before
+    public void setUp() {
+        assertTrue(OpenCVLoader.initDebug());
+        mFrame = new CountingFrame();
+    }
+
+    @Test
+    public void reusesImagesWithinGeneration() {
+        mFrame.setImage(100);
+
+        Mat rgba = mFrame.rgba();
+        assertSame(rgba, mFrame.rgba());
+        Mat gray = mFrame.gray();
+        assertSame(gray, mFrame.gray());
+        Mat level = mFrame.pyramid(1);
+        assertSame(level, mFrame.pyramid(1));
+        assertSame(gray, mFrame.pyramid(0));
+        Mat hsv = mFrame.hsv();
+        assertSame(hsv, mFrame.hsv());
+        Mat blurred = mFrame.blurred(5, 1);
+        assertSame(blurred, mFrame.blurred(5, 1));
+        assertNotSame(blurred, mFrame.blurred(3, 1));
+
+        assertEquals(1, mFrame.mRgbaConversions);
+        assertEquals(1, mFrame.mGrayReads);
+        assertEquals(WIDTH / 2, level.cols());
+        assertEquals(HEIGHT / 2, level.rows());
+    }
+
+    @Test
+    public void recomputesImagesAfterNewGeneration() {
+        mFrame.setImage(100);
+        long generation = mFrame.generation();
+        Mat rgba = mFrame.rgba();
+        Mat level = mFrame.pyramid(1);
+        Mat blurred = mFrame.blurred(5, 1);
+        assertEquals(100, level.get(0, 0)[0], 1);
+
+        mFrame.setImage(200);
+        assertTrue(mFrame.generation() != generation);
+
+        // same buffers, new content
+        assertSame(rgba, mFrame.rgba());
+        assertSame(level, mFrame.pyramid(1));
+        assertSame(blurred, mFrame.blurred(5, 1));
+        assertEquals(2, mFrame.mRgbaConversions);
+        assertEquals(200, rgba.get(0, 0)[0], 1);
+        assertEquals(200, level.get(0, 0)[0], 1);
+        assertEquals(200, blurred.get(0, 0)[0], 1);
+
+        mFrame.rgba();
+        mFrame.gray();
+        assertEquals(2, mFrame.mRgbaConversions);
+        assertEquals(2, mFrame.mGrayReads);
+    }
+
+    @Test
+    public void handsOverRgbaOnlyWhenItIsTheFrameMat() {
+        mFrame.setImage(100);
+        Mat rgba = mFrame.rgba();
+        Mat replacement = new Mat();
+
+        assertFalse(mFrame.handOverRgba(new Mat(), replacement));
+        assertSame(rgba, mFrame.rgba());
+
+        assertTrue(mFrame.handOverRgba(rgba, replacement));
+        // converted again into the replacement, the handed over Mat is left alone
+        assertSame(replacement, mFrame.rgba());
+        assertEquals(2, mFrame.mRgbaConversions);
+        assertEquals(100, replacement.get(0, 0)[0], 1);
+        mFrame.setImage(200);
+        mFrame.rgba();
+        assertEquals(100, rgba.get(0, 0)[0], 1);
+    }
+
+    /**
+     * Frame of a uniform gray image, counting its conversions.
+     */
+    private static class CountingFrame extends CachedCameraViewFrame {
+
+        private final Mat mGray = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        int mRgbaConversions;
+        int mGrayReads;
+
+        void setImage(int value) {
+            mGray.setTo(new Scalar(value));
+            nextGeneration();
+        }
+
+        @Override
+        protected void computeRgba(Mat rgba) {
+            mRgbaConversions++;
+            Imgproc.cvtColor(mGray, rgba, Imgproc.COLOR_GRAY2RGBA, 4);
+        }
+
+        @Override
+        protected Mat computeGray() {
+            mGrayReads++;
+            return mGray;
+        }
+    }
+}
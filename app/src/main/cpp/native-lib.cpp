@@ -60,49 +60,3 @@ Java_io_a2xe_experiments_myapplicationc_MainActivity_stringFromJNI(
     std::string hello = "Hello from C++";
     return env->NewStringUTF(hello.c_str());
 }
-
-IplImage* skipNFrames(CvCapture* capture, int n)
-{
-    for(int i = 0; i < n; ++i)
-    {
-        if(cvQueryFrame(capture) == NULL)
-        {
-            return NULL;
-        }
-    }
-
-    return cvQueryFrame(capture);
-}
-
-extern "C"
-JNIEXPORT void JNICALL
-Java_io_a2xe_experiments_myapplicationc_ReproduceVideoActivity_openVideo(
-        JNIEnv* env,
-        jobject /* this */,
-        jstring path) {
-
-    const char* nPath = env->GetStringUTFChars(path, NULL);
-
-    CvCapture *capture = cvCaptureFromFile(nPath);
-    if (capture == NULL)
-        printf("camera is null\n");
-    else
-        printf("camera is not null");
-
-    IplImage* frame = NULL;
-
-    do {
-
-        frame = skipNFrames(capture, 4);
-
-        double t1 = (double)cvGetTickCount();
-        IplImage *img = cvQueryFrame(capture);
-
-        double t2 = (double)cvGetTickCount();
-
-        printf("time: %gms  fps: %.2g\n",(t2-t1)/(cvGetTickFrequency()*1000.), 1000./((t2-t1)/(cvGetTickFrequency()*1000.)));
-    } while(frame != NULL );
-
-    cvReleaseCapture(&capture);
-}
-
@@ -0,0 +1,91 @@
+package io.a2xe.experiments.myapplicationc
+
+import android.graphics.Canvas
+import android.graphics.Color
+import android.graphics.Paint
+import io.a2xe.experiments.myapplicationc.detectors.LaneSnapshot
+import io.a2xe.experiments.myapplicationc.detectors.LaneSnapshotSource
+import io.a2xe.experiments.myapplicationc.detectors.StageTimings
+import org.opencv.android.CameraBridgeViewBase
+
+/**
+ * Draws the lanes of a detector as vector lines over the unmodified camera frame.
+ * The lanes are read from the lane snapshot of the detector, nothing is allocated per frame.
+ * Optionally draws the stage timings of a detector as text.
+ */
+class LaneOverlayRenderer : CameraBridgeViewBase.FrameOverlay {
+
+    // detector whose lanes are drawn, null draws nothing
+    @Volatile var source: LaneSnapshotSource? = null
+    // stage timings drawn as text, null hides them
+    @Volatile var stageTimings: StageTimings? = null
+
+    private val snapshot = LaneSnapshot()
+    private val leftPaint = linePaint(Color.RED)
+    private val rightPaint = linePaint(Color.GREEN)
+    private val bisectorPaint = linePaint(Color.BLUE)
+    private val textPaint = Paint(Paint.ANTI_ALIAS_FLAG)
+    private var timingLines: List<String> = emptyList()
+    private var framesSinceTimingUpdate = TIMING_REFRESH_FRAMES
+
+    init {
+        textPaint.color = Color.WHITE
+        textPaint.textSize = TEXT_SIZE
+    }
+
+    override fun onDrawOverlay(canvas: Canvas, frameWidth: Int, frameHeight: Int) {
+        drawStageTimings(canvas)
+
+        val source = source ?: return
+        source.getLaneSnapshot(snapshot)
+        if (snapshot.frameWidth == 0 || snapshot.frameHeight == 0) {
+            return
+        }
+
+        // the detector may run on another resolution than the displayed frame
+        val scaleX = frameWidth.toFloat() / snapshot.frameWidth
+        val scaleY = frameHeight.toFloat() / snapshot.frameHeight
+        for (i in 0 until LaneSnapshot.PAIRS) {
+            if (snapshot.found[i]) {
+                drawLine(canvas, snapshot.leftA[i], snapshot.leftB[i], scaleX, scaleY, leftPaint)
+                drawLine(canvas, snapshot.rightA[i], snapshot.rightB[i], scaleX, scaleY, rightPaint)
+                drawLine(canvas, snapshot.bisectorA[i], snapshot.bisectorB[i], scaleX, scaleY, bisectorPaint)
+            }
+        }
+    }
+
+    /**
+     * Draws the line y = a * x + b (x = row, y = column) from the top to the bottom of the frame
+     */
+    private fun drawLine(canvas: Canvas, a: Double, b: Double, scaleX: Float, scaleY: Float, paint: Paint) {
+        val rows = snapshot.frameHeight.toDouble()
+        canvas.drawLine(b.toFloat() * scaleX, 0f,
+                (a * rows + b).toFloat() * scaleX, rows.toFloat() * scaleY, paint)
+    }
+
+    private fun drawStageTimings(canvas: Canvas) {
+        val timings = stageTimings ?: return
+        // formatting allocates, the text is refreshed once every TIMING_REFRESH_FRAMES frames
+        if (++framesSinceTimingUpdate >= TIMING_REFRESH_FRAMES) {
+            timingLines = timings.summary().lines().filter { it.isNotEmpty() }
+            framesSinceTimingUpdate = 0
+        }
+        for (i in timingLines.indices) {
+            canvas.drawText(timingLines[i], TEXT_SIZE, TEXT_SIZE * (3 + i * 1.2f), textPaint)
+        }
+    }
+
+    companion object {
+
+        private const val TIMING_REFRESH_FRAMES = 30
+        private const val TEXT_SIZE = 20f
+
+        private fun linePaint(color: Int): Paint {
+            val paint = Paint(Paint.ANTI_ALIAS_FLAG)
+            paint.color = color
+            paint.style = Paint.Style.STROKE
+            paint.strokeWidth = 4f
+            return paint
+        }
+    }
+}
@@ -5,18 +5,29 @@ import android.support.v7.app.AppCompatActivity
 import android.support.v7.widget.Toolbar
 import android.util.Log
 import android.view.*
+import io.a2xe.experiments.myapplicationc.detectors.FrameBudgetGovernor
 import io.a2xe.experiments.myapplicationc.detectors.LaneDetector
+import io.a2xe.experiments.myapplicationc.detectors.LaneEngine
+import io.a2xe.experiments.myapplicationc.detectors.LaneEngines
+import io.a2xe.experiments.myapplicationc.detectors.Nv21LaneDetector
+import io.a2xe.experiments.myapplicationc.detectors.PipelinedLaneDetector
+import io.a2xe.experiments.myapplicationc.recording.FrameRecorder
+import io.a2xe.experiments.myapplicationc.sources.CameraFrameSource
+import io.a2xe.experiments.myapplicationc.sources.FrameSource
 import org.opencv.android.*
 
 import org.opencv.core.Core
 import org.opencv.core.Mat
 import org.opencv.core.Scalar
-import org.opencv.core.Size
 import org.opencv.imgproc.Imgproc
+import java.io.File
+import java.io.IOException
 
 class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListener2 {
 
     private var cameraBridgeViewBase: CameraBridgeViewBase? = null
+    // the camera, recorded drives go through the same listener in ReproduceVideoActivity
+    private lateinit var frameSource: FrameSource
 
     private lateinit var previewRGBA: MenuItem
     private lateinit var itemPreviewGray: MenuItem
@@ -26,19 +37,47 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
     private lateinit var previewBinary: MenuItem
 
     private lateinit var previewLines: MenuItem
+    private lateinit var previewPipelinedLines: MenuItem
+    private lateinit var previewEngineLanes: MenuItem
+    private lateinit var previewNv21Lanes: MenuItem
+    private lateinit var previewLaneOverlay: MenuItem
+    private lateinit var toggleStageTimings: MenuItem
+    private lateinit var toggleLaneEngine: MenuItem
+    private lateinit var toggleRecording: MenuItem
 
     private var viewMode: Int = Int.MAX_VALUE
 
     private val baseLoaderCallback = object : BaseLoaderCallback(this) {
         override fun onManagerConnected(status: Int) {
             when (status) {
-                LoaderCallbackInterface.SUCCESS -> cameraBridgeViewBase!!.enableView()
+                LoaderCallbackInterface.SUCCESS -> frameSource.start()
                 else -> super.onManagerConnected(status)
             }
         }
     }
 
+    // engine of the lane views, selected for the device and switched from the menu
+    @Volatile private var laneEngine: LaneEngine? = null
+    // Hough engine, also used by the lines view when another engine is selected
     private lateinit var laneDetector: LaneDetector
+    private lateinit var frameBudgetGovernor: FrameBudgetGovernor
+    private var pipelinedLaneDetector: PipelinedLaneDetector? = null
+    private lateinit var nv21LaneDetector: Nv21LaneDetector
+    // draws the lanes over the displayed frame, the frame itself is not modified
+    private val laneOverlay = LaneOverlayRenderer()
+    // output of the view modes that do not draw on the RGBA frame, allocated once OpenCV is loaded
+    private lateinit var displayFrame: Mat
+
+    // preview buffer copied on the camera thread, swapped with nv21Frame by the frame worker
+    private val nv21Lock = Any()
+    private var nv21Capture: ByteArray? = null
+    private var nv21Frame: ByteArray? = null
+    private var nv21Ready = false
+
+    // records the preview buffers for ReproduceVideoActivity, null when not recording
+    @Volatile private var frameRecorder: FrameRecorder? = null
+    private var frameWidth = 0
+    private var frameHeight = 0
 
     override fun onCreate(savedInstanceState: Bundle?) {
 
@@ -54,7 +93,9 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
 
         cameraBridgeViewBase = findViewById(R.id.camera_view) as CameraBridgeViewBase
         cameraBridgeViewBase!!.visibility = SurfaceView.VISIBLE
-        cameraBridgeViewBase!!.setCvCameraViewListener(this)
+        frameSource = CameraFrameSource(cameraBridgeViewBase!!)
+        frameSource.setCvCameraViewListener(this)
+        cameraBridgeViewBase!!.setFrameOverlay(laneOverlay)
     }
 
     public override fun onResume() {
@@ -82,6 +123,13 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
         previewBinaryFeatures = menu.add(getString(R.string.binary_features))
         previewBinary = menu.add(getString(R.string.preview_binary))
         previewLines = menu.add(getString(R.string.preview_lines))
+        previewPipelinedLines = menu.add(getString(R.string.preview_pipelined_lines))
+        previewEngineLanes = menu.add(getString(R.string.preview_engine_lanes))
+        previewNv21Lanes = menu.add(getString(R.string.preview_nv21_lanes))
+        previewLaneOverlay = menu.add(getString(R.string.preview_lane_overlay))
+        toggleStageTimings = menu.add(getString(R.string.toggle_stage_timings))
+        toggleLaneEngine = menu.add(getString(R.string.toggle_lane_engine))
+        toggleRecording = menu.add(getString(R.string.toggle_recording))
 
         return true
     }
@@ -104,6 +152,22 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
             viewMode = VIEW_MODE_BINARY
         } else if (item === previewLines) {
             viewMode = VIEW_MODE_LINES
+        } else if (item === previewPipelinedLines) {
+            viewMode = VIEW_MODE_PIPELINED_LINES
+        } else if (item === previewEngineLanes) {
+            viewMode = VIEW_MODE_ENGINE_LANES
+        } else if (item === previewNv21Lanes) {
+            viewMode = VIEW_MODE_NV21_LANES
+        } else if (item === previewLaneOverlay) {
+            viewMode = VIEW_MODE_LANE_OVERLAY
+        } else if (item === toggleStageTimings) {
+            // drawn over every view mode, the view mode is kept
+            laneOverlay.stageTimings = if (laneOverlay.stageTimings == null) laneDetector.stageTimings else null
+            Log.i(TAG, "Lane detection stages:\n" + laneDetector.stageTimings.summary())
+        } else if (item === toggleLaneEngine) {
+            switchLaneEngine()
+        } else if (item === toggleRecording) {
+            if (frameRecorder == null) startRecording() else stopRecording()
         }
 
         return true
@@ -111,16 +175,80 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
 
     override fun onCameraViewStarted(width: Int, height: Int) {
 
-        laneDetector = LaneDetector(width, height)
+        val engine = LaneEngines.createForDevice(width, height)
+        Log.i(TAG, "Lane engine for " + width + "x" + height + ": " + engine.javaClass.simpleName)
+        laneEngine = engine
+        laneDetector = engine as? LaneDetector ?: LaneDetector(width, height)
+        frameBudgetGovernor = FrameBudgetGovernor(laneDetector)
+        frameBudgetGovernor.setListener { oldLevel, newLevel, averageFrameNanos ->
+            Log.i(TAG, "Lane detection level " + oldLevel + " -> " + newLevel
+                    + ", average frame " + averageFrameNanos / 1000000 + " ms")
+        }
+        nv21LaneDetector = Nv21LaneDetector(width, height)
+        displayFrame = Mat()
+        frameWidth = width
+        frameHeight = height
+
+        (cameraBridgeViewBase as? JavaCameraView)?.setPreviewFrameListener { frame, previewWidth, previewHeight ->
+            // the recorder only copies into a mapped segment, it never waits for the disk
+            frameRecorder?.onPreviewFrame(frame, previewWidth, previewHeight)
+            if (viewMode == VIEW_MODE_NV21_LANES) {
+                synchronized(nv21Lock) {
+                    var capture = nv21Capture
+                    if (capture == null || capture.size != frame.size) {
+                        capture = ByteArray(frame.size)
+                        nv21Capture = capture
+                    }
+                    System.arraycopy(frame, 0, capture, 0, frame.size)
+                    nv21Ready = true
+                }
+            }
+        }
     }
 
     override fun onCameraViewStopped() {
 
+        releasePipelinedLaneDetector()
+        laneDetector.shutdown()
+        nv21LaneDetector.shutdown()
+        displayFrame.release()
+        (cameraBridgeViewBase as? JavaCameraView)?.let {
+            it.setPreviewFrameListener(null)
+            Log.i(TAG, "Preview frames: captured " + it.capturedFrames + ", processed " + it.processedFrames
+                    + ", dropped " + it.droppedFrames + ", displayed " + it.displayedFrames
+                    + ", camera without buffer " + it.starvedFrames + ", copied " + it.copiedBytes / 1024 + " KiB")
+            it.resetFrameCounters()
+        }
+        stopRecording()
+
     }
 
     override fun onCameraFrame(inputFrame: CameraBridgeViewBase.CvCameraViewFrame): Mat {
 
-        var image = inputFrame.rgba()
+        val engine = laneEngine!!
+        if (viewMode != VIEW_MODE_PIPELINED_LINES) {
+            releasePipelinedLaneDetector()
+        }
+        laneOverlay.source = when (viewMode) {
+            VIEW_MODE_LANE_OVERLAY -> engine
+            VIEW_MODE_NV21_LANES -> nv21LaneDetector
+            else -> null
+        }
+
+        if (viewMode == VIEW_MODE_LANE_OVERLAY) {
+            // the view draws the lanes over the camera frame, no copy of the frame is drawn on
+            processLanes(engine, inputFrame)
+            return inputFrame.rgba()
+        }
+
+        if (viewMode == VIEW_MODE_LINES) {
+            // detection runs on the luma plane, RGBA is converted only for the hough frame
+            frameBudgetGovernor.processFrame(inputFrame)
+            return laneDetector.hough
+        }
+
+        // the frame converts rgba(), gray() and the blurs at most once, whoever asks first
+        var image = displayFrame
         var imageGray: Mat?
 
         val ret_mat = Mat()
@@ -129,7 +257,7 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
         when (viewMode) {
 
             VIEW_MODE_GRAY ->
-                // input frame has gray scale format
+                // input frame has gray scale format, no RGBA conversion needed
                 Imgproc.cvtColor(inputFrame.gray(), image, Imgproc.COLOR_GRAY2RGBA, 4)
 
             VIEW_MODE_RGBA ->
@@ -138,7 +266,6 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
 
             VIEW_MODE_CANNY -> {
                 // input frame has gray scale format
-                image = inputFrame.rgba()
                 Imgproc.Canny(inputFrame.gray(), ret_mat, 80.0, 100.0)
                 Imgproc.cvtColor(ret_mat, image, Imgproc.COLOR_GRAY2RGBA, 4)
             }
@@ -159,14 +286,9 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
 
             VIEW_MODE_BINARY -> {
 
-                val blur1 = Mat()
-                val blur2 = Mat()
-                imageGray = inputFrame.gray()
-
-                Imgproc.cvtColor(ret_mat, image, Imgproc.COLOR_GRAY2RGBA, 4)
-
-                Imgproc.GaussianBlur(imageGray, blur1, Size(15.0, 15.0), 5.0)
-                Imgproc.GaussianBlur(imageGray, blur2, Size(21.0, 21.0), 15.0)
+                // blurs of the gray frame, shared with any other consumer of the frame
+                val blur1 = inputFrame.blurred(15, 5.0)
+                val blur2 = inputFrame.blurred(21, 15.0)
 
                 val gaussianDifference = Mat()
                 Core.absdiff(blur1, blur2, gaussianDifference)
@@ -175,17 +297,98 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
                 Imgproc.threshold(gaussianDifference, image, 50.0, 255.0, Imgproc.THRESH_BINARY_INV)
             }
 
-            VIEW_MODE_LINES -> {
+            VIEW_MODE_PIPELINED_LINES -> {
+
+                // created when the view is first shown, it runs a thread and two detectors of its own
+                val detector = pipelinedLaneDetector
+                        ?: PipelinedLaneDetector(frameWidth, frameHeight).also { pipelinedLaneDetector = it }
+                image = detector.processFrame(inputFrame.rgba())
+            }
+
+            VIEW_MODE_ENGINE_LANES -> {
 
-                laneDetector.processFrame(image)
-                image = laneDetector.hough
+                processLanes(engine, inputFrame)
+                image = engine.displayFrame
             }
 
+            VIEW_MODE_NV21_LANES -> {
+
+                // the camera thread only copies, detection runs here without any Mat
+                var frame: ByteArray? = null
+                synchronized(nv21Lock) {
+                    if (nv21Ready) {
+                        frame = nv21Capture
+                        nv21Capture = nv21Frame
+                        nv21Frame = frame
+                        nv21Ready = false
+                    }
+                }
+                // the lanes are drawn by the overlay
+                frame?.let { nv21LaneDetector.processFrame(it) }
+                image = inputFrame.rgba()
+            }
+
+            else -> image = inputFrame.rgba()
         }
 
         return image
     }
 
+    /**
+     * Runs the lane engine on a frame, the Hough engine goes through the frame budget governor.
+     */
+    private fun processLanes(engine: LaneEngine, inputFrame: CameraBridgeViewBase.CvCameraViewFrame) {
+        if (engine === laneDetector) {
+            frameBudgetGovernor.processFrame(inputFrame)
+        } else {
+            engine.processFrame(inputFrame)
+        }
+    }
+
+    /**
+     * Stops the thread of the pipelined detector when its view is left or the camera stops.
+     */
+    private fun releasePipelinedLaneDetector() {
+        pipelinedLaneDetector?.shutdown()
+        pipelinedLaneDetector = null
+    }
+
+    /**
+     * Replaces the selected lane engine by the other one, to compare them on the same device.
+     */
+    private fun switchLaneEngine() {
+        val context = laneDetector.context
+        val engine = if (laneEngine === laneDetector) {
+            LaneEngines.create(LaneEngines.ENGINE_SLIDING_WINDOW, context.frameWidth, context.frameHeight)
+        } else {
+            laneDetector
+        }
+        laneEngine = engine
+        Log.i(TAG, "Lane engine: " + engine.javaClass.simpleName)
+    }
+
+    private fun startRecording() {
+        if (frameWidth == 0) {
+            Log.w(TAG, "The camera is not started, nothing to record")
+            return
+        }
+        val directory = File(getExternalFilesDir(RECORDINGS_DIRECTORY), System.currentTimeMillis().toString())
+        try {
+            frameRecorder = FrameRecorder(directory, frameWidth, frameHeight, FrameRecorder.DEFAULT_FRAMES_PER_SEGMENT)
+            Log.i(TAG, "Recording the drive into " + directory)
+        } catch (e: IOException) {
+            Log.e(TAG, "Cannot record into " + directory, e)
+        }
+    }
+
+    private fun stopRecording() {
+        val recorder = frameRecorder ?: return
+        frameRecorder = null
+        recorder.close()
+        Log.i(TAG, "Recorded " + recorder.recordedFrames + " frames into " + recorder.directory
+                + ", dropped " + recorder.droppedFrames)
+    }
+
     external fun findFeatures(grayMat: Long, rgbaMat: Long)
     external fun findBinaryFeatures(grayMat: Long, rgbaMat: Long)
 
@@ -199,6 +402,13 @@ class OpenCVCamera : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListe
         private val VIEW_MODE_FEATURES = 5
         private val VIEW_MODE_BINARY = 10
         private val VIEW_MODE_LINES = 20
+        private val VIEW_MODE_PIPELINED_LINES = 21
+        private val VIEW_MODE_ENGINE_LANES = 22
+        private val VIEW_MODE_NV21_LANES = 23
+        private val VIEW_MODE_LANE_OVERLAY = 24
         private val VIEW_MODE_BINARY_DETECTOR = 30
+
+        // under the external files of the application, one directory per recording
+        private val RECORDINGS_DIRECTORY = "recordings"
     }
 }
@@ -1,14 +1,35 @@
 package io.a2xe.experiments.myapplicationc
 
+import android.content.res.AssetFileDescriptor
 import android.support.v7.app.AppCompatActivity
 import android.os.Bundle
-import android.support.v4.media.session.MediaControllerCompat.setMediaController
+import android.util.Log
 import android.widget.MediaController
 import android.widget.VideoView
-import org.opencv.videoio.VideoCapture
+import io.a2xe.experiments.myapplicationc.detectors.LaneDetector
+import io.a2xe.experiments.myapplicationc.detectors.LaneEngine
+import io.a2xe.experiments.myapplicationc.detectors.LaneEngines
+import io.a2xe.experiments.myapplicationc.sources.RawFrameDirectorySource
+import io.a2xe.experiments.myapplicationc.sources.RecordingFrameSource
+import io.a2xe.experiments.myapplicationc.sources.ReplayFrameSource
+import io.a2xe.experiments.myapplicationc.sources.VideoFileFrameSource
+import org.opencv.android.CameraBridgeViewBase
+import org.opencv.android.OpenCVLoader
+import org.opencv.core.Mat
+import java.io.File
 
+/**
+ * Plays the recorded drive and replays it through the lane pipeline, without a camera.
+ * The replay runs as fast as possible and logs the throughput and the stage timings, the
+ * intent extras select a recording of OpenCVCamera or a directory of raw NV21 frames instead,
+ * or the real-time pacing.
+ */
+class ReproduceVideoActivity : AppCompatActivity(), CameraBridgeViewBase.CvCameraViewListener2 {
 
-class ReproduceVideoActivity : AppCompatActivity() {
+    private var replay: ReplayFrameSource? = null
+    private var videoFile: AssetFileDescriptor? = null
+    // same engine selection as the camera
+    private lateinit var laneEngine: LaneEngine
 
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
@@ -24,8 +45,82 @@ class ReproduceVideoActivity : AppCompatActivity() {
         video.start()
         video.requestFocus()
 
-        openVideo("android.resource://" + packageName + "/" + R.raw.staying_in_lane)
+        startReplay()
     }
 
-    external fun openVideo(file: String)
+    override fun onDestroy() {
+        replay?.stop()
+        replay = null
+        videoFile?.close()
+        videoFile = null
+        super.onDestroy()
+    }
+
+    private fun startReplay() {
+        if (!OpenCVLoader.initDebug()) {
+            Log.e(TAG, "OpenCV library not found, the drive is not replayed")
+            return
+        }
+
+        val recording = intent.getStringExtra(EXTRA_RECORDING)
+        val directory = intent.getStringExtra(EXTRA_FRAME_DIRECTORY)
+        val source = if (recording != null) {
+            val recordingSource = RecordingFrameSource(File(recording))
+            recordingSource.firstFrame = intent.getIntExtra(EXTRA_FIRST_FRAME, 0)
+            recordingSource
+        } else if (directory != null) {
+            RawFrameDirectorySource(File(directory),
+                    intent.getIntExtra(EXTRA_FRAME_WIDTH, 0), intent.getIntExtra(EXTRA_FRAME_HEIGHT, 0),
+                    intent.getDoubleExtra(EXTRA_FRAMES_PER_SECOND, DEFAULT_FRAMES_PER_SECOND))
+        } else {
+            val file = resources.openRawResourceFd(R.raw.staying_in_lane)
+            videoFile = file
+            VideoFileFrameSource(file)
+        }
+
+        source.setPacing(if (intent.getBooleanExtra(EXTRA_REAL_TIME, false))
+            ReplayFrameSource.PACING_REAL_TIME else ReplayFrameSource.PACING_FAST)
+        source.setCvCameraViewListener(this)
+        source.setOnFinishedListener { frames, elapsedNanos ->
+            Log.i(TAG, "Replayed " + frames + " frames in " + elapsedNanos / 1000000 + " ms, "
+                    + source.framesPerSecond + " fps")
+        }
+        source.start()
+        replay = source
+    }
+
+    override fun onCameraViewStarted(width: Int, height: Int) {
+        laneEngine = LaneEngines.createForDevice(width, height)
+        Log.i(TAG, "Lane engine: " + laneEngine.javaClass.simpleName)
+    }
+
+    override fun onCameraViewStopped() {
+        (laneEngine as? LaneDetector)?.let {
+            Log.i(TAG, "Lane detection stages:\n" + it.stageTimings.summary())
+        }
+    }
+
+    override fun onCameraFrame(inputFrame: CameraBridgeViewBase.CvCameraViewFrame): Mat {
+        laneEngine.processFrame(inputFrame)
+        // nothing is displayed, the returned frame is ignored
+        return inputFrame.gray()
+    }
+
+    companion object {
+
+        private val TAG = "ReproduceVideoActivity"
+
+        // directory of a recording of OpenCVCamera to replay instead of the video, from a frame
+        const val EXTRA_RECORDING = "recording"
+        const val EXTRA_FIRST_FRAME = "first_frame"
+        // directory of raw NV21 frames to replay instead of the video, with their size
+        const val EXTRA_FRAME_DIRECTORY = "frame_directory"
+        const val EXTRA_FRAME_WIDTH = "frame_width"
+        const val EXTRA_FRAME_HEIGHT = "frame_height"
+        const val EXTRA_FRAMES_PER_SECOND = "frames_per_second"
+        // deliver the frames at their recorded rate instead of as fast as possible
+        const val EXTRA_REAL_TIME = "real_time"
+
+        private val DEFAULT_FRAMES_PER_SECOND = 30.0
+    }
 }
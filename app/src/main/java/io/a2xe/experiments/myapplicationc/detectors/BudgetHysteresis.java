@@ -0,0 +1,116 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * Quality level decisions of FrameBudgetGovernor, kept apart from the detector.
+ * A level detects lanes on one camera frame out of its cadence, so the cost of a detection divided
+ * by the cadence is the cost per camera frame, which is averaged and compared with the budget.
+ * The level steps to a cheaper one after DEGRADE_FRAMES detections with the average over budget,
+ * and back after UPGRADE_FRAMES detections with the average under UPGRADE_RATIO of the budget.
+ * Stepping back to a shorter cadence multiplies the cost per frame, the average is scaled by
+ * the cadence ratio before the comparison so the level does not step back into a cost over budget.
+ * The average starts again at every level change, so the cost of the previous level does not
+ * cause another one.
+ */
+class BudgetHysteresis {
+
+    // detections with the average over budget before stepping down
+    static final int DEGRADE_FRAMES = 5;
+    // detections with the average under UPGRADE_RATIO of the budget before stepping up
+    static final int UPGRADE_FRAMES = 60;
+    static final double UPGRADE_RATIO = 0.6;
+    // weight of the last detection in the moving average
+    static final double AVERAGE_WEIGHT = 0.1;
+
+    private final long mBudgetNanos;
+    private final int[] mCadences;
+
+    private int mLevel = 0;
+    private long mDetections = 0;
+    private double mAverageNanos = 0;
+    private int mOverBudgetFrames = 0;
+    private int mUnderBudgetFrames = 0;
+
+    /**
+     * @param budgetNanos target processing time of a frame
+     * @param cadences    detection cadence of every quality level, 1 detects on every frame
+     */
+    BudgetHysteresis(long budgetNanos, int[] cadences) {
+        if (budgetNanos <= 0) {
+            throw new IllegalArgumentException("budget must be positive");
+        }
+        for (int cadence : cadences) {
+            if (cadence < 1) {
+                throw new IllegalArgumentException("cadence must be at least 1");
+            }
+        }
+        mBudgetNanos = budgetNanos;
+        mCadences = cadences.clone();
+    }
+
+    /**
+     * Adds the cost of a detection, spread over the frames of the cadence, to the average and
+     * changes the level when needed. Only detections are recorded, the frames between them are
+     * accounted for by the cadence.
+     *
+     * @param nanos cost of the detection
+     * @return whether the level changed
+     */
+    boolean recordDetection(long nanos) {
+        double frameNanos = (double) nanos / mCadences[mLevel];
+        mAverageNanos = mDetections++ == 0 ? frameNanos
+                : mAverageNanos + (frameNanos - mAverageNanos) * AVERAGE_WEIGHT;
+
+        // cost per frame at the next better level if only the cadence changed
+        double upgradedNanos = mLevel > 0 ? mAverageNanos * mCadences[mLevel] / mCadences[mLevel - 1]
+                : mAverageNanos;
+        if (mAverageNanos > mBudgetNanos) {
+            mOverBudgetFrames++;
+            mUnderBudgetFrames = 0;
+        } else if (upgradedNanos < mBudgetNanos * UPGRADE_RATIO) {
+            mUnderBudgetFrames++;
+            mOverBudgetFrames = 0;
+        } else {
+            mOverBudgetFrames = 0;
+            mUnderBudgetFrames = 0;
+        }
+
+        if (mOverBudgetFrames >= DEGRADE_FRAMES && mLevel < mCadences.length - 1) {
+            setLevel(mLevel + 1);
+            return true;
+        } else if (mUnderBudgetFrames >= UPGRADE_FRAMES && mLevel > 0) {
+            setLevel(mLevel - 1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sets the level and starts a new average.
+     *
+     * @param level 0 (best) to the number of cadences - 1 (cheapest)
+     */
+    void setLevel(int level) {
+        if (level < 0 || level >= mCadences.length) {
+            throw new IllegalArgumentException("level must be in [0, " + mCadences.length + ")");
+        }
+        mLevel = level;
+        mDetections = 0;
+        mOverBudgetFrames = 0;
+        mUnderBudgetFrames = 0;
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * @return average cost per camera frame at the current level
+     */
+    long getAverageNanos() {
+        return (long) mAverageNanos;
+    }
+
+    long getBudgetNanos() {
+        return mBudgetNanos;
+    }
+}
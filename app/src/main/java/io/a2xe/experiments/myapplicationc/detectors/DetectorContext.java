@@ -0,0 +1,20 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * Frame geometry of a single detector.
+ * Every LaneDetector owns its context and passes it to the geometry code,
+ * so detectors of different streams or resolutions do not share any state.
+ */
+public class DetectorContext {
+
+    public final int frameWidth;
+    public final int frameHeight;
+    // min length of a line to be considered as a lane candidate
+    public final int lengthThreshold;
+
+    public DetectorContext(int frameWidth, int frameHeight) {
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.lengthThreshold = frameHeight / 20;
+    }
+}
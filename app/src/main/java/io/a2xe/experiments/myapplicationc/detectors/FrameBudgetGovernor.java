@@ -0,0 +1,213 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+/**
+ * Keeps the lane detection inside a time budget per frame.
+ * The cost of every detection, divided by the cadence it runs at, is averaged and compared with
+ * the budget. When the average stays over budget the detector steps to a cheaper
+ * quality level (processing scale, region of interest height, Hough resolution and detection
+ * cadence), when it stays well under budget for a longer time it steps back. The different
+ * delays are the hysteresis that prevents the level from oscillating, for example under
+ * thermal throttling, see BudgetHysteresis.
+ *
+ * The governor owns the processing scale, the region of interest horizon and the Hough
+ * resolution of the detector. The region of interest set before creating the governor is
+ * the least restrictive one it uses.
+ */
+public class FrameBudgetGovernor {
+
+    public static final long DEFAULT_BUDGET_NANOS = 33000000L;
+
+    // quality levels, 0 is the best one
+    private static final int[] SCALES = {1, 2, 2, 4, 4, 8};
+    private static final double[] HORIZON_RATIOS = {0, 0, 0.4, 0.5, 0.5, 0.55};
+    private static final double[] HOUGH_RHOS = {1, 1, 2, 2, 2, 2};
+    private static final double[] HOUGH_THETA_DEGREES = {1, 1, 1, 2, 2, 3};
+    // detection runs on one frame out of cadence, the lanes of that frame are kept for the others
+    private static final int[] CADENCES = {1, 1, 1, 1, 2, 3};
+
+    /**
+     * Notified when the governor changes the quality level.
+     */
+    public interface Listener {
+
+        /**
+         * @param oldLevel          previous quality level
+         * @param newLevel          new quality level, higher is cheaper
+         * @param averageFrameNanos average frame cost that caused the change
+         */
+        void onLevelChanged(int oldLevel, int newLevel, long averageFrameNanos);
+    }
+
+    private final LaneDetector mDetector;
+    private final BudgetHysteresis mHysteresis;
+    private final double mBaseHorizonRatio;
+    private final double mBaseTopWidthRatio;
+    private Listener mListener;
+
+    private int mLevel = 0;
+    private long mFrameCount = 0;
+    private int mLevelChanges = 0;
+
+    public FrameBudgetGovernor(LaneDetector detector) {
+        this(detector, DEFAULT_BUDGET_NANOS);
+    }
+
+    /**
+     * @param detector    governed detector
+     * @param budgetNanos target processing time of a frame
+     */
+    public FrameBudgetGovernor(LaneDetector detector, long budgetNanos) {
+        mHysteresis = new BudgetHysteresis(budgetNanos, CADENCES);
+        mDetector = detector;
+        mBaseHorizonRatio = detector.getRoiHorizonRatio();
+        mBaseTopWidthRatio = detector.getRoiTopWidthRatio();
+        applyLevel();
+    }
+
+    /**
+     * Processes a frame with the current quality level and updates the level.
+     *
+     * @param frame raw camera frame
+     * @return whether lanes were detected on this frame, false when the previous lanes are kept
+     */
+    public boolean processFrame(Mat frame) {
+        return processFrame(frame, null);
+    }
+
+    /**
+     * Processes a camera frame on its luma plane with the current quality level and updates the level.
+     *
+     * @param frame camera frame
+     * @return whether lanes were detected on this frame, false when the previous lanes are kept
+     */
+    public boolean processFrame(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        return processFrame(null, frame);
+    }
+
+    private boolean processFrame(Mat frame, CameraBridgeViewBase.CvCameraViewFrame cameraFrame) {
+        boolean detect = mFrameCount++ % CADENCES[mLevel] == 0;
+        if (!detect) {
+            // the previous lanes are kept, the cadence accounts for this frame in the average
+            if (cameraFrame != null) {
+                mDetector.setDisplaySource(cameraFrame);
+            } else {
+                mDetector.setDisplaySource(frame);
+            }
+            return false;
+        }
+
+        long start = System.nanoTime();
+        if (cameraFrame != null) {
+            mDetector.processFrame(cameraFrame);
+        } else {
+            mDetector.processFrame(frame);
+        }
+        if (mHysteresis.recordDetection(System.nanoTime() - start)) {
+            levelChanged();
+        }
+        return true;
+    }
+
+    private void levelChanged() {
+        int oldLevel = mLevel;
+        mLevel = mHysteresis.getLevel();
+        mLevelChanges++;
+        applyLevel();
+
+        if (mListener != null) {
+            mListener.onLevelChanged(oldLevel, mLevel, mHysteresis.getAverageNanos());
+        }
+    }
+
+    private void applyLevel() {
+        mDetector.setProcessingScale(SCALES[mLevel]);
+        mDetector.setRegionOfInterest(Math.max(mBaseHorizonRatio, HORIZON_RATIOS[mLevel]), mBaseTopWidthRatio);
+        mDetector.setHoughResolution(HOUGH_RHOS[mLevel], Math.toRadians(HOUGH_THETA_DEGREES[mLevel]));
+    }
+
+    /**
+     * Sets the quality level, the governor goes on adapting it from there.
+     *
+     * @param level 0 (best) to getLevelCount() - 1 (cheapest)
+     */
+    public void setLevel(int level) {
+        if (level != mLevel) {
+            // throws for a level out of range
+            mHysteresis.setLevel(level);
+            levelChanged();
+        }
+    }
+
+    /**
+     * Getter for quality level
+     * @return current level, 0 is the best quality
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Returns the number of quality levels
+     *
+     * @return number of levels
+     */
+    public int getLevelCount() {
+        return SCALES.length;
+    }
+
+    /**
+     * Returns the detection cadence of the current level
+     *
+     * @return lanes are detected on one frame out of cadence
+     */
+    public int getCadence() {
+        return CADENCES[mLevel];
+    }
+
+    /**
+     * Returns the moving average of the cost per camera frame at the current level, the cost
+     * of a detection divided by the cadence
+     *
+     * @return average cost in nanoseconds
+     */
+    public long getAverageFrameNanos() {
+        return mHysteresis.getAverageNanos();
+    }
+
+    /**
+     * Getter for budget
+     * @return target processing time of a frame in nanoseconds
+     */
+    public long getBudgetNanos() {
+        return mHysteresis.getBudgetNanos();
+    }
+
+    /**
+     * Returns the number of level changes since the governor was created
+     *
+     * @return number of level changes
+     */
+    public int getLevelChanges() {
+        return mLevelChanges;
+    }
+
+    /**
+     * Getter for governed detector
+     * @return detector
+     */
+    public LaneDetector getDetector() {
+        return mDetector;
+    }
+
+    /**
+     * Sets the listener notified of the level changes
+     *
+     * @param listener listener, null to remove it
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+}
@@ -0,0 +1,126 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Integral image of a grayscale frame, copied once into a Java array.
+ * Gives the mean intensity of regions with a few array lookups and without JNI calls.
+ *
+ * Queries use frame coordinates (x = row, y = column, as in LinearEquation) and are mapped
+ * to the grayscale frame, which may start below the frame top and may be downscaled.
+ */
+public class IntegralImage {
+
+    // OpenCV integral, created on the first Mat update
+    private Mat mSum;
+    private int[] mData = new int[0];
+    // columns of the integral image, one more than the grayscale frame
+    private int mStride;
+    private int mRows;
+    private int mCols;
+
+    private int mRowOffset = 0;
+    private int mScale = 1;
+
+    /**
+     * Computes the integral image of a grayscale frame.
+     *
+     * @param gray      grayscale frame (CV_8UC1)
+     * @param rowOffset frame row of the first grayscale row
+     * @param scale     frame pixels per grayscale pixel
+     */
+    public void update(Mat gray, int rowOffset, int scale) {
+        if (mSum == null) {
+            mSum = new Mat();
+        }
+        Imgproc.integral(gray, mSum, CvType.CV_32S);
+
+        resize(gray.rows(), gray.cols(), rowOffset, scale);
+        mSum.get(0, 0, mData);
+    }
+
+    /**
+     * Computes the integral image of a grayscale frame stored in a byte array, without OpenCV.
+     *
+     * @param gray      grayscale pixels, row by row
+     * @param rows      rows of the grayscale frame
+     * @param cols      columns of the grayscale frame
+     * @param rowOffset frame row of the first grayscale row
+     * @param scale     frame pixels per grayscale pixel
+     */
+    public void update(byte[] gray, int rows, int cols, int rowOffset, int scale) {
+        resize(rows, cols, rowOffset, scale);
+
+        // first row and column stay 0
+        for (int col = 0; col < mStride; col++) {
+            mData[col] = 0;
+        }
+        for (int row = 0; row < rows; row++) {
+            int rowSum = 0;
+            int source = row * cols;
+            int above = row * mStride;
+            int target = above + mStride;
+            mData[target] = 0;
+            for (int col = 0; col < cols; col++) {
+                rowSum += gray[source + col] & 0xFF;
+                mData[target + col + 1] = mData[above + col + 1] + rowSum;
+            }
+        }
+    }
+
+    private void resize(int rows, int cols, int rowOffset, int scale) {
+        mRows = rows;
+        mCols = cols;
+        mStride = mCols + 1;
+        mRowOffset = rowOffset;
+        mScale = scale;
+
+        int size = (mRows + 1) * mStride;
+        if (mData.length < size) {
+            mData = new int[size];
+        }
+    }
+
+    /**
+     * Returns the sum of a rectangle in grayscale coordinates, bounds are exclusive at the end.
+     */
+    public int sum(int row1, int col1, int row2, int col2) {
+        return mData[row2 * mStride + col2] - mData[row1 * mStride + col2]
+                - mData[row2 * mStride + col1] + mData[row1 * mStride + col1];
+    }
+
+    /**
+     * Returns the mean intensity of a band that follows the line col = a * row + b.
+     * For every grayscale row around the center row, the band covers bandWidth pixels
+     * centered on the line. Parts of the band outside of the frame are ignored.
+     *
+     * @param a         slope of the line, in frame coordinates
+     * @param b         offset of the line, in frame coordinates
+     * @param centerRow frame row of the band center
+     * @param rowRange  grayscale rows taken above and below the center row
+     * @param bandWidth width of the band in grayscale pixels
+     * @return mean intensity, NaN if the band is outside of the frame
+     */
+    public double bandMean(double a, double b, double centerRow, int rowRange, int bandWidth) {
+        int center = (int) Math.round((centerRow - mRowOffset) / mScale);
+        int firstRow = Math.max(0, center - rowRange);
+        int lastRow = Math.min(mRows, center + rowRange);
+        double halfWidth = (bandWidth - 1) / 2.0;
+
+        long sum = 0;
+        int samples = 0;
+        for (int row = firstRow; row < lastRow; row++) {
+            double col = (a * (row * mScale + mRowOffset) + b) / mScale;
+            int col1 = Math.max(0, (int) Math.round(col - halfWidth));
+            int col2 = Math.min(mCols, (int) Math.round(col + halfWidth) + 1);
+            if (col1 < col2) {
+                sum += mData[(row + 1) * mStride + col2] - mData[row * mStride + col2]
+                        - mData[(row + 1) * mStride + col1] + mData[row * mStride + col1];
+                samples += col2 - col1;
+            }
+        }
+        return (double) sum / samples;
+    }
+}
@@ -0,0 +1,296 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import java.util.Arrays;
+
+/**
+ * Buckets candidate lines by slope sign, angle band and the position of their edges center,
+ * so that only pairs of compatible buckets are tested as lanes.
+ *
+ * Two buckets are compatible when the edges centers of their lines can be further apart
+ * than the minimum lane distance. Lines too steep to be lanes are not indexed at all.
+ * Both rules are necessary conditions of LaneDetector.qualifyAsLanes(), so the pairs are
+ * visited in the same order and with the same outcome as the full pair search.
+ * The optional opposing slopes rule and the per bucket cap trade that guarantee for speed.
+ */
+public class LaneCandidateIndex {
+
+    private static final int ANGLE_BANDS = 4;
+    private static final int SLOPE_SIGNS = 2;
+
+    /**
+     * Receives the candidate pairs in order
+     */
+    public interface PairVisitor {
+        /**
+         * @param i index of the first line
+         * @param j index of the second line, always bigger than i
+         * @return true to stop visiting
+         */
+        boolean visit(int i, int j);
+    }
+
+    private final double mMaxSlope;
+    private final double mMinDistance;
+    private final double mCellSize;
+    private final int mRowCells;
+    private final int mColCells;
+    private final int mBucketCount;
+
+    private int mMaxCandidatesPerBucket = 0;
+    private boolean mOpposingSlopesOnly = false;
+
+    // bucket of every line, -1 when the line is not a candidate
+    private int[] mLineBucket = new int[0];
+    private int mLineCount;
+    private int[][] mBuckets;
+    private int[] mBucketSizes;
+    // bounding box of the edges centers in every bucket: min row, max row, min col, max col
+    private double[][] mBucketBounds;
+    private boolean[][] mCompatible;
+    private int[] mUsedBuckets;
+    private int mUsedBucketCount;
+    // position of every used bucket in mUsedBuckets
+    private int[] mBucketSlot;
+
+    // merge state, one cursor per compatible bucket
+    private int[] mMergeBuckets;
+    private int[] mMergeCursors;
+
+    private int mVisitedPairs;
+
+    /**
+     * @param frameWidth  width of the camera frame
+     * @param frameHeight height of the camera frame
+     * @param maxSlope    lines with a steeper slope are never lanes
+     * @param minDistance minimum distance between the edges centers of two lanes
+     */
+    public LaneCandidateIndex(int frameWidth, int frameHeight, double maxSlope, double minDistance) {
+        mMaxSlope = maxSlope;
+        mMinDistance = minDistance;
+        // with half the distance as cell size, most pairs inside a cell are rejected
+        mCellSize = Math.max(1, minDistance / 2);
+        mRowCells = (int) Math.ceil(frameHeight / mCellSize) + 1;
+        mColCells = (int) Math.ceil(frameWidth / mCellSize) + 1;
+        mBucketCount = SLOPE_SIGNS * ANGLE_BANDS * mRowCells * mColCells;
+
+        mBuckets = new int[mBucketCount][];
+        mBucketSizes = new int[mBucketCount];
+        mBucketBounds = new double[mBucketCount][4];
+        mUsedBuckets = new int[mBucketCount];
+        mBucketSlot = new int[mBucketCount];
+        mCompatible = new boolean[0][0];
+        mMergeBuckets = new int[0];
+        mMergeCursors = new int[0];
+    }
+
+    /**
+     * Limits the number of lines kept in every bucket, lines are kept in their original order.
+     *
+     * @param max maximum candidates per bucket, 0 for no limit
+     */
+    public void setMaxCandidatesPerBucket(int max) {
+        mMaxCandidatesPerBucket = max;
+    }
+
+    /**
+     * Pairs only lines whose slopes have opposite signs.
+     *
+     * @param opposingSlopesOnly whether same sign buckets are incompatible
+     */
+    public void setOpposingSlopesOnly(boolean opposingSlopesOnly) {
+        mOpposingSlopesOnly = opposingSlopesOnly;
+    }
+
+    /**
+     * Indexes the lines of the current frame.
+     *
+     * @param lines candidate lines
+     */
+    public void build(LineSegmentBuffer lines) {
+        int n = lines.size();
+        if (mLineBucket.length < n) {
+            mLineBucket = new int[Math.max(n, mLineBucket.length * 2)];
+        }
+
+        for (int b = 0; b < mUsedBucketCount; b++) {
+            mBucketSizes[mUsedBuckets[b]] = 0;
+        }
+        mUsedBucketCount = 0;
+        mLineCount = n;
+
+        for (int i = 0; i < n; i++) {
+            mLineBucket[i] = -1;
+            if (!(Math.abs(lines.a[i]) < mMaxSlope)) {
+                continue;
+            }
+
+            double centerX = lines.edgesCenterX(i);
+            double centerY = lines.edgesCenterY(i);
+            if (Double.isNaN(centerX) || Double.isNaN(centerY)) {
+                continue;
+            }
+            int bucket = bucketOf(lines.a[i], centerX, centerY);
+            int size = mBucketSizes[bucket];
+            if (mMaxCandidatesPerBucket > 0 && size >= mMaxCandidatesPerBucket) {
+                continue;
+            }
+
+            double[] bounds = mBucketBounds[bucket];
+            if (size == 0) {
+                mBucketSlot[bucket] = mUsedBucketCount;
+                mUsedBuckets[mUsedBucketCount++] = bucket;
+                if (mBuckets[bucket] == null) {
+                    mBuckets[bucket] = new int[8];
+                }
+                bounds[0] = bounds[1] = centerX;
+                bounds[2] = bounds[3] = centerY;
+            } else {
+                bounds[0] = Math.min(bounds[0], centerX);
+                bounds[1] = Math.max(bounds[1], centerX);
+                bounds[2] = Math.min(bounds[2], centerY);
+                bounds[3] = Math.max(bounds[3], centerY);
+            }
+            if (size == mBuckets[bucket].length) {
+                mBuckets[bucket] = Arrays.copyOf(mBuckets[bucket], size * 2);
+            }
+            mBuckets[bucket][size] = i;
+            mBucketSizes[bucket] = size + 1;
+            mLineBucket[i] = bucket;
+        }
+
+        // compatibility between the used buckets, by position in mUsedBuckets
+        if (mCompatible.length < mUsedBucketCount) {
+            mCompatible = new boolean[mUsedBucketCount][mUsedBucketCount];
+            mMergeBuckets = new int[mUsedBucketCount];
+            mMergeCursors = new int[mUsedBucketCount];
+        }
+        for (int p = 0; p < mUsedBucketCount; p++) {
+            for (int q = p; q < mUsedBucketCount; q++) {
+                boolean compatible = compatible(mUsedBuckets[p], mUsedBuckets[q]);
+                mCompatible[p][q] = compatible;
+                mCompatible[q][p] = compatible;
+            }
+        }
+    }
+
+    /**
+     * Visits the candidate pairs (i, j), i < j, in the same order as a nested loop over all
+     * lines would, skipping the pairs of incompatible buckets.
+     *
+     * @param visitor receives the pairs
+     * @return number of visited pairs
+     */
+    public int visitPairs(PairVisitor visitor) {
+        mVisitedPairs = 0;
+
+        for (int i = 0; i < mLineCount; i++) {
+            int bucket = mLineBucket[i];
+            if (bucket >= 0 && visitFrom(i, mBucketSlot[bucket], visitor)) {
+                break;
+            }
+        }
+        return mVisitedPairs;
+    }
+
+    /**
+     * Returns the number of pairs visited by the last visitPairs() call
+     *
+     * @return visited pairs
+     */
+    public int getVisitedPairs() {
+        return mVisitedPairs;
+    }
+
+    /**
+     * Visits the pairs of line i with all of the following lines in compatible buckets.
+     */
+    private boolean visitFrom(int i, int p, PairVisitor visitor) {
+        int count = 0;
+        for (int q = 0; q < mUsedBucketCount; q++) {
+            if (!mCompatible[p][q]) {
+                continue;
+            }
+            int bucket = mUsedBuckets[q];
+            int cursor = firstAfter(mBuckets[bucket], mBucketSizes[bucket], i);
+            if (cursor < mBucketSizes[bucket]) {
+                mMergeBuckets[count] = bucket;
+                mMergeCursors[count] = cursor;
+                count++;
+            }
+        }
+
+        // merge the bucket lists, they are sorted by line index
+        while (count > 0) {
+            int min = 0;
+            for (int k = 1; k < count; k++) {
+                if (mBuckets[mMergeBuckets[k]][mMergeCursors[k]] < mBuckets[mMergeBuckets[min]][mMergeCursors[min]]) {
+                    min = k;
+                }
+            }
+            int bucket = mMergeBuckets[min];
+            int j = mBuckets[bucket][mMergeCursors[min]];
+
+            mVisitedPairs++;
+            if (visitor.visit(i, j)) {
+                return true;
+            }
+
+            mMergeCursors[min]++;
+            if (mMergeCursors[min] == mBucketSizes[bucket]) {
+                count--;
+                mMergeBuckets[min] = mMergeBuckets[count];
+                mMergeCursors[min] = mMergeCursors[count];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the position of the first member bigger than i, members are sorted.
+     */
+    private static int firstAfter(int[] members, int size, int i) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (members[mid] <= i) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int bucketOf(double a, double centerX, double centerY) {
+        int sign = a < 0 ? 0 : 1;
+        int band = (int) (Math.atan(Math.abs(a)) / Math.atan(mMaxSlope) * ANGLE_BANDS);
+        band = Math.min(ANGLE_BANDS - 1, band);
+        int row = clamp((int) Math.floor(centerX / mCellSize), mRowCells);
+        int col = clamp((int) Math.floor(centerY / mCellSize), mColCells);
+        return ((sign * ANGLE_BANDS + band) * mRowCells + row) * mColCells + col;
+    }
+
+    private static int clamp(int cell, int cells) {
+        return Math.max(0, Math.min(cells - 1, cell));
+    }
+
+    private int signOf(int bucket) {
+        return bucket / (ANGLE_BANDS * mRowCells * mColCells);
+    }
+
+    /**
+     * Two buckets are compatible if the furthest points of their bounding boxes
+     * are further apart than the minimum lane distance.
+     */
+    private boolean compatible(int bucket1, int bucket2) {
+        if (mOpposingSlopesOnly && signOf(bucket1) == signOf(bucket2)) {
+            return false;
+        }
+        double[] b1 = mBucketBounds[bucket1];
+        double[] b2 = mBucketBounds[bucket2];
+        double dRow = Math.max(b1[1] - b2[0], b2[1] - b1[0]);
+        double dCol = Math.max(b1[3] - b2[2], b2[3] - b1[2]);
+        return Math.sqrt(dRow * dRow + dCol * dCol) > mMinDistance;
+    }
+}
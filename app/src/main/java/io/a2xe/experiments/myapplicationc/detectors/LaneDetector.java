@@ -1,60 +1,285 @@
 package io.a2xe.experiments.myapplicationc.detectors;
 
-import android.util.Log;
-
+import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
 
-import java.util.ArrayList;
 
 import io.a2xe.experiments.myapplicationc.OpenCVCamera;
 
-public class LaneDetector {
+public class LaneDetector implements LaneEngine, LaneSnapshotSource {
 
     private static final String LOG_TAG = LaneDetector.class.getSimpleName();
 
-    private static final int LEFT = 0;
-    private static final int RIGHT = 1;
-
-    // max slope for a line to be considered as vertical
-    private static final double VERTICAL_THRESHOLD_SLOPE = 4;
-    private static final double BRIGHTNESS_DIFFERENCE_THRESHOLD = 15;
-    private static int LENGTH_THRESHOLD;
-    private static LinearEquation[][] mLanes = new LinearEquation[2][2];
-    private static LinearEquation[] mBisectorLines = new LinearEquation[2];
+    private static final int LEFT = LaneExtractor.LEFT;
+    private static final int RIGHT = LaneExtractor.RIGHT;
+
+    private static final double VERTICAL_THRESHOLD_SLOPE = LaneExtractor.VERTICAL_THRESHOLD_SLOPE;
+    // HoughLinesP parameters at full resolution, divided by the processing scale
+    static final int HOUGH_VOTES = 30;
+    static final int HOUGH_MIN_VOTES = 10;
+    static final double HOUGH_MAX_LINE_GAP = 10;
+    // drawing colors
+    private static final Scalar LEFT_LANE_COLOR = new Scalar(250, 0, 0);
+    private static final Scalar RIGHT_LANE_COLOR = new Scalar(0, 250, 0);
+    private static final Scalar BISECTOR_COLOR = new Scalar(0, 0, 250);
+    private static final Scalar LINE_COLOR = new Scalar(0, 0, 0);
+    private static final Scalar SEGMENT_COLOR = new Scalar(200, 0, 200);
+    private static final Scalar MARKER_COLOR = new Scalar(250, 250, 250);
+    // width of the search corridor around a tracked lane, as a fraction of the frame width
+    private static final double TRACKING_CORRIDOR_RATIO = 1.0 / 16;
+
+    // Hough transform implementations
+    public static final int HOUGH_OPENCV = 0;
+    public static final int HOUGH_PARALLEL_JAVA = 1;
+    private DetectorContext mContext;
     private Mat mRgba;
+    // camera frame of the luma path, its RGBA conversion is done only for display
+    private CameraBridgeViewBase.CvCameraViewFrame mCameraFrame;
+    // luma plane of the camera frame, null when the frame is RGBA
+    private Mat mLuma;
     private Mat mGrayscale;
+    private Mat mPyramid;
+    // second buffer of the reductions, when more than one pyrDown is needed
+    private Mat mReduced;
     private Mat mHough;
     private Mat mDisplayFrame;
     private Mat mLines;
     private Mat mCanny;
-    private ArrayList<LinearEquation> mLinearEquations;
+    private Mat mRoiMask;
+    private Mat mCorridorMask;
+    private IntegralImage mIntegralImage;
+    // whether the integral image was computed for the current frame
+    private boolean mIntegralImageReady = false;
+    private LineSegmentBuffer mSegments;
+    // pair search among mSegments, holds the lanes and bisectors of the frame
+    private LaneExtractor mExtractor;
+    // lanes of the last frame, for overlays drawn outside of the frame Mat
+    private LaneSnapshot mSnapshot;
+    // latency histograms of the detection stages
+    private StageTimings mTimings;
+    // reusable drawing objects
+    private LinearEquation mDrawnLine;
+    private org.opencv.core.Point mDrawStart = new org.opencv.core.Point();
+    private org.opencv.core.Point mDrawEnd = new org.opencv.core.Point();
+    // scratch for the HoughLinesP output, sized to the high-water mark
+    private int[] mLineData = new int[0];
+    private int mHoughMode = HOUGH_OPENCV;
+    // distance (processing pixels) and angle (radians) resolution of the Hough accumulator
+    private double mHoughRho = 1;
+    private double mHoughTheta = Math.PI / 180;
+    // angle restricted Hough transform of the processing resolution, created on demand
+    private ParallelHoughTransform mParallelHough;
+    private byte[] mCannyPixels = new byte[0];
+    private int mParallelSegmentCount = 0;
+    // band parallel Canny, null when Canny runs on the calling thread
+    private ParallelCanny mParallelCanny;
+    // drops edge pixels whose gradient orientation cannot belong to a lane
+    private boolean mGradientGating = false;
+    private Mat mGradientX;
+    private Mat mGradientY;
+    private Mat mGateMask;
+
+    // first frame row processed by the detection stages (rows above it are skipped)
+    private int mRoiTop = 0;
+    // whether the region of interest is a trapezoid or the full area below mRoiTop
+    private boolean mRoiTrapezoid = false;
+    private double mRoiHorizonRatio = 0;
+    private double mRoiTopWidthRatio = 1;
+
+    // frame pixels per processing pixel, a power of two (1 = full resolution)
+    private int mProcessingScale = 1;
+
+    private LaneTracker mTracker;
+    private boolean mTrackingEnabled = false;
+    // whether the current frame is searched only around the tracked lanes
+    private boolean mCorridorSearch = false;
+    // column windows of the corridors in frame pixels, one per lane or one for both
+    private final int[] mWindowStart = new int[2];
+    private final int[] mWindowEnd = new int[2];
+    private int mWindowCount = 0;
 
     private int frameWidth;
     private int frameHeight;
 
-    public static int mFrameWidth = 0;
-    public static int mFrameHeight = 0;
-
     public LaneDetector(int frameWidth, int frameHeight) {
 
-        LENGTH_THRESHOLD = frameHeight / 20;
-
         this.frameWidth = frameWidth;
         this.frameHeight = frameHeight;
 
-        mFrameWidth = frameWidth;
-        mFrameHeight = frameHeight;
+        mContext = new DetectorContext(frameWidth, frameHeight);
 
         mRgba = new Mat();
         mLines = new Mat();
-        mLinearEquations = new ArrayList<>();
+        mSegments = new LineSegmentBuffer(mContext);
+        mExtractor = new LaneExtractor(mSegments, new LaneExtractor.IntegralImageSource() {
+            @Override
+            public IntegralImage integralImage() {
+                return LaneDetector.this.integralImage();
+            }
+        });
         mGrayscale = new Mat();
         mDisplayFrame = new Mat();
         mCanny = new Mat();
         mHough = new Mat();
+        mRoiMask = new Mat();
+        mPyramid = new Mat();
+        mReduced = new Mat();
+        mCorridorMask = new Mat();
+        mGradientX = new Mat();
+        mGradientY = new Mat();
+        mGateMask = new Mat();
+        mIntegralImage = new IntegralImage();
+        mTracker = new LaneTracker(mContext);
+        mSnapshot = new LaneSnapshot(mContext);
+        mTimings = new StageTimings();
+        mDrawnLine = new LinearEquation(mContext, 0, 0);
+    }
+
+    /**
+     * Getter for candidate index, used to configure the per bucket cap and the opposing slopes rule
+     * @return candidate index
+     */
+    public LaneCandidateIndex getCandidateIndex() {
+        return mExtractor.getCandidateIndex();
+    }
+
+    /**
+     * Getter for the lane extractor, used to configure the ranked pair selection and the candidate budget
+     * @return lane extractor
+     */
+    public LaneExtractor getLaneExtractor() {
+        return mExtractor;
+    }
+
+    /**
+     * Returns the number of line pairs tested as lanes in the last frame
+     *
+     * @return pair evaluations
+     */
+    public int getPairEvaluations() {
+        return mExtractor.getPairEvaluations();
+    }
+
+    /**
+     * Enables tracking of the first pair of lanes across frames.
+     * While the tracker is confident only narrow corridors around the predicted lanes are
+     * searched, otherwise the frame goes through full detection.
+     *
+     * @param enabled tracking mode
+     */
+    public void setTrackingEnabled(boolean enabled) {
+        mTrackingEnabled = enabled;
+        mTracker.reset();
+    }
+
+    /**
+     * Returns whether the last frame was searched only around the tracked lanes
+     *
+     * @return corridor search was used
+     */
+    public boolean isCorridorSearch() {
+        return mCorridorSearch;
+    }
+
+    /**
+     * Sets the resolution used by the grayscale, Canny and Hough stages.
+     * The frame is reduced with Imgproc.pyrDown, lanes and bisectors stay in camera coordinates.
+     *
+     * @param scale frame pixels per processing pixel: 1, 2, 4 or 8
+     */
+    public void setProcessingScale(int scale) {
+        if (scale < 1 || scale > 8 || Integer.bitCount(scale) != 1) {
+            throw new IllegalArgumentException("scale must be 1, 2, 4 or 8");
+        }
+
+        mProcessingScale = scale;
+        updateRegionOfInterest();
+    }
+
+    /**
+     * Getter for processing scale
+     * @return frame pixels per processing pixel
+     */
+    public int getProcessingScale() {
+        return mProcessingScale;
+    }
+
+    /**
+     * Restricts all detection stages to the part of the frame below the horizon.
+     * When topWidthRatio is smaller than 1 the region becomes a trapezoid whose bottom edge is
+     * the full frame width and whose top edge, centered, is topWidthRatio of the frame width.
+     *
+     * @param horizonRatio  fraction of the frame height (from the top) that is skipped, 0 to 1
+     * @param topWidthRatio width of the trapezoid top edge relative to the frame width, 0 to 1
+     */
+    public void setRegionOfInterest(double horizonRatio, double topWidthRatio) {
+        if (horizonRatio < 0 || horizonRatio >= 1) {
+            throw new IllegalArgumentException("horizonRatio must be in [0, 1)");
+        }
+        if (topWidthRatio <= 0 || topWidthRatio > 1) {
+            throw new IllegalArgumentException("topWidthRatio must be in (0, 1]");
+        }
+
+        mRoiHorizonRatio = horizonRatio;
+        mRoiTopWidthRatio = topWidthRatio;
+        updateRegionOfInterest();
+    }
+
+    /**
+     * Getter for region of interest horizon
+     * @return fraction of the frame height that is skipped
+     */
+    public double getRoiHorizonRatio() {
+        return mRoiHorizonRatio;
+    }
+
+    /**
+     * Getter for region of interest top width
+     * @return width of the trapezoid top edge relative to the frame width
+     */
+    public double getRoiTopWidthRatio() {
+        return mRoiTopWidthRatio;
+    }
+
+    /**
+     * Removes the region of interest, the whole frame is processed again.
+     */
+    public void clearRegionOfInterest() {
+        mRoiHorizonRatio = 0;
+        mRoiTopWidthRatio = 1;
+        updateRegionOfInterest();
+    }
+
+    /**
+     * Recalculates the region of interest rows and rebuilds the trapezoid mask
+     * in the processing resolution.
+     */
+    private void updateRegionOfInterest() {
+        mRoiTop = (int) (frameHeight * mRoiHorizonRatio);
+        mRoiTrapezoid = mRoiTopWidthRatio < 1;
+
+        if (mRoiTrapezoid) {
+            int roiHeight = reducedSize(frameHeight - mRoiTop);
+            int roiWidth = reducedSize(frameWidth);
+            double inset = roiWidth * (1 - mRoiTopWidthRatio) / 2;
+
+            mRoiMask.create(roiHeight, roiWidth, CvType.CV_8UC1);
+            mRoiMask.setTo(new Scalar(0));
+            MatOfPoint trapezoid = new MatOfPoint(
+                    new org.opencv.core.Point(inset, 0),
+                    new org.opencv.core.Point(roiWidth - inset, 0),
+                    new org.opencv.core.Point(roiWidth, roiHeight),
+                    new org.opencv.core.Point(0, roiHeight));
+            Imgproc.fillConvexPoly(mRoiMask, trapezoid, new Scalar(255));
+            trapezoid.release();
+        } else {
+            mRoiMask.release();
+        }
     }
 
     /**
@@ -64,65 +289,225 @@ public class LaneDetector {
      * @param frame raw camera frame
      */
     public void processFrame(Mat frame) {
+        beginFrame(frame);
+        // Detect all lines in image
+        detectLines();
+        findLanes();
+    }
 
-        mLinearEquations.clear();
-        for (int i = 0; i < mLanes.length; i++) {
-            for (int j = 0; j < mLanes[i].length; j++) {
-                mLanes[i][j] = null;
-            }
-            mBisectorLines[i] = null;
-        }
+    /**
+     * Processes a camera frame on its luma plane.
+     * The camera frame is converted to RGBA only if a display frame is requested afterwards.
+     *
+     * @param frame camera frame
+     */
+    public void processFrame(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        beginFrame(null);
+        mCameraFrame = frame;
+        mLuma = frame.gray();
+        detectLines();
+        findLanes();
+    }
+
+    /**
+     * Replaces the frame the lanes are drawn on, the lanes are kept.
+     * Used for the frames on which detection is skipped.
+     *
+     * @param frame raw camera frame
+     */
+    public void setDisplaySource(Mat frame) {
         mRgba = frame;
+        mCameraFrame = null;
+    }
 
-        // Detect all lines in image
-        detectLines();
+    /**
+     * Replaces the frame the lanes are drawn on with a camera frame, converted to RGBA only
+     * if a display frame is requested. The lanes are kept.
+     *
+     * @param frame camera frame
+     */
+    public void setDisplaySource(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        mRgba = null;
+        mCameraFrame = frame;
+    }
+
+    /**
+     * Clears the results of the previous frame and prepares the detection of a new frame.
+     * First step of processFrame(), used alone when the stages run on different threads.
+     *
+     * @param frame raw camera frame
+     */
+    public void beginFrame(Mat frame) {
+        mSegments.clear();
+        mExtractor.clear();
+        mRgba = frame;
+        mCameraFrame = null;
+        // the luma plane belongs to the camera frame
+        mLuma = null;
+        mIntegralImageReady = false;
+
+        mCorridorSearch = mTrackingEnabled && mTracker.isConfident();
+        if (mTrackingEnabled && mTracker.isTracking()) {
+            mTracker.predict();
+        }
+    }
+
+    /**
+     * Finds the lanes and their bisectors among the lines found by detectLines().
+     * Last step of processFrame(), used alone when the stages run on different threads.
+     */
+    public void findLanes() {
         // Transform the two dots received from HoughLinesP() into linear equations
-        long start = System.nanoTime();
+        long time = mTimings.start();
         calculateLinearEquations();
-        double end = System.nanoTime();
-        //Log.e(LOG_TAG, "calculateLinearEquations: " + Double.toString((end - start) / 1000000000));
+        time = mTimings.end(StageTimings.STAGE_EQUATIONS, time);
         // Process lines to extract lanes
-        start = System.nanoTime();
-        extractLanes();
-        end = System.nanoTime();
-        //Log.e(LOG_TAG, "extractLanes: " + Double.toString((end - start) / 1000000000));
-        // Find the angle bisector. Used for determination of tilt and deviation
-        for (int i = 0; i < 2; i++) {
-            if (lanesFound(i)) {
-                mBisectorLines[i] = LinearEquation.calculateAngleBisector(mLanes[LEFT][i], mLanes[RIGHT][i]);
-            }
+        if (mCorridorSearch) {
+            extractTrackedLanes();
+        } else {
+            extractLanes();
         }
+        if (mTrackingEnabled) {
+            updateTracker();
+        }
+        time = mTimings.end(StageTimings.STAGE_EXTRACT_LANES, time);
+        // Find the angle bisector. Used for determination of tilt and deviation
+        mExtractor.calculateBisectors();
+        mSnapshot.update(mExtractor);
+        mTimings.end(StageTimings.STAGE_BISECTORS, time);
+    }
+
+    /**
+     * Swaps the grayscale, lines and hough frames with the ones of a pipeline slot.
+     * Lets the results of detectLines() move to another detector without copying,
+     * the detector goes on with the Mats the slot had.
+     *
+     * @param slot pipeline slot
+     */
+    public void exchangeFrameBuffers(PipelinedLaneDetector.Slot slot) {
+        Mat grayscale = mGrayscale;
+        mGrayscale = slot.grayscale;
+        slot.grayscale = grayscale;
+
+        Mat lines = mLines;
+        mLines = slot.lines;
+        slot.lines = lines;
+
+        Mat display = mHough;
+        mHough = slot.display;
+        slot.display = display;
+
+        mIntegralImageReady = false;
     }
 
     /**
      * Detects all lines in the image.
      * Uses Canny and Hough Transform.
+     * Only the region of interest is processed, the grayscale and canny frames cover it alone
+     * in the processing resolution. During corridor search only the columns of the corridors
+     * are converted and searched for edges, the other pixels of both frames are zero.
      */
     public void detectLines() {
+        long time = mTimings.start();
 
-        // Convert image to grayscale
-        Imgproc.cvtColor(mRgba, mGrayscale, Imgproc.COLOR_RGB2GRAY);
+        // View of the rows below the horizon, no pixels are copied
+        Mat roi = mLuma != null ? mLuma.rowRange(mRoiTop, mLuma.rows()) : mRgba.rowRange(mRoiTop, mRgba.rows());
 
-        double otsu_thresh_val = Imgproc.threshold(
-                mGrayscale, new Mat(), 0, 255, Imgproc.THRESH_OTSU | Imgproc.THRESH_BINARY);
+        if (mCorridorSearch) {
+            mCorridorSearch = findCorridorWindows();
+        }
+        if (mCorridorSearch) {
+            mGrayscale.create(reducedSize(frameHeight - mRoiTop), reducedSize(frameWidth), CvType.CV_8UC1);
+            mGrayscale.setTo(new Scalar(0));
+            for (int i = 0; i < mWindowCount; i++) {
+                Mat source = roi.colRange(mWindowStart[i], mWindowEnd[i]);
+                Mat gray = window(mGrayscale, i);
+                toProcessingGray(source, gray);
+                source.release();
+                gray.release();
+            }
+        } else {
+            toProcessingGray(roi, mGrayscale);
+        }
+        roi.release();
+        time = mTimings.end(StageTimings.STAGE_GRAYSCALE, time);
 
         double sigma = 0.33;
-        double v = Core.mean(mRgba).val[0] * 1;
+        double v;
+        if (mCorridorSearch) {
+            // mean of the corridor windows alone, the zeroed pixels are not part of the frame
+            double sum = 0;
+            long pixels = 0;
+            for (int i = 0; i < mWindowCount; i++) {
+                Mat gray = window(mGrayscale, i);
+                if (mRoiTrapezoid) {
+                    Mat mask = window(mRoiMask, i);
+                    int count = Core.countNonZero(mask);
+                    sum += count > 0 ? Core.mean(gray, mask).val[0] * count : 0;
+                    pixels += count;
+                    mask.release();
+                } else {
+                    sum += Core.mean(gray).val[0] * gray.total();
+                    pixels += gray.total();
+                }
+                gray.release();
+            }
+            v = pixels > 0 ? sum / pixels : 0;
+        } else {
+            v = (mRoiTrapezoid ? Core.mean(mGrayscale, mRoiMask) : Core.mean(mGrayscale)).val[0] * 1;
+        }
 
         double lower = (Math.max(0, (1.0 - sigma) * v));
         double upper = (Math.min(255, (1.0 + sigma) * v));
+        time = mTimings.end(StageTimings.STAGE_THRESHOLD, time);
 
         // Apply Canny to image
-        double threshold1 = otsu_thresh_val / 2;
-        double threshold2 = otsu_thresh_val;
-        Imgproc.Canny(mGrayscale, mCanny, lower, upper);
+        if (mCorridorSearch) {
+            mCanny.create(mGrayscale.size(), CvType.CV_8UC1);
+            mCanny.setTo(new Scalar(0));
+            for (int i = 0; i < mWindowCount; i++) {
+                Mat gray = window(mGrayscale, i);
+                Mat canny = window(mCanny, i);
+                detectEdges(gray, canny, lower, upper);
+                gray.release();
+                canny.release();
+            }
+        } else {
+            detectEdges(mGrayscale, mCanny, lower, upper);
+        }
 
-        long start = System.nanoTime();
-        // Detect lines with Hough Transform
-        Imgproc.HoughLinesP(mCanny, mLines, 1, Math.PI / 180, 30, LENGTH_THRESHOLD, 10);
-        double end = System.nanoTime();
+        // Drop the edges outside of the trapezoid before voting
+        if (mRoiTrapezoid) {
+            Core.bitwise_and(mCanny, mRoiMask, mCanny);
+        }
+
+        // Drop the edges outside of the corridors around the tracked lanes
+        if (mCorridorSearch) {
+            mCorridorMask.create(mCanny.size(), CvType.CV_8UC1);
+            mCorridorMask.setTo(new Scalar(0));
+            int thickness = (int) Math.max(1, frameWidth * TRACKING_CORRIDOR_RATIO / mProcessingScale);
+            for (int side = LEFT; side <= RIGHT; side++) {
+                LinearEquation lane = mTracker.getPredicted(side);
+                Imgproc.line(mCorridorMask,
+                        new org.opencv.core.Point(lane.y(mRoiTop) / mProcessingScale, 0),
+                        new org.opencv.core.Point(lane.y(frameHeight) / mProcessingScale,
+                                (frameHeight - mRoiTop) / mProcessingScale),
+                        new Scalar(255), thickness);
+            }
+            Core.bitwise_and(mCanny, mCorridorMask, mCanny);
+        }
+        time = mTimings.end(StageTimings.STAGE_CANNY, time);
 
-        //Log.e(LOG_TAG, "detectLines: " + Double.toString((end - start) / 1000000000));
+        // Detect lines with Hough Transform
+        if (mHoughMode == HOUGH_PARALLEL_JAVA) {
+            detectLinesParallel();
+        } else {
+            Imgproc.HoughLinesP(mCanny, mLines, mHoughRho, mHoughTheta,
+                    Math.max(HOUGH_MIN_VOTES, HOUGH_VOTES / mProcessingScale),
+                    (double) mContext.lengthThreshold / mProcessingScale,
+                    Math.max(1, HOUGH_MAX_LINE_GAP / mProcessingScale));
+        }
+        mTimings.end(StageTimings.STAGE_HOUGH, time);
 
         // Release unnecessary temporary Mat
 //        mCanny.release();
@@ -130,111 +515,431 @@ public class LaneDetector {
     }
 
     /**
-     * Calculates linear equations from
+     * Converts a part of the region of interest to grayscale in the processing resolution.
+     *
+     * @param source part of the region of interest, luma plane or RGBA
+     * @param gray   receives the grayscale part, may be a view of a larger Mat of the right size
+     */
+    private void toProcessingGray(Mat source, Mat gray) {
+        int scale = mProcessingScale;
+        if (scale == 1) {
+            if (mLuma == null) {
+                Imgproc.cvtColor(source, gray, Imgproc.COLOR_RGB2GRAY);
+            } else {
+                source.copyTo(gray);
+            }
+            return;
+        }
+
+        // The luma plane is already grayscale, the first reduction reads it directly
+        Mat current = source;
+        if (mLuma == null) {
+            Imgproc.cvtColor(source, mPyramid, Imgproc.COLOR_RGB2GRAY);
+            current = mPyramid;
+        }
+        for (; scale > 2; scale /= 2) {
+            Mat next = current == mPyramid ? mReduced : mPyramid;
+            Imgproc.pyrDown(current, next);
+            current = next;
+        }
+        // the last reduction writes in place, a view keeps its size
+        Imgproc.pyrDown(current, gray);
+    }
+
+    /**
+     * Runs Canny on a grayscale part, gated by gradient orientation when enabled.
+     */
+    private void detectEdges(Mat gray, Mat canny, double lower, double upper) {
+        if (mGradientGating) {
+            // same gradients as the ones Canny computes internally
+            Imgproc.spatialGradient(gray, mGradientX, mGradientY, 3, Core.BORDER_REPLICATE);
+        }
+        if (mParallelCanny != null) {
+            mParallelCanny.apply(gray, canny, lower, upper);
+        } else if (mGradientGating) {
+            Imgproc.Canny(mGradientX, mGradientY, canny, lower, upper);
+        } else {
+            Imgproc.Canny(gray, canny, lower, upper);
+        }
+
+        // Drop the edges that cannot be part of a lane before voting
+        if (mGradientGating) {
+            gateEdgesByGradient(canny);
+        }
+    }
+
+    /**
+     * Computes the column windows of the corridors around the predicted lanes, in frame pixels.
+     * The windows are aligned on the processing scale, overlapping windows are merged.
+     *
+     * @return whether the corridors cross the frame
+     */
+    private boolean findCorridorWindows() {
+        double halfWidth = frameWidth * TRACKING_CORRIDOR_RATIO / 2;
+        int scale = mProcessingScale;
+        mWindowCount = 0;
+        for (int side = LEFT; side <= RIGHT; side++) {
+            LinearEquation lane = mTracker.getPredicted(side);
+            double top = lane.y(mRoiTop), bottom = lane.y(frameHeight);
+            int start = (int) Math.max(0, Math.floor(Math.min(top, bottom) - halfWidth));
+            int end = (int) Math.min(frameWidth, Math.ceil(Math.max(top, bottom) + halfWidth));
+            start = start / scale * scale;
+            end = Math.min(frameWidth, (end + scale - 1) / scale * scale);
+            if (end - start < 2 * scale) {
+                continue;
+            }
+            if (mWindowCount > 0 && start <= mWindowEnd[0] && end >= mWindowStart[0]) {
+                mWindowStart[0] = Math.min(start, mWindowStart[0]);
+                mWindowEnd[0] = Math.max(end, mWindowEnd[0]);
+            } else {
+                mWindowStart[mWindowCount] = start;
+                mWindowEnd[mWindowCount] = end;
+                mWindowCount++;
+            }
+        }
+        return mWindowCount > 0;
+    }
+
+    /**
+     * Returns the view of a processing resolution frame covering a corridor window.
+     */
+    private Mat window(Mat frame, int index) {
+        int first = mWindowStart[index] / mProcessingScale;
+        int last = first + reducedSize(mWindowEnd[index] - mWindowStart[index]);
+        return frame.colRange(first, last);
+    }
+
+    /**
+     * Returns a frame length in the processing resolution, pyrDown gives (n + 1) / 2 for every level.
+     */
+    private int reducedSize(int size) {
+        for (int scale = mProcessingScale; scale > 1; scale /= 2) {
+            size = (size + 1) / 2;
+        }
+        return size;
+    }
+
+    /**
+     * Calculates linear equations from the detected lines.
      */
     private void calculateLinearEquations() {
 
         //Log.e("LaneDetector", "Detected lines: " + mLines.rows());
 
-        for (int i = 0; i < mLines.rows(); i++) {
-            double[] vec = mLines.get(i, 0);
-            double y1 = vec[0],
-                    x1 = vec[1],
-                    y2 = vec[2],
-                    x2 = vec[3];
-            LinearEquation linearEquation = new LinearEquation(x1, y1, x2, y2);
-            if (linearEquation.length() > LENGTH_THRESHOLD) {
-                mLinearEquations.add(linearEquation);
+        if (mHoughMode == HOUGH_PARALLEL_JAVA) {
+            readSegments(mParallelHough.getSegments(), mParallelSegmentCount, mSegments);
+        } else {
+            readSegments(mLines, mSegments);
+        }
+    }
+
+    /**
+     * Detects lines with the Java Hough transform, only in the angles lanes can have.
+     * The transform is created again when the processing resolution changes.
+     */
+    private void detectLinesParallel() {
+        int width = mCanny.cols(), height = mCanny.rows();
+        if (mParallelHough == null || mParallelHough.getWidth() != width || mParallelHough.getHeight() != height) {
+            // lanes are less than atan(VERTICAL_THRESHOLD_SLOPE) away from vertical
+            double maxAngle = Math.atan(VERTICAL_THRESHOLD_SLOPE);
+            if (mParallelHough != null) {
+                mParallelHough.shutdown();
             }
+            mParallelHough = new ParallelHoughTransform(width, height, -maxAngle, maxAngle,
+                    mHoughTheta, mHoughRho, Runtime.getRuntime().availableProcessors());
+            mCannyPixels = new byte[width * height];
         }
+
+        mCanny.get(0, 0, mCannyPixels);
+        mParallelHough.setEdgeImage(mCannyPixels);
+        mParallelSegmentCount = mParallelHough.findSegments(
+                Math.max(HOUGH_MIN_VOTES, HOUGH_VOTES / mProcessingScale),
+                (double) mContext.lengthThreshold / mProcessingScale,
+                (int) Math.max(1, HOUGH_MAX_LINE_GAP / mProcessingScale));
     }
 
     /**
-     * Receives a pair of lines and returns true if they can be lanes and false otherwise
-     * Uses heuristics.
+     * Keeps the edge pixels whose gradient is compatible with a lane.
+     * A lane has |dcol / drow| < VERTICAL_THRESHOLD_SLOPE, its gradient is perpendicular to it,
+     * so |gy| < VERTICAL_THRESHOLD_SLOPE * |gx|. Near horizontal edges (bumpers, shadows,
+     * road seams) are dropped.
+     */
+    private void gateEdgesByGradient(Mat canny) {
+        Core.absdiff(mGradientX, Scalar.all(0), mGradientX);
+        Core.multiply(mGradientX, Scalar.all(VERTICAL_THRESHOLD_SLOPE), mGradientX);
+        Core.absdiff(mGradientY, Scalar.all(0), mGradientY);
+        Core.compare(mGradientY, mGradientX, mGateMask, Core.CMP_LT);
+        Core.bitwise_and(canny, mGateMask, canny);
+    }
+
+    /**
+     * Enables or disables gradient orientation gating of the Canny edges.
      *
-     * @param line1 first line
-     * @param line2 second line
-     * @return are the two lines lanes
+     * @param enabled whether edges incompatible with lane angles are dropped before Hough
      */
-    public boolean qualifyAsLanes(LinearEquation line1, LinearEquation line2) {
-        double a1 = line1.a,
-                b1 = line1.b,
-                a2 = line2.a,
-                b2 = line2.b;
+    public void setGradientGatingEnabled(boolean enabled) {
+        mGradientGating = enabled;
+    }
 
-        for (int i = 0; i < 2; i++) {
-            for (LinearEquation lane : mLanes[i]) {
-                if (lane != null) {
-                    //Log.e(LOG_TAG, "qualifyAsLanes: " + Math.abs(lane.a - a1) + ", " + Math.abs(lane.a - a2));
-                    if (Math.abs(lane.a - a2) * 10 + Math.abs(lane.b - b2) < 20 || Math.abs(lane.a - a1) * 10 + Math.abs(lane.b - b1) < 20) {
-                        return false;
-                    }
-                }
+    /**
+     * Returns whether the Canny edges are gated by gradient orientation
+     *
+     * @return gradient gating is enabled
+     */
+    public boolean isGradientGatingEnabled() {
+        return mGradientGating;
+    }
+
+    /**
+     * Returns the number of candidate segments of the current frame
+     *
+     * @return number of segments longer than the length threshold
+     */
+    public int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * Enables or disables Canny in horizontal bands on all cores.
+     *
+     * @param enabled whether edges are detected in parallel
+     */
+    public void setParallelCannyEnabled(boolean enabled) {
+        if (enabled && mParallelCanny == null) {
+            mParallelCanny = new ParallelCanny(Runtime.getRuntime().availableProcessors());
+        } else if (!enabled && mParallelCanny != null) {
+            mParallelCanny.shutdown();
+            mParallelCanny = null;
+        }
+    }
+
+    /**
+     * Returns whether Canny runs in parallel bands
+     *
+     * @return parallel Canny is enabled
+     */
+    public boolean isParallelCannyEnabled() {
+        return mParallelCanny != null;
+    }
+
+    /**
+     * Selects the Hough transform implementation.
+     * Not used by PipelinedLaneDetector, which moves the OpenCV lines between its stages.
+     *
+     * @param mode HOUGH_OPENCV or HOUGH_PARALLEL_JAVA
+     */
+    public void setHoughMode(int mode) {
+        if (mode != HOUGH_OPENCV && mode != HOUGH_PARALLEL_JAVA) {
+            throw new IllegalArgumentException("Unknown Hough mode: " + mode);
+        }
+        mHoughMode = mode;
+    }
+
+    /**
+     * Stops the voting threads of the Java Hough transform and disables the parallel Canny,
+     * called when the detector is not used anymore. The transform is created again if the
+     * detector processes another frame.
+     */
+    public void shutdown() {
+        if (mParallelHough != null) {
+            mParallelHough.shutdown();
+            mParallelHough = null;
+        }
+        setParallelCannyEnabled(false);
+    }
+
+    /**
+     * Sets the resolution of the Hough accumulator. A coarser resolution votes faster
+     * but merges close lines.
+     *
+     * @param rho   distance resolution, in processing pixels
+     * @param theta angle resolution, in radians
+     */
+    public void setHoughResolution(double rho, double theta) {
+        if (rho <= 0 || theta <= 0) {
+            throw new IllegalArgumentException("Invalid Hough resolution: " + rho + ", " + theta);
+        }
+        if (rho != mHoughRho || theta != mHoughTheta) {
+            mHoughRho = rho;
+            mHoughTheta = theta;
+            // created again with the new resolution
+            if (mParallelHough != null) {
+                mParallelHough.shutdown();
+                mParallelHough = null;
             }
         }
+    }
 
-        if (Math.abs(b1 - b2) > 5 && Math.abs(a1) < VERTICAL_THRESHOLD_SLOPE && Math.abs(a2) < VERTICAL_THRESHOLD_SLOPE) {
-            if (Math.abs(line1.edgesCenter().distance(line2.edgesCenter())) > mRgba.width() / 3) {
-                Point intersection = LinearEquation.intersect(line1, line2);
+    /**
+     * Getter for Hough distance resolution
+     * @return distance resolution, in processing pixels
+     */
+    public double getHoughRho() {
+        return mHoughRho;
+    }
 
-                //Log.e("LaneDetector", "Height: " + mRgba.height() + ", width:" + mRgba.width());
+    /**
+     * Getter for Hough angle resolution
+     * @return angle resolution, in radians
+     */
+    public double getHoughTheta() {
+        return mHoughTheta;
+    }
 
-                // padding factor
-                double pf = mRgba.height() * 0.5;
+    /**
+     * Getter for Hough transform implementation
+     * @return HOUGH_OPENCV or HOUGH_PARALLEL_JAVA
+     */
+    public int getHoughMode() {
+        return mHoughMode;
+    }
 
-                if ((intersection.x < 0 - pf || intersection.x > mRgba.height() + pf) || (intersection.y < 0 - pf || intersection.y > mRgba.width() + pf)) {
-                    if (intersection.x < 0 && Math.abs(intersection.x) < 400) {
-                        if (brightnessDifferenceQualifies(line1, line2)) {
-                            return true;
-                        }
-                    }
-                }
+    /**
+     * Reads the segments found by HoughLinesP with a single bulk copy and adds the long enough ones.
+     * Segments are mapped back from region of interest and processing scale to full frame coordinates.
+     *
+     * @param lines    HoughLinesP output (CV_32SC4, one segment per row)
+     * @param segments buffer receiving the segments
+     * @return number of segments added
+     */
+    public int readSegments(Mat lines, LineSegmentBuffer segments) {
+        int count = lines.rows();
+        if (count == 0) {
+            return 0;
+        }
+
+        if (mLineData.length < count * 4) {
+            mLineData = new int[count * 4];
+        }
+        lines.get(0, 0, mLineData);
+        return readSegments(mLineData, count, segments);
+    }
+
+    /**
+     * Adds the long enough segments of a HoughLinesP formatted array.
+     *
+     * @param data     four values per segment: col1, row1, col2, row2, in processing coordinates
+     * @param count    number of segments
+     * @param segments buffer receiving the segments
+     * @return number of segments added
+     */
+    public int readSegments(int[] data, int count, LineSegmentBuffer segments) {
+        int added = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = i * 4;
+            if (addSegment(segments, data[offset], data[offset + 1], data[offset + 2], data[offset + 3])) {
+                added++;
             }
         }
-        return false;
+        return added;
     }
 
     /**
-     * Determines which lane is on the left and which lane is on the right.
-     * Finally, inserts them in the appropriate index.
+     * Same as readSegments(), reading the segments one row at a time.
+     * Kept as reference for benchmarks.
      *
-     * @param lane1 first lane
-     * @param lane2 second lane
-     * @param index first pair or second pair of lanes
+     * @param lines    HoughLinesP output (CV_32SC4, one segment per row)
+     * @param segments buffer receiving the segments
+     * @return number of segments added
      */
-    private void setLanes(LinearEquation lane1, LinearEquation lane2, int index) {
-        if (lane1.distanceFromPoint(new Point(frameHeight / 2, 0)) > lane2.distanceFromPoint(new Point(frameHeight / 2, 0))) {
-            mLanes[LEFT][index] = lane1;
-            mLanes[RIGHT][index] = lane2;
-        } else {
-            mLanes[LEFT][index] = lane2;
-            mLanes[RIGHT][index] = lane1;
+    public int readSegmentsPerRow(Mat lines, LineSegmentBuffer segments) {
+        int added = 0;
+        for (int i = 0; i < lines.rows(); i++) {
+            double[] vec = lines.get(i, 0);
+            if (addSegment(segments, vec[0], vec[1], vec[2], vec[3])) {
+                added++;
+            }
         }
+        return added;
     }
 
     /**
-     * Goes over all of the lines and finds one or two pairs of lanes.
+     * Adds a segment given in processing coordinates ([col1, row1, col2, row2])
+     * if it is longer than the length threshold.
+     */
+    private boolean addSegment(LineSegmentBuffer segments, double col1, double row1, double col2, double row2) {
+        return segments.addScaled(col1, row1, col2, row2, mProcessingScale, mRoiTop);
+    }
+
+    /**
+     * Receives a pair of lines and returns true if they can be lanes and false otherwise
+     * Uses heuristics.
+     *
+     * @param line1 first line
+     * @param line2 second line
+     * @return are the two lines lanes
+     */
+    public boolean qualifyAsLanes(LinearEquation line1, LinearEquation line2) {
+        return mExtractor.qualifyAsLanes(line1, line2);
+    }
+
+    /**
+     * Goes over the compatible pairs of lines and finds one or two pairs of lanes.
      */
     public void extractLanes() {
 
-        //Log.e("LaneDetector", "Equations: " + mLinearEquations.size());
+        //Log.e("LaneDetector", "Equations: " + mSegments.size());
 
-        int index = 0;
+        mExtractor.extractLanes();
+    }
 
-        for (int i = 0; i < mLinearEquations.size(); i++) {
-            for (int j = i + 1; j < mLinearEquations.size(); j++) {
-                if (qualifyAsLanes(mLinearEquations.get(i), mLinearEquations.get(j))) {
-                    setLanes(mLinearEquations.get(i), mLinearEquations.get(j), index);
-                    //Log.e(LOG_TAG, "extractLanes: " + index);
-                    index++;
-                    if (index > 1) {
-                        return;
-                    }
-                }
+    /**
+     * Finds the first pair of lanes in the corridors around the tracked lanes.
+     * Every predicted lane takes the closest line in its corridor, no pair search is done.
+     */
+    private void extractTrackedLanes() {
+        int left = closestSegment(mTracker.getPredicted(LEFT));
+        int right = closestSegment(mTracker.getPredicted(RIGHT));
+        if (left >= 0 && right >= 0 && left != right) {
+            mExtractor.setLane(LEFT, 0, left);
+            mExtractor.setLane(RIGHT, 0, right);
+        }
+    }
+
+    /**
+     * Returns the segment closest to a predicted lane, measured by the mean horizontal
+     * offset at the top and the bottom of the region of interest.
+     *
+     * @param predicted predicted lane
+     * @return index of the closest segment inside the corridor or -1
+     */
+    private int closestSegment(LinearEquation predicted) {
+        double maxOffset = frameWidth * TRACKING_CORRIDOR_RATIO / 2;
+        int closest = -1;
+        for (int i = 0; i < mSegments.size(); i++) {
+            if (Math.abs(mSegments.a[i]) >= VERTICAL_THRESHOLD_SLOPE) {
+                continue;
             }
+            double offset = (Math.abs(mSegments.y(i, mRoiTop) - predicted.y(mRoiTop))
+                    + Math.abs(mSegments.y(i, frameHeight) - predicted.y(frameHeight))) / 2;
+            if (offset < maxOffset) {
+                maxOffset = offset;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Feeds the first pair of lanes to the tracker and replaces it with the filtered lanes.
+     * A frame without lanes, or with lanes too far from the prediction, counts as a miss and
+     * the prediction is used instead; too many misses fall back to full detection.
+     */
+    private void updateTracker() {
+        if (lanesFound(0)) {
+            if (mTracker.isTracking()) {
+                mTracker.correct(mExtractor.getLane(LEFT, 0), mExtractor.getLane(RIGHT, 0));
+            } else {
+                mTracker.initialize(mExtractor.getLane(LEFT, 0), mExtractor.getLane(RIGHT, 0));
+            }
+        } else if (mTracker.isTracking()) {
+            mTracker.miss();
         }
 
+        if (mTracker.isTracking()) {
+            mExtractor.setLane(LEFT, 0, mTracker.getEstimated(LEFT));
+            mExtractor.setLane(RIGHT, 0, mTracker.getEstimated(RIGHT));
+        }
     }
 
     /**
@@ -246,9 +951,7 @@ public class LaneDetector {
      * @return whether brightness difference is suitable for lanes
      */
     public boolean brightnessDifferenceQualifies(LinearEquation line1, LinearEquation line2) {
-        double b1 = Math.abs(brightnessDifferenceAroundLine(line1));
-        double b2 = Math.abs(brightnessDifferenceAroundLine(line2));
-        return Math.abs(b1) > BRIGHTNESS_DIFFERENCE_THRESHOLD && Math.abs(b2) > BRIGHTNESS_DIFFERENCE_THRESHOLD && Math.abs(Math.abs(b1) - Math.abs(b2)) < 20;
+        return mExtractor.brightnessDifferenceQualifies(line1, line2);
     }
 
     /**
@@ -258,17 +961,20 @@ public class LaneDetector {
      * @return brightness difference value
      */
     public double brightnessDifferenceAroundLine(LinearEquation line) {
-        int bDiff = (int) ((mRgba.width() / 40) * Math.sqrt(Math.pow(line.a, 2) + 1));
-        LinearEquation side1 = new LinearEquation(line.a, line.b + bDiff, line.center());
-        LinearEquation side2 = new LinearEquation(line.a, line.b - bDiff, line.center());
-
-        // Todo: remove, for debugging
-//        drawLinearEquation(mRgba, side1, new Scalar(255,255,255));
-//        drawLinearEquation(mRgba, side2, new Scalar(255,255,255));
-
-        side1.center();
+        return mExtractor.brightnessDifferenceAroundLine(line);
+    }
 
-        return lineBrightness(side1) - lineBrightness(side2);
+    /**
+     * Returns the integral image of the grayscale frame, computed on first use in every frame.
+     *
+     * @return integral image
+     */
+    private IntegralImage integralImage() {
+        if (!mIntegralImageReady) {
+            mIntegralImage.update(mGrayscale, mRoiTop, mProcessingScale);
+            mIntegralImageReady = true;
+        }
+        return mIntegralImage;
     }
 
     /**
@@ -278,20 +984,7 @@ public class LaneDetector {
      * @return brightness value
      */
     public double lineBrightness(LinearEquation line) {
-        Point p;
-        double sum = 0;
-        int samples = 0;
-        int range = 10;
-        for (double i = line.center().x - range; i < line.center().x + range; i++) {
-            p = new Point(i, line.y(i));
-            double[] point = mGrayscale.get((int) Math.round(p.x), (int) Math.round(p.y));
-            if (point != null) {
-                sum += point[0];
-                samples++;
-            }
-        }
-
-        return sum / samples;
+        return mExtractor.lineBrightness(line);
     }
 
     /**
@@ -303,15 +996,9 @@ public class LaneDetector {
 
         for (int i = 0; i < 2; i++) {
             if (lanesFound(i)) {
-                //int color = (2-i) * 125;
-                int color = 250;
-                drawLinearEquation(frame, mLanes[LEFT][i], new Scalar(color, 0, 0));
-                drawLinearEquation(frame, mLanes[RIGHT][i], new Scalar(0, color, 0));
-                drawLinearEquation(frame, mBisectorLines[i], new Scalar(0, 0, color));
-
-                Log.e(LOG_TAG, "Left=" + brightnessDifferenceAroundLine(mLanes[LEFT][0]));
-                Log.e(LOG_TAG, "Right=" + brightnessDifferenceAroundLine(mLanes[RIGHT][0]));
-                Log.e(LOG_TAG, "Center=" + brightnessDifferenceAroundLine(mBisectorLines[0]));
+                drawLinearEquation(frame, mExtractor.getLane(LEFT, i), LEFT_LANE_COLOR);
+                drawLinearEquation(frame, mExtractor.getLane(RIGHT, i), RIGHT_LANE_COLOR);
+                drawLinearEquation(frame, mExtractor.getBisectorLine(i), BISECTOR_COLOR);
             }
         }
     }
@@ -321,8 +1008,9 @@ public class LaneDetector {
      * @param frame image to draw on
      */
     public void drawLines(Mat frame) {
-        for (LinearEquation line : mLinearEquations) {
-            drawLinearEquation(frame, line, new Scalar(0, 0, 0));
+        for (int i = 0; i < mSegments.size(); i++) {
+            mDrawnLine.set(mSegments, i);
+            drawLinearEquation(frame, mDrawnLine, LINE_COLOR);
         }
     }
 
@@ -331,11 +1019,12 @@ public class LaneDetector {
      * @param frame image to draw on
      */
     public void drawOriginalLines(Mat frame) {
-        for (LinearEquation line : mLinearEquations) {
-            Imgproc.line(frame,
-                    line.point1.reversed(), line.point2.reversed(),
-                    new Scalar(200, 0, 200),
-                    4);
+        for (int i = 0; i < mSegments.size(); i++) {
+            mDrawStart.x = mSegments.y1[i];
+            mDrawStart.y = mSegments.x1[i];
+            mDrawEnd.x = mSegments.y2[i];
+            mDrawEnd.y = mSegments.x2[i];
+            Imgproc.line(frame, mDrawStart, mDrawEnd, SEGMENT_COLOR, 4);
         }
     }
 
@@ -344,13 +1033,17 @@ public class LaneDetector {
      */
     public void createDisplayFrame() {
 //        mCanny.copyTo(mDisplayFrame);
-        mRgba.copyTo(mDisplayFrame);
+        rgba().copyTo(mDisplayFrame);
         //mGrayscale.copyTo(mDisplayFrame);
 //        drawOriginalLines(mDisplayFrame);
         //drawLines(mDisplayFrame);
         drawLanes(mDisplayFrame);
-        Imgproc.circle(mDisplayFrame, new Point(frameWidth / 2,frameHeight * LINE_HEIGHT), 5, new Scalar(250, 250, 250));
-        Imgproc.circle(mDisplayFrame, new Point(frameWidth / 2, frameHeight * LINE_HEIGHT * 0.5), 5, new Scalar(250, 250, 250));
+        mDrawStart.x = frameWidth / 2;
+        mDrawStart.y = frameHeight * LINE_HEIGHT;
+        Imgproc.circle(mDisplayFrame, mDrawStart, 5, MARKER_COLOR);
+        mDrawStart.x = frameWidth / 2;
+        mDrawStart.y = frameHeight * LINE_HEIGHT * 0.5;
+        Imgproc.circle(mDisplayFrame, mDrawStart, 5, MARKER_COLOR);
     }
 
     public static final double LINE_HEIGHT = 1.0 / 2.0;
@@ -364,21 +1057,26 @@ public class LaneDetector {
         double a = line.a,
                 b = line.b,
                 y1 = 0,
-                y2 = mRgba.width(),
+                y2 = frameWidth,
                 x1 = a * y1 + b,
                 x2 = a * y2 + b;
 
         if (a != 0 && b != 0) {
 
-            Point start = new Point(x1, y1);
-            Point end = new Point(x2, y2);
+            mDrawStart.x = x1;
+            mDrawStart.y = y1;
+            mDrawEnd.x = x2;
+            mDrawEnd.y = y2;
 
             Imgproc.line(frame,
-                    start, end,
+                    mDrawStart, mDrawEnd,
                     color,
                     4);
 
-            Imgproc.circle(frame, line.edgesCenter().reversed(), 12, color);
+            // center of the edges, reversed to (column, row)
+            mDrawStart.x = (line.edge1.y + line.edge2.y) / 2;
+            mDrawStart.y = (line.edge1.x + line.edge2.x) / 2;
+            Imgproc.circle(frame, mDrawStart, 12, color);
             //Imgproc.circle(frame, line.edge2.reversed(), 12, color);
         }
     }
@@ -390,7 +1088,7 @@ public class LaneDetector {
      * @return pair exists
      */
     public boolean lanesFound(int index) {
-        return mLanes[LEFT][index] != null && mLanes[RIGHT][index] != null;
+        return mExtractor.lanesFound(index);
     }
 
     /**
@@ -408,7 +1106,7 @@ public class LaneDetector {
      * @return bisector line
      */
     public LinearEquation getBisectorLine(int index) {
-        return mBisectorLines[index];
+        return mExtractor.getBisectorLine(index);
     }
 
     /**
@@ -432,16 +1130,52 @@ public class LaneDetector {
      * @return Hough Lines frame
      */
     public Mat getHough() {
-        mRgba.copyTo(mHough);
+        rgba().copyTo(mHough);
         drawOriginalLines(mHough);
         return mHough;
     }
 
+    /**
+     * Returns the RGBA frame, converts the camera frame of the luma path on the first call.
+     */
+    private Mat rgba() {
+        if (mRgba == null && mCameraFrame != null) {
+            mRgba = mCameraFrame.rgba();
+        }
+        return mRgba;
+    }
+
+    /**
+     * Getter for stage timings, enabled by default
+     * @return latency histograms of the detection stages
+     */
+    public StageTimings getStageTimings() {
+        return mTimings;
+    }
+
+    /**
+     * Copies the lanes of the last frame, for drawing them over the unmodified camera frame
+     *
+     * @param snapshot receives the lanes
+     */
+    @Override
+    public void getLaneSnapshot(LaneSnapshot snapshot) {
+        mSnapshot.copyTo(snapshot);
+    }
+
+    /**
+     * Getter for detector context
+     * @return frame geometry of this detector
+     */
+    public DetectorContext getContext() {
+        return mContext;
+    }
+
     /**
      * Getter for bisector lines
      * @return all bisector lines
      */
     public LinearEquation[] getBisectorLines() {
-        return mBisectorLines;
+        return mExtractor.getBisectorLines();
     }
 }
\ No newline at end of file
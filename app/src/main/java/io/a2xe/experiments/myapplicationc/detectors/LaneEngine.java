@@ -0,0 +1,58 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+/**
+ * Common interface of the lane detection engines, lets the caller pick an engine per device
+ * (see LaneEngines). Lines use the LinearEquation convention (x = row, y = column).
+ */
+public interface LaneEngine extends LaneSnapshotSource {
+
+    /**
+     * Processes a new frame, the results of the previous frame are dropped.
+     *
+     * @param frame raw camera frame (RGBA)
+     */
+    void processFrame(Mat frame);
+
+    /**
+     * Processes a camera frame, the engine reads the derived images it needs from the frame.
+     *
+     * @param frame camera frame
+     */
+    void processFrame(CameraBridgeViewBase.CvCameraViewFrame frame);
+
+    /**
+     * Returns whether a pair of lanes was found
+     *
+     * @param index first or second pair of lanes (0 or 1)
+     * @return pair exists
+     */
+    boolean lanesFound(int index);
+
+    /**
+     * Getter for bisector line
+     * @param index first or second pair of lanes (0 or 1)
+     * @return bisector line, null if the pair was not found
+     */
+    LinearEquation getBisectorLine(int index);
+
+    /**
+     * Getter for bisector lines
+     * @return all bisector lines
+     */
+    LinearEquation[] getBisectorLines();
+
+    /**
+     * Getter for display frame, the frame with the lanes drawn on it
+     * @return display frame
+     */
+    Mat getDisplayFrame();
+
+    /**
+     * Getter for detector context
+     * @return frame geometry of the engine
+     */
+    DetectorContext getContext();
+}
@@ -0,0 +1,63 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * Picks the lane detection engine a device can run at camera rate.
+ * The Hough engine (Canny, HoughLinesP and the pair search) costs in proportion to the pixels
+ * of the frame and runs its stages on all cores; the sliding window engine works on a small
+ * warped image and is used when there are too many pixels per core for the Hough engine.
+ */
+public final class LaneEngines {
+
+    public static final int ENGINE_HOUGH = 0;
+    public static final int ENGINE_SLIDING_WINDOW = 1;
+
+    // pixels per core the Hough engine processes within the frame budget, a 720p frame on 4 cores
+    static final int HOUGH_PIXELS_PER_CORE = 1280 * 720 / 4;
+
+    private LaneEngines() {
+    }
+
+    /**
+     * Selects the engine for a frame size and a number of cores.
+     *
+     * @param frameWidth  width of the camera frame
+     * @param frameHeight height of the camera frame
+     * @param cores       available cores
+     * @return ENGINE_HOUGH or ENGINE_SLIDING_WINDOW
+     */
+    public static int selectEngine(int frameWidth, int frameHeight, int cores) {
+        long pixelsPerCore = (long) frameWidth * frameHeight / Math.max(1, cores);
+        return pixelsPerCore <= HOUGH_PIXELS_PER_CORE ? ENGINE_HOUGH : ENGINE_SLIDING_WINDOW;
+    }
+
+    /**
+     * Creates an engine.
+     *
+     * @param engine      ENGINE_HOUGH or ENGINE_SLIDING_WINDOW
+     * @param frameWidth  width of the camera frame
+     * @param frameHeight height of the camera frame
+     * @return new engine
+     */
+    public static LaneEngine create(int engine, int frameWidth, int frameHeight) {
+        switch (engine) {
+            case ENGINE_HOUGH:
+                return new LaneDetector(frameWidth, frameHeight);
+            case ENGINE_SLIDING_WINDOW:
+                return new SlidingWindowLaneDetector(frameWidth, frameHeight);
+            default:
+                throw new IllegalArgumentException("Unknown lane engine: " + engine);
+        }
+    }
+
+    /**
+     * Creates the engine selected for this device.
+     *
+     * @param frameWidth  width of the camera frame
+     * @param frameHeight height of the camera frame
+     * @return new engine
+     */
+    public static LaneEngine createForDevice(int frameWidth, int frameHeight) {
+        return create(selectEngine(frameWidth, frameHeight, Runtime.getRuntime().availableProcessors()),
+                frameWidth, frameHeight);
+    }
+}
@@ -0,0 +1,569 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * Finds the pairs of lanes among the candidate segments of a frame and their angle bisectors.
+ * Works on a LineSegmentBuffer and an integral image only, without any Mat, so the OpenCV
+ * and the NV21 detectors share it and publish the same results.
+ *
+ * Lanes and bisectors are pooled objects, valid until the next frame.
+ */
+public class LaneExtractor {
+
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+
+    // max slope for a line to be considered as vertical
+    public static final double VERTICAL_THRESHOLD_SLOPE = 4;
+    private static final double BRIGHTNESS_DIFFERENCE_THRESHOLD = 15;
+    // number of rows sampled on each side of a line center, in processing pixels
+    private static final int BRIGHTNESS_SAMPLE_RANGE = 10;
+    // width of the bands sampled beside a line, in processing pixels
+    private static final int BRIGHTNESS_BAND_WIDTH = 3;
+
+    // weights of the pair score components, they add up to 1
+    private static final double PARALLELISM_WEIGHT = 0.2;
+    private static final double INTERSECTION_WEIGHT = 0.2;
+    private static final double CONTRAST_WEIGHT = 0.3;
+    private static final double AGREEMENT_WEIGHT = 0.3;
+    // highest score of the components that depend on the pair, not on a single line
+    private static final double MAX_PAIR_TERMS = PARALLELISM_WEIGHT + INTERSECTION_WEIGHT;
+    // brightness difference giving the full contrast score
+    private static final double CONTRAST_SCALE = 60;
+    private static final int DEFAULT_RANKED_PAIRS = 8;
+
+    /**
+     * Gives the integral image of the current frame, lets the detector compute it
+     * only when a brightness is needed.
+     */
+    public interface IntegralImageSource {
+
+        /**
+         * @return integral image of the current frame
+         */
+        IntegralImage integralImage();
+    }
+
+    private final DetectorContext mContext;
+    private final LineSegmentBuffer mSegments;
+    private final IntegralImageSource mIntegralImageSource;
+
+    private LinearEquation[][] mLanes = new LinearEquation[2][2];
+    private LinearEquation[] mBisectorLines = new LinearEquation[2];
+    // reusable lane and bisector objects, the frame results point to them
+    private LinearEquation[][] mLanePool = new LinearEquation[2][2];
+    private LinearEquation[] mBisectorPool = new LinearEquation[2];
+    private double[] mBisector = new double[2];
+
+    private LaneCandidateIndex mCandidateIndex;
+    private LaneCandidateIndex.PairVisitor mPairVisitor;
+    // pairs of lines found as lanes in the current frame
+    private int mPairsFound;
+    // number of qualifyAsLanes() tests done for the last frame
+    private int mPairEvaluations;
+    // max qualifyAsLanes() tests per frame, 0 for no limit
+    private int mCandidateBudget = 0;
+
+    // ranked selection: every qualifying pair is scored and the best ones are kept
+    private boolean mRankedSelectionEnabled = false;
+    private ScoredPairHeap mPairHeap = new ScoredPairHeap(DEFAULT_RANKED_PAIRS);
+    private LaneCandidateIndex.PairVisitor mRankedPairVisitor;
+    private double[] mPairScores = new double[2];
+    // score of every line alone, and its max over the lines from an index to the end
+    private double[] mLineScores = new double[0];
+    private double[] mLineScoreSuffixMax = new double[1];
+    // lanes of the previous frame, a and b
+    private double[] mPreviousA = new double[4];
+    private double[] mPreviousB = new double[4];
+    private int mPreviousCount;
+
+    // per frame features of the candidate lines, by index in mSegments
+    private double[] mBrightnessDifferences = new double[0];
+    private boolean[] mBrightnessComputed = new boolean[0];
+
+    /**
+     * @param segments            candidate segments of the frame, filled by the detector
+     * @param integralImageSource integral image of the frame, for the brightness heuristics
+     */
+    public LaneExtractor(LineSegmentBuffer segments, IntegralImageSource integralImageSource) {
+        mContext = segments.getContext();
+        mSegments = segments;
+        mIntegralImageSource = integralImageSource;
+
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                mLanePool[i][j] = new LinearEquation(mContext, 0, 0);
+            }
+            mBisectorPool[i] = new LinearEquation(mContext, 0, 0);
+        }
+
+        mCandidateIndex = new LaneCandidateIndex(mContext.frameWidth, mContext.frameHeight,
+                VERTICAL_THRESHOLD_SLOPE, mContext.frameWidth / 3);
+        mPairVisitor = new LaneCandidateIndex.PairVisitor() {
+            @Override
+            public boolean visit(int i, int j) {
+                mPairEvaluations++;
+                if (qualifyAsLanes(i, j)) {
+                    setLanes(i, j, mPairsFound);
+                    mPairsFound++;
+                }
+                return mPairsFound > 1 || budgetExhausted();
+            }
+        };
+        mRankedPairVisitor = new LaneCandidateIndex.PairVisitor() {
+            @Override
+            public boolean visit(int i, int j) {
+                // no remaining pair can beat the heap's minimum
+                if (mPairHeap.isFull() && mPairHeap.minScore()
+                        >= MAX_PAIR_TERMS + mLineScoreSuffixMax[i] + mLineScoreSuffixMax[i + 1]) {
+                    return true;
+                }
+                mPairEvaluations++;
+                if (mLineScores[i] >= 0 && mLineScores[j] >= 0 && qualifyAsLanes(i, j)) {
+                    mPairHeap.offer(pairScore(i, j), i, j);
+                }
+                return budgetExhausted();
+            }
+        };
+    }
+
+    /**
+     * Scores every qualifying pair of lines and keeps the best pairs as lanes,
+     * instead of the first pairs found. The result does not depend on the order of the lines.
+     *
+     * @param enabled ranked selection
+     */
+    public void setRankedSelectionEnabled(boolean enabled) {
+        mRankedSelectionEnabled = enabled;
+    }
+
+    /**
+     * Returns whether the pairs of lanes are ranked by score
+     *
+     * @return ranked selection is enabled
+     */
+    public boolean isRankedSelectionEnabled() {
+        return mRankedSelectionEnabled;
+    }
+
+    /**
+     * Sets the number of best scored pairs kept by the ranked selection
+     *
+     * @param pairs number of pairs, at least 1
+     */
+    public void setMaxRankedPairs(int pairs) {
+        mPairHeap = new ScoredPairHeap(pairs);
+    }
+
+    /**
+     * Limits the number of line pairs tested as lanes per frame, in both selection modes.
+     *
+     * @param budget maximum pair evaluations, 0 for no limit
+     */
+    public void setCandidateBudget(int budget) {
+        mCandidateBudget = budget;
+    }
+
+    /**
+     * Returns the score of a pair of lanes, between 0 and 1
+     *
+     * @param index first or second pair of lanes
+     * @return score of the pair, 0 if it was not found by the ranked selection
+     */
+    public double getPairScore(int index) {
+        return mPairScores[index];
+    }
+
+    /**
+     * Clears the lanes and bisectors of the previous frame.
+     */
+    public void clear() {
+        // the lanes of the previous frame are kept to score the agreement of new pairs
+        mPreviousCount = 0;
+        for (int side = 0; side < 2; side++) {
+            for (int index = 0; index < 2; index++) {
+                LinearEquation lane = mLanes[side][index];
+                if (lane != null) {
+                    mPreviousA[mPreviousCount] = lane.a;
+                    mPreviousB[mPreviousCount] = lane.b;
+                    mPreviousCount++;
+                }
+            }
+        }
+        mPairScores[0] = mPairScores[1] = 0;
+
+        for (int i = 0; i < mLanes.length; i++) {
+            for (int j = 0; j < mLanes[i].length; j++) {
+                mLanes[i][j] = null;
+            }
+            mBisectorLines[i] = null;
+        }
+    }
+
+    /**
+     * Goes over the compatible pairs of lines and finds one or two pairs of lanes.
+     * Takes the first qualifying pairs, or the best scored ones with ranked selection.
+     */
+    public void extractLanes() {
+        mPairsFound = 0;
+        mPairEvaluations = 0;
+
+        resetFeatureCache();
+        mCandidateIndex.build(mSegments);
+        if (mRankedSelectionEnabled) {
+            extractRankedLanes();
+        } else {
+            mCandidateIndex.visitPairs(mPairVisitor);
+        }
+    }
+
+    /**
+     * Scores the qualifying pairs, keeps the best ones in the heap and takes the
+     * two best pairs that do not share a lane.
+     */
+    private void extractRankedLanes() {
+        calculateLineScores();
+        mPairHeap.clear();
+        mCandidateIndex.visitPairs(mRankedPairVisitor);
+
+        mPairHeap.sortDescending();
+        for (int k = 0; k < mPairHeap.size() && mPairsFound < 2; k++) {
+            int i = mPairHeap.getFirst(k);
+            int j = mPairHeap.getSecond(k);
+            if (!closeToFoundLanes(mSegments.a[i], mSegments.b[i], mSegments.a[j], mSegments.b[j])) {
+                setLanes(i, j, mPairsFound);
+                mPairScores[mPairsFound] = mPairHeap.getScore(k);
+                mPairsFound++;
+            }
+        }
+    }
+
+    /**
+     * Computes the score components of every line alone: brightness contrast and agreement
+     * with the previous frame. Lines that can never be lanes get -1.
+     * The suffix max bounds the score of every pair not visited yet.
+     */
+    private void calculateLineScores() {
+        int n = mSegments.size();
+        if (mLineScores.length < n) {
+            mLineScores = new double[Math.max(n, mLineScores.length * 2)];
+            mLineScoreSuffixMax = new double[mLineScores.length + 1];
+        }
+
+        mLineScoreSuffixMax[n] = 0;
+        for (int i = n - 1; i >= 0; i--) {
+            double score = -1;
+            if (Math.abs(mSegments.a[i]) < VERTICAL_THRESHOLD_SLOPE) {
+                double brightness = Math.abs(brightnessDifference(i));
+                if (brightness > BRIGHTNESS_DIFFERENCE_THRESHOLD) {
+                    score = CONTRAST_WEIGHT / 2 * Math.min(1, brightness / CONTRAST_SCALE)
+                            + AGREEMENT_WEIGHT / 2 * previousFrameAgreement(mSegments.a[i], mSegments.b[i]);
+                }
+            }
+            mLineScores[i] = score;
+            mLineScoreSuffixMax[i] = Math.max(score, mLineScoreSuffixMax[i + 1]);
+        }
+    }
+
+    /**
+     * Returns how close a line is to the closest lane of the previous frame
+     *
+     * @return 1 for the same line, 0 when far from all lanes or without previous lanes
+     */
+    private double previousFrameAgreement(double a, double b) {
+        double agreement = 0;
+        double maxDistance = mContext.frameWidth / 10.0;
+        for (int k = 0; k < mPreviousCount; k++) {
+            double distance = Math.abs(mPreviousA[k] - a) * 10 + Math.abs(mPreviousB[k] - b);
+            agreement = Math.max(agreement, 1 - distance / maxDistance);
+        }
+        return agreement;
+    }
+
+    /**
+     * Score of a qualifying pair, between 0 and 1: the line scores plus the parallelism of the
+     * lanes, mirrored around the vertical, and the centering of their intersection in the frame.
+     */
+    private double pairScore(int i, int j) {
+        double a1 = mSegments.a[i];
+        double a2 = mSegments.a[j];
+        double parallelism = Math.max(0, 1 - Math.abs(Math.atan(a1) + Math.atan(a2)) / (Math.PI / 2));
+
+        double intersectionY = mSegments.intersectY(i, j);
+        double halfWidth = mContext.frameWidth / 2.0;
+        double centering = Math.max(0, 1 - Math.abs(intersectionY - halfWidth) / halfWidth);
+
+        return mLineScores[i] + mLineScores[j]
+                + PARALLELISM_WEIGHT * parallelism + INTERSECTION_WEIGHT * centering;
+    }
+
+    private boolean budgetExhausted() {
+        return mCandidateBudget > 0 && mPairEvaluations >= mCandidateBudget;
+    }
+
+    /**
+     * Finds the angle bisector of every pair of lanes. Used for determination of tilt and deviation
+     */
+    public void calculateBisectors() {
+        for (int i = 0; i < 2; i++) {
+            if (lanesFound(i)) {
+                LinearEquation.calculateAngleBisector(mLanes[LEFT][i].a, mLanes[LEFT][i].b,
+                        mLanes[RIGHT][i].a, mLanes[RIGHT][i].b, mBisector);
+                mBisectorPool[i].set(mBisector[0], mBisector[1]);
+                mBisectorLines[i] = mBisectorPool[i];
+            }
+        }
+    }
+
+    /**
+     * Sets a lane from a candidate segment.
+     *
+     * @param side    LEFT or RIGHT
+     * @param index   first or second pair of lanes
+     * @param segment index of the segment
+     */
+    public void setLane(int side, int index, int segment) {
+        mLanePool[side][index].set(mSegments, segment);
+        mLanes[side][index] = mLanePool[side][index];
+    }
+
+    /**
+     * Replaces a lane, for example with the lane estimated by a tracker.
+     *
+     * @param side  LEFT or RIGHT
+     * @param index first or second pair of lanes
+     * @param lane  the lane, kept by reference
+     */
+    public void setLane(int side, int index, LinearEquation lane) {
+        mLanes[side][index] = lane;
+    }
+
+    /**
+     * Getter for lane
+     * @param side  LEFT or RIGHT
+     * @param index first or second pair of lanes
+     * @return lane, null if not found
+     */
+    public LinearEquation getLane(int side, int index) {
+        return mLanes[side][index];
+    }
+
+    /**
+     * Returns whether a pair of line exists
+     *
+     * @param index first or second pair of lanes (0 or 1)
+     * @return pair exists
+     */
+    public boolean lanesFound(int index) {
+        return mLanes[LEFT][index] != null && mLanes[RIGHT][index] != null;
+    }
+
+    /**
+     * Getter for bisector line
+     * @param index first or second pair of lanes (0 or 1)
+     * @return bisector line
+     */
+    public LinearEquation getBisectorLine(int index) {
+        return mBisectorLines[index];
+    }
+
+    /**
+     * Getter for bisector lines
+     * @return all bisector lines
+     */
+    public LinearEquation[] getBisectorLines() {
+        return mBisectorLines;
+    }
+
+    /**
+     * Getter for candidate index, used to configure the per bucket cap and the opposing slopes rule
+     * @return candidate index
+     */
+    public LaneCandidateIndex getCandidateIndex() {
+        return mCandidateIndex;
+    }
+
+    /**
+     * Returns the number of line pairs tested as lanes in the last frame
+     *
+     * @return pair evaluations
+     */
+    public int getPairEvaluations() {
+        return mPairEvaluations;
+    }
+
+    /**
+     * Receives a pair of lines and returns true if they can be lanes and false otherwise
+     * Uses heuristics.
+     *
+     * @param line1 first line
+     * @param line2 second line
+     * @return are the two lines lanes
+     */
+    public boolean qualifyAsLanes(LinearEquation line1, LinearEquation line2) {
+        Point center1 = line1.edgesCenter();
+        Point center2 = line2.edgesCenter();
+        return geometryQualifiesAsLanes(line1.a, line1.b, line2.a, line2.b, center1.distance(center2))
+                && brightnessDifferenceQualifies(line1, line2);
+    }
+
+    /**
+     * Same as qualifyAsLanes(line1, line2) for two candidate segments.
+     * The brightness differences are taken from the per frame cache.
+     *
+     * @param index1 index of the first segment
+     * @param index2 index of the second segment
+     * @return are the two segments lanes
+     */
+    private boolean qualifyAsLanes(int index1, int index2) {
+        return geometryQualifiesAsLanes(mSegments.a[index1], mSegments.b[index1],
+                mSegments.a[index2], mSegments.b[index2], mSegments.edgesCenterDistance(index1, index2))
+                && brightnessDifferencesQualify(brightnessDifference(index1), brightnessDifference(index2));
+    }
+
+    /**
+     * The geometric part of the lane heuristics: distance from the lanes already found,
+     * slopes, distance between the lines and position of their intersection.
+     *
+     * @param centersDistance distance between the edges centers of the lines
+     * @return whether the geometry of the lines is suitable for lanes
+     */
+    private boolean geometryQualifiesAsLanes(double a1, double b1, double a2, double b2, double centersDistance) {
+        if (closeToFoundLanes(a1, b1, a2, b2)) {
+            return false;
+        }
+
+        if (Math.abs(b1 - b2) > 5 && Math.abs(a1) < VERTICAL_THRESHOLD_SLOPE && Math.abs(a2) < VERTICAL_THRESHOLD_SLOPE) {
+            if (Math.abs(centersDistance) > mContext.frameWidth / 3) {
+                double intersectionX = (b1 - b2) / (a2 - a1),
+                        intersectionY = a1 * intersectionX + b1;
+
+                // padding factor
+                double pf = mContext.frameHeight * 0.5;
+
+                if ((intersectionX < 0 - pf || intersectionX > mContext.frameHeight + pf) || (intersectionY < 0 - pf || intersectionY > mContext.frameWidth + pf)) {
+                    if (intersectionX < 0 && Math.abs(intersectionX) < 400) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether one of the two lines is almost a lane already found in this frame
+     */
+    private boolean closeToFoundLanes(double a1, double b1, double a2, double b2) {
+        for (int i = 0; i < 2; i++) {
+            for (LinearEquation lane : mLanes[i]) {
+                if (lane != null) {
+                    if (Math.abs(lane.a - a2) * 10 + Math.abs(lane.b - b2) < 20 || Math.abs(lane.a - a1) * 10 + Math.abs(lane.b - b1) < 20) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Determines which lane is on the left and which lane is on the right.
+     * Finally, inserts them in the appropriate index.
+     *
+     * @param segment1 index of the first lane segment
+     * @param segment2 index of the second lane segment
+     * @param index first pair or second pair of lanes
+     */
+    private void setLanes(int segment1, int segment2, int index) {
+        int middleRow = mContext.frameHeight / 2;
+        if (mSegments.distanceFromPoint(segment1, middleRow, 0) > mSegments.distanceFromPoint(segment2, middleRow, 0)) {
+            setLane(LEFT, index, segment1);
+            setLane(RIGHT, index, segment2);
+        } else {
+            setLane(LEFT, index, segment2);
+            setLane(RIGHT, index, segment1);
+        }
+    }
+
+    /**
+     * Receives a pair of lines.
+     * Returns true if their brightness difference is suitable for lanes.
+     *
+     * @param line1 first line
+     * @param line2 second line
+     * @return whether brightness difference is suitable for lanes
+     */
+    public boolean brightnessDifferenceQualifies(LinearEquation line1, LinearEquation line2) {
+        return brightnessDifferencesQualify(brightnessDifferenceAroundLine(line1), brightnessDifferenceAroundLine(line2));
+    }
+
+    private static boolean brightnessDifferencesQualify(double b1, double b2) {
+        b1 = Math.abs(b1);
+        b2 = Math.abs(b2);
+        return b1 > BRIGHTNESS_DIFFERENCE_THRESHOLD && b2 > BRIGHTNESS_DIFFERENCE_THRESHOLD && Math.abs(b1 - b2) < 20;
+    }
+
+    /**
+     * Returns the brightness difference around a candidate segment,
+     * computed at most once per frame.
+     *
+     * @param index index of the segment
+     * @return brightness difference value
+     */
+    private double brightnessDifference(int index) {
+        if (!mBrightnessComputed[index]) {
+            mBrightnessDifferences[index] = brightnessDifferenceAroundLine(
+                    mSegments.a[index], mSegments.b[index], mSegments.centerX(index));
+            mBrightnessComputed[index] = true;
+        }
+        return mBrightnessDifferences[index];
+    }
+
+    /**
+     * Clears the feature cache of the candidate segments.
+     */
+    private void resetFeatureCache() {
+        int n = mSegments.size();
+        if (mBrightnessComputed.length < n) {
+            int capacity = Math.max(n, mBrightnessComputed.length * 2);
+            mBrightnessDifferences = new double[capacity];
+            mBrightnessComputed = new boolean[capacity];
+        }
+        for (int i = 0; i < n; i++) {
+            mBrightnessComputed[i] = false;
+        }
+    }
+
+    /**
+     * Receives a line and returns the brightness difference between its sides
+     *
+     * @param line the line to evaluate
+     * @return brightness difference value
+     */
+    public double brightnessDifferenceAroundLine(LinearEquation line) {
+        return brightnessDifferenceAroundLine(line.a, line.b, (line.point1.x + line.point2.x) / 2);
+    }
+
+    /**
+     * Returns the brightness difference between the sides of the line y = a * x + b,
+     * sampled around a center row
+     */
+    private double brightnessDifferenceAroundLine(double a, double b, double centerRow) {
+        int bDiff = (int) ((mContext.frameWidth / 40) * Math.sqrt(a * a + 1));
+
+        IntegralImage integral = mIntegralImageSource.integralImage();
+        return integral.bandMean(a, b + bDiff, centerRow, BRIGHTNESS_SAMPLE_RANGE, BRIGHTNESS_BAND_WIDTH)
+                - integral.bandMean(a, b - bDiff, centerRow, BRIGHTNESS_SAMPLE_RANGE, BRIGHTNESS_BAND_WIDTH);
+    }
+
+    /**
+     * Receives a line and returns the average brightness of all of its points.
+     *
+     * @param line the line to evaluate
+     * @return brightness value
+     */
+    public double lineBrightness(LinearEquation line) {
+        double centerRow = (line.point1.x + line.point2.x) / 2;
+        return mIntegralImageSource.integralImage().bandMean(line.a, line.b, centerRow, BRIGHTNESS_SAMPLE_RANGE, 1);
+    }
+}
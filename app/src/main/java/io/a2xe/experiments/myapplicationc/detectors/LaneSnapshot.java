@@ -0,0 +1,102 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * Lane geometry of a frame in primitive fields, for drawing the lanes over the camera frame
+ * without copying or drawing into a Mat.
+ * A detector updates its snapshot at the end of every frame and readers copy it into their own
+ * instance, both synchronized on the published snapshot, so it can be read from another thread
+ * and nothing is allocated per frame.
+ *
+ * Lines use the detector coordinates: y = a * x + b, x = frame row, y = frame column.
+ */
+public class LaneSnapshot {
+
+    public static final int PAIRS = 2;
+
+    public int frameWidth;
+    public int frameHeight;
+    // incremented by every update, tells readers whether the lanes changed
+    public long sequence;
+
+    public final boolean[] found = new boolean[PAIRS];
+    public final double[] leftA = new double[PAIRS];
+    public final double[] leftB = new double[PAIRS];
+    public final double[] rightA = new double[PAIRS];
+    public final double[] rightB = new double[PAIRS];
+    public final double[] bisectorA = new double[PAIRS];
+    public final double[] bisectorB = new double[PAIRS];
+
+    public LaneSnapshot() {
+    }
+
+    public LaneSnapshot(DetectorContext context) {
+        frameWidth = context.frameWidth;
+        frameHeight = context.frameHeight;
+    }
+
+    /**
+     * Takes the lanes and bisectors found by an extractor.
+     *
+     * @param extractor extractor of the frame
+     */
+    public synchronized void update(LaneExtractor extractor) {
+        for (int i = 0; i < PAIRS; i++) {
+            found[i] = extractor.lanesFound(i) && extractor.getBisectorLine(i) != null;
+            if (found[i]) {
+                LinearEquation left = extractor.getLane(LaneExtractor.LEFT, i);
+                LinearEquation right = extractor.getLane(LaneExtractor.RIGHT, i);
+                LinearEquation bisector = extractor.getBisectorLine(i);
+                leftA[i] = left.a;
+                leftB[i] = left.b;
+                rightA[i] = right.a;
+                rightB[i] = right.b;
+                bisectorA[i] = bisector.a;
+                bisectorB[i] = bisector.b;
+            }
+        }
+        sequence++;
+    }
+
+    /**
+     * Takes the lanes of an engine finding a single pair.
+     *
+     * @param left     left lane, null if the pair was not found
+     * @param right    right lane, null if the pair was not found
+     * @param bisector bisector of the lanes, null if the pair was not found
+     */
+    public synchronized void update(LinearEquation left, LinearEquation right, LinearEquation bisector) {
+        found[0] = left != null && right != null && bisector != null;
+        if (found[0]) {
+            leftA[0] = left.a;
+            leftB[0] = left.b;
+            rightA[0] = right.a;
+            rightB[0] = right.b;
+            bisectorA[0] = bisector.a;
+            bisectorB[0] = bisector.b;
+        }
+        for (int i = 1; i < PAIRS; i++) {
+            found[i] = false;
+        }
+        sequence++;
+    }
+
+    /**
+     * Copies this snapshot into another one.
+     *
+     * @param target receives the lanes
+     */
+    public synchronized void copyTo(LaneSnapshot target) {
+        target.frameWidth = frameWidth;
+        target.frameHeight = frameHeight;
+        target.sequence = sequence;
+        for (int i = 0; i < PAIRS; i++) {
+            target.found[i] = found[i];
+            target.leftA[i] = leftA[i];
+            target.leftB[i] = leftB[i];
+            target.rightA[i] = rightA[i];
+            target.rightB[i] = rightB[i];
+            target.bisectorA[i] = bisectorA[i];
+            target.bisectorB[i] = bisectorB[i];
+        }
+    }
+}
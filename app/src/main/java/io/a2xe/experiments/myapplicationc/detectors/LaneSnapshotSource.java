@@ -0,0 +1,14 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * A detector that publishes the lanes of its last frame as a LaneSnapshot.
+ */
+public interface LaneSnapshotSource {
+
+    /**
+     * Copies the lanes of the last processed frame, may be called from any thread.
+     *
+     * @param snapshot receives the lanes
+     */
+    void getLaneSnapshot(LaneSnapshot snapshot);
+}
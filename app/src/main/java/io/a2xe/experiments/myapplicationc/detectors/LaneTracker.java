@@ -0,0 +1,222 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.video.KalmanFilter;
+
+/**
+ * Tracks the first pair of lanes across frames.
+ * Every lane has a constant velocity Kalman filter over its (a, b) parameters,
+ * the prediction is used to restrict the search of the next frame.
+ */
+public class LaneTracker {
+
+    private static final int LEFT = 0;
+    private static final int RIGHT = 1;
+
+    // frames in a row without a measurement before the tracker falls back to full detection
+    private static final int MAX_MISSES = 5;
+    // measurements in a row needed before the prediction is trusted
+    private static final int MIN_HITS = 3;
+
+    // standard deviations of the slope a, in column pixels per row
+    private static final double SLOPE_PROCESS_NOISE = 0.01;
+    private static final double SLOPE_MEASUREMENT_NOISE = 0.05;
+    // standard deviations of the offset b, as a fraction of the frame width
+    private static final double OFFSET_PROCESS_NOISE_RATIO = 0.005;
+    private static final double OFFSET_MEASUREMENT_NOISE_RATIO = 0.02;
+    // a measured lane further than this from its prediction, as a fraction of the frame width,
+    // is taken as a wrong detection and the tracker coasts on the prediction
+    private static final double GATE_RATIO = 1.0 / 10;
+
+    private DetectorContext mContext;
+    private KalmanFilter[] mFilters = new KalmanFilter[2];
+    private Mat mMeasurement;
+    private LinearEquation[] mPredicted = new LinearEquation[2];
+    private LinearEquation[] mEstimated = new LinearEquation[2];
+
+    private boolean mInitialized = false;
+    private int mHits = 0;
+    private int mMisses = 0;
+
+    public LaneTracker(DetectorContext context) {
+        mContext = context;
+        mMeasurement = new Mat(2, 1, CvType.CV_32F);
+    }
+
+    /**
+     * Starts tracking from a pair of lanes found by full detection.
+     *
+     * @param left  left lane
+     * @param right right lane
+     */
+    public void initialize(LinearEquation left, LinearEquation right) {
+        mFilters[LEFT] = createFilter(left);
+        mFilters[RIGHT] = createFilter(right);
+        mEstimated[LEFT] = left;
+        mEstimated[RIGHT] = right;
+        mInitialized = true;
+        mHits = 1;
+        mMisses = 0;
+    }
+
+    /**
+     * Drops the tracked lanes, next frames are processed with full detection.
+     */
+    public void reset() {
+        mInitialized = false;
+        mHits = 0;
+        mMisses = 0;
+        for (int i = 0; i < 2; i++) {
+            mPredicted[i] = null;
+            mEstimated[i] = null;
+        }
+    }
+
+    /**
+     * Predicts the lanes of the next frame.
+     */
+    public void predict() {
+        for (int i = 0; i < 2; i++) {
+            Mat state = mFilters[i].predict();
+            mPredicted[i] = new LinearEquation(mContext, state.get(0, 0)[0], state.get(1, 0)[0]);
+        }
+    }
+
+    /**
+     * Corrects the prediction with the lanes measured in the current frame.
+     * A pair with a lane too far from its prediction is rejected and counts as a miss.
+     *
+     * @param left  measured left lane
+     * @param right measured right lane
+     * @return whether the measurement was accepted
+     */
+    public boolean correct(LinearEquation left, LinearEquation right) {
+        if (!withinGate(mPredicted[LEFT], left) || !withinGate(mPredicted[RIGHT], right)) {
+            miss();
+            return false;
+        }
+        mEstimated[LEFT] = correct(mFilters[LEFT], left);
+        mEstimated[RIGHT] = correct(mFilters[RIGHT], right);
+        mHits++;
+        mMisses = 0;
+        return true;
+    }
+
+    /**
+     * Records a frame where the predicted lanes were not found.
+     * The prediction is kept as estimation until the tracker gives up.
+     */
+    public void miss() {
+        mMisses++;
+        mHits = 0;
+        mEstimated[LEFT] = mPredicted[LEFT];
+        mEstimated[RIGHT] = mPredicted[RIGHT];
+        if (mMisses > MAX_MISSES) {
+            reset();
+        }
+    }
+
+    /**
+     * Returns whether the prediction can replace full detection
+     *
+     * @return tracker has a prediction
+     */
+    public boolean isTracking() {
+        return mInitialized;
+    }
+
+    /**
+     * Returns whether the tracked lanes are confirmed by enough measurements
+     *
+     * @return tracked lanes are reliable
+     */
+    public boolean isConfident() {
+        return mInitialized && mMisses == 0 && mHits >= MIN_HITS;
+    }
+
+    /**
+     * Getter for predicted lane
+     * @param side LEFT (0) or RIGHT (1)
+     * @return predicted lane
+     */
+    public LinearEquation getPredicted(int side) {
+        return mPredicted[side];
+    }
+
+    /**
+     * Getter for filtered lane
+     * @param side LEFT (0) or RIGHT (1)
+     * @return filtered lane
+     */
+    public LinearEquation getEstimated(int side) {
+        return mEstimated[side];
+    }
+
+    /**
+     * Returns whether a measured lane is close enough to its prediction, by the mean column
+     * offset between the two lines at the middle and at the bottom of the frame.
+     */
+    private boolean withinGate(LinearEquation predicted, LinearEquation measured) {
+        if (predicted == null) {
+            // correct() before the first predict(), nothing to compare with
+            return true;
+        }
+        double middle = mContext.frameHeight / 2.0;
+        double bottom = mContext.frameHeight;
+        double offset = (Math.abs(measured.y(middle) - predicted.y(middle))
+                + Math.abs(measured.y(bottom) - predicted.y(bottom))) / 2;
+        return offset <= mContext.frameWidth * GATE_RATIO;
+    }
+
+    private LinearEquation correct(KalmanFilter filter, LinearEquation lane) {
+        mMeasurement.put(0, 0, lane.a, lane.b);
+        Mat state = filter.correct(mMeasurement);
+        return new LinearEquation(mContext, state.get(0, 0)[0], state.get(1, 0)[0]);
+    }
+
+    /**
+     * Creates a constant velocity filter. State: (a, b, da, db), measurement: (a, b).
+     * The slope has an order of 1 and the offset of hundreds of pixels, every component has
+     * its own noise so both are smoothed alike.
+     */
+    private KalmanFilter createFilter(LinearEquation lane) {
+        KalmanFilter filter = new KalmanFilter(4, 2, 0, CvType.CV_32F);
+
+        Mat transition = Mat.eye(4, 4, CvType.CV_32F);
+        transition.put(0, 2, 1);
+        transition.put(1, 3, 1);
+        filter.set_transitionMatrix(transition);
+
+        filter.set_measurementMatrix(Mat.eye(2, 4, CvType.CV_32F));
+
+        double slopeProcess = SLOPE_PROCESS_NOISE * SLOPE_PROCESS_NOISE;
+        double offsetProcess = square(mContext.frameWidth * OFFSET_PROCESS_NOISE_RATIO);
+        double slopeMeasurement = SLOPE_MEASUREMENT_NOISE * SLOPE_MEASUREMENT_NOISE;
+        double offsetMeasurement = square(mContext.frameWidth * OFFSET_MEASUREMENT_NOISE_RATIO);
+
+        filter.set_processNoiseCov(diagonal(slopeProcess, offsetProcess, slopeProcess, offsetProcess));
+        filter.set_measurementNoiseCov(diagonal(slopeMeasurement, offsetMeasurement));
+        // the first lanes are as uncertain as a measurement, their velocity is unknown
+        filter.set_errorCovPost(diagonal(slopeMeasurement, offsetMeasurement, slopeMeasurement, offsetMeasurement));
+
+        Mat state = new Mat(4, 1, CvType.CV_32F, new Scalar(0));
+        state.put(0, 0, lane.a, lane.b);
+        filter.set_statePost(state);
+
+        return filter;
+    }
+
+    private static Mat diagonal(double... values) {
+        Mat mat = new Mat(values.length, values.length, CvType.CV_32F, new Scalar(0));
+        for (int i = 0; i < values.length; i++) {
+            mat.put(i, i, values[i]);
+        }
+        return mat;
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
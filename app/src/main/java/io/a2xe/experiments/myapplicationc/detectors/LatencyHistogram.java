@@ -0,0 +1,155 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock-free histogram of durations.
+ * Durations are counted in microseconds, in buckets that are exact below 16 us and then split
+ * every power of two in 16 sub-buckets, so a percentile is at most 1/16 above the real value.
+ * Recording is an atomic increment and never allocates; any thread may record or query.
+ *
+ * Queries read the buckets one by one while they may be updated, a percentile taken during
+ * recording can mix two consecutive states.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // durations up to 2^MAX_EXPONENT us (about 18 minutes), longer ones go to the last bucket
+    private static final int MAX_EXPONENT = 30;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalNanos = new AtomicLong();
+    private final AtomicLong mMaxNanos = new AtomicLong();
+
+    /**
+     * Adds a duration.
+     *
+     * @param nanos duration in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mCounts.incrementAndGet(bucket(nanos / 1000));
+        mCount.incrementAndGet();
+        mTotalNanos.addAndGet(nanos);
+
+        long max = mMaxNanos.get();
+        while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+            max = mMaxNanos.get();
+        }
+    }
+
+    /**
+     * Returns the duration under which a fraction of the recorded durations are.
+     *
+     * @param fraction 0 to 1, for example 0.95 for the 95th percentile
+     * @return percentile in nanoseconds, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double fraction) {
+        if (fraction < 0 || fraction > 1) {
+            throw new IllegalArgumentException("fraction must be in [0, 1]");
+        }
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                // upper end of the bucket, never above the max
+                return Math.min(bucketEnd(i) * 1000 - 1, mMaxNanos.get());
+            }
+        }
+        return mMaxNanos.get();
+    }
+
+    /**
+     * @return median in nanoseconds
+     */
+    public long getP50Nanos() {
+        return getPercentileNanos(0.5);
+    }
+
+    /**
+     * @return 95th percentile in nanoseconds
+     */
+    public long getP95Nanos() {
+        return getPercentileNanos(0.95);
+    }
+
+    /**
+     * @return 99th percentile in nanoseconds
+     */
+    public long getP99Nanos() {
+        return getPercentileNanos(0.99);
+    }
+
+    /**
+     * @return longest recorded duration in nanoseconds
+     */
+    public long getMaxNanos() {
+        return mMaxNanos.get();
+    }
+
+    /**
+     * @return average duration in nanoseconds, 0 if nothing was recorded
+     */
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mTotalNanos.get() / count;
+    }
+
+    /**
+     * @return number of recorded durations
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Removes all recorded durations. Durations recorded at the same time may be partly kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mTotalNanos.set(0);
+        mMaxNanos.set(0);
+    }
+
+    /**
+     * Returns the bucket of a duration in microseconds.
+     */
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the first duration in microseconds after a bucket.
+     */
+    static long bucketEnd(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1;
+        }
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,215 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import java.util.Arrays;
+
+/**
+ * Reusable struct-of-arrays storage for the line segments of a frame.
+ * Every segment keeps its linear equation (x = row, y = column, y = a * x + b),
+ * its end points and its intersections with the edges of the screen in parallel arrays,
+ * so a frame of segments is processed without creating any object.
+ *
+ * The arrays grow to the high-water mark and are never shrunk.
+ */
+public class LineSegmentBuffer {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    public double[] a;
+    public double[] b;
+    public double[] x1;
+    public double[] y1;
+    public double[] x2;
+    public double[] y2;
+    public double[] edge1X;
+    public double[] edge1Y;
+    public double[] edge2X;
+    public double[] edge2Y;
+
+    private final DetectorContext mContext;
+    private final double[] mEdges = new double[4];
+    private int mSize = 0;
+
+    public LineSegmentBuffer(DetectorContext context) {
+        this(context, INITIAL_CAPACITY);
+    }
+
+    public LineSegmentBuffer(DetectorContext context, int capacity) {
+        mContext = context;
+        allocate(Math.max(1, capacity));
+    }
+
+    /**
+     * Adds a segment from its two end points.
+     *
+     * @return index of the segment
+     */
+    public int add(double x1, double y1, double x2, double y2) {
+        if (mSize == a.length) {
+            allocate(mSize * 2);
+        }
+
+        int i = mSize++;
+        // y = a * x + b, as in LinearEquation
+        double slope = (y1 - y2) / (x1 - x2);
+        a[i] = slope;
+        b[i] = y1 - slope * x1;
+        this.x1[i] = x1;
+        this.y1[i] = y1;
+        this.x2[i] = x2;
+        this.y2[i] = y2;
+
+        LinearEquation.calcEdges(a[i], b[i], mContext.frameHeight, mContext.frameWidth, mEdges, 0);
+        edge1X[i] = mEdges[0];
+        edge1Y[i] = mEdges[1];
+        edge2X[i] = mEdges[2];
+        edge2Y[i] = mEdges[3];
+        return i;
+    }
+
+    /**
+     * Adds a segment found in the processing frame, which starts at rowOffset and is reduced
+     * by scale, if it is longer than the length threshold of the context.
+     * End points are given as [col1, row1, col2, row2], like the HoughLinesP output.
+     *
+     * @param scale     frame pixels per processing pixel
+     * @param rowOffset frame row of the first processing row
+     * @return whether the segment was added
+     */
+    public boolean addScaled(double col1, double row1, double col2, double row2, int scale, int rowOffset) {
+        double x1 = row1 * scale + rowOffset,
+                y1 = col1 * scale,
+                x2 = row2 * scale + rowOffset,
+                y2 = col2 * scale;
+        double dx = x1 - x2, dy = y1 - y2;
+        if (!(Math.sqrt(dx * dx + dy * dy) > mContext.lengthThreshold)) {
+            return false;
+        }
+        add(x1, y1, x2, y2);
+        return true;
+    }
+
+    /**
+     * Removes the last added segment.
+     */
+    public void removeLast() {
+        mSize--;
+    }
+
+    /**
+     * Removes all segments, the storage is kept.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of segments
+     *
+     * @return number of segments
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Getter for detector context
+     * @return frame geometry of the segments
+     */
+    public DetectorContext getContext() {
+        return mContext;
+    }
+
+    /**
+     * Returns the value of y by x for a segment
+     */
+    public double y(int i, double x) {
+        return a[i] * x + b[i];
+    }
+
+    /**
+     * Returns the length of a segment
+     */
+    public double length(int i) {
+        double dx = x1[i] - x2[i];
+        double dy = y1[i] - y2[i];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the x of the segment center
+     */
+    public double centerX(int i) {
+        return (x1[i] + x2[i]) / 2;
+    }
+
+    /**
+     * Returns the x of the center of the intersections with the edges of the screen
+     */
+    public double edgesCenterX(int i) {
+        return (edge1X[i] + edge2X[i]) / 2;
+    }
+
+    /**
+     * Returns the y of the center of the intersections with the edges of the screen
+     */
+    public double edgesCenterY(int i) {
+        return (edge1Y[i] + edge2Y[i]) / 2;
+    }
+
+    /**
+     * Returns the distance between the edges centers of two segments
+     */
+    public double edgesCenterDistance(int i, int j) {
+        double dx = edgesCenterX(i) - edgesCenterX(j);
+        double dy = edgesCenterY(i) - edgesCenterY(j);
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the signed euclidean distance of a segment line from a point,
+     * as LinearEquation.distanceFromPoint()
+     */
+    public double distanceFromPoint(int i, double px, double py) {
+        return (-a[i] * px + py - b[i]) / Math.sqrt(a[i] * a[i] + 1);
+    }
+
+    /**
+     * Returns the x of the intersection point of two segment lines
+     */
+    public double intersectX(int i, int j) {
+        return (b[i] - b[j]) / (a[j] - a[i]);
+    }
+
+    /**
+     * Returns the y of the intersection point of two segment lines
+     */
+    public double intersectY(int i, int j) {
+        return a[i] * intersectX(i, j) + b[i];
+    }
+
+    /**
+     * Calculates the angle bisector of two segment lines
+     *
+     * @param out receives the slope and the offset of the bisector
+     */
+    public void calculateAngleBisector(int i, int j, double[] out) {
+        LinearEquation.calculateAngleBisector(a[i], b[i], a[j], b[j], out);
+    }
+
+    private void allocate(int capacity) {
+        a = grow(a, capacity);
+        b = grow(b, capacity);
+        x1 = grow(x1, capacity);
+        y1 = grow(y1, capacity);
+        x2 = grow(x2, capacity);
+        y2 = grow(y2, capacity);
+        edge1X = grow(edge1X, capacity);
+        edge1Y = grow(edge1Y, capacity);
+        edge2X = grow(edge2X, capacity);
+        edge2Y = grow(edge2Y, capacity);
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        return array == null ? new double[capacity] : Arrays.copyOf(array, capacity);
+    }
+}
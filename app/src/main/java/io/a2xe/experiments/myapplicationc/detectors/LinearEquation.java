@@ -1,7 +1,5 @@
 package io.a2xe.experiments.myapplicationc.detectors;
 
-import org.opencv.core.Rect;
-
 /**
  * Created by Roee on 24/12/2015.
  */
@@ -12,9 +10,13 @@ public class LinearEquation {
     public Point point2;
     public Point edge1;
     public Point edge2;
+    private DetectorContext context;
+    // scratch for the edge coordinates: edge1.x, edge1.y, edge2.x, edge2.y
+    private final double[] edges = new double[4];
 
 
-    public LinearEquation(double a, double b) {
+    public LinearEquation(DetectorContext context, double a, double b) {
+        this.context = context;
         this.a = a;
         this.b = b;
         calcEdges();
@@ -22,7 +24,8 @@ public class LinearEquation {
         point2 = edge2;
     }
 
-    public LinearEquation(double a, double b, Point center) {
+    public LinearEquation(DetectorContext context, double a, double b, Point center) {
+        this.context = context;
         this.a = a;
         this.b = b;
         calcEdges();
@@ -30,7 +33,8 @@ public class LinearEquation {
         point2 = center;
     }
 
-    public LinearEquation(double x1, double y1, double x2, double y2) {
+    public LinearEquation(DetectorContext context, double x1, double y1, double x2, double y2) {
+        this.context = context;
         createFromPoints(x1, y1, x2, y2);
         calcEdges();
         point1 = new Point(x1, y1);
@@ -70,11 +74,21 @@ public class LinearEquation {
      * @return bisector line
      */
     public static LinearEquation calculateAngleBisector(LinearEquation line1, LinearEquation line2) {
-        double a1 = line1.a,
-                b1 = line1.b,
-                a2 = line2.a,
-                b2 = line2.b,
-                A1 = -a1,
+        double[] bisector = new double[2];
+        calculateAngleBisector(line1.a, line1.b, line2.a, line2.b, bisector);
+        return new LinearEquation(line1.context, bisector[0], bisector[1]);
+    }
+
+    /**
+     * Receives the parameters of two lines and calculates an angle bisector
+     * @param a1 slope of the first line
+     * @param b1 offset of the first line
+     * @param a2 slope of the second line
+     * @param b2 offset of the second line
+     * @param out receives the slope and the offset of the bisector
+     */
+    public static void calculateAngleBisector(double a1, double b1, double a2, double b2, double[] out) {
+        double A1 = -a1,
                 A2 = -a2,
                 B12 = 1,
                 C1 = -b1,
@@ -87,7 +101,8 @@ public class LinearEquation {
                 a = -A / B,
                 b = -C / B;
 
-        return new LinearEquation(a, b);
+        out[0] = a;
+        out[1] = b;
     }
 
     private void createFromPoints(double x1, double y1, double x2, double y2) {
@@ -147,29 +162,114 @@ public class LinearEquation {
      * Finds the intersection points with the edges of the screen
      */
     public void calcEdges() {
-        Point[] edges = new Point[2];
-        int[] xEdges = {0, LaneDetector.mFrameHeight};
-        int[] yEdges = {0, LaneDetector.mFrameWidth};
-        Rect screenRect = new Rect(0, 0, LaneDetector.mFrameHeight + 1, LaneDetector.mFrameWidth + 1);
+        calcEdges(a, b, context.frameHeight, context.frameWidth, edges, 0);
+        if (edge1 == null) {
+            edge1 = new Point(edges[0], edges[1]);
+            edge2 = new Point(edges[2], edges[3]);
+        } else {
+            edge1.x = edges[0];
+            edge1.y = edges[1];
+            edge2.x = edges[2];
+            edge2.y = edges[3];
+        }
+    }
+
+    /**
+     * Finds the intersection points of a line with the edges of the screen.
+     * The first two intersections inside the screen are taken, in the order top, bottom,
+     * left, right. Missing intersections fall back to the top and bottom rows.
+     *
+     * @param a           slope of the line
+     * @param b           offset of the line
+     * @param frameHeight height of the screen (x range)
+     * @param frameWidth  width of the screen (y range)
+     * @param out         receives edge1.x, edge1.y, edge2.x, edge2.y
+     * @param offset      position of edge1.x in out
+     */
+    public static void calcEdges(double a, double b, int frameHeight, int frameWidth, double[] out, int offset) {
         int index = 0;
         for (int i = 0; index < 2 && i < 2; i++) {
-            Point p = new Point(xEdges[i], y(xEdges[i]));
-            if (p.inside(screenRect)) {
-                edges[index] = p;
+            double x = i == 0 ? 0 : frameHeight;
+            double y = a * x + b;
+            if (insideScreen(x, y, frameHeight, frameWidth)) {
+                out[offset + index * 2] = x;
+                out[offset + index * 2 + 1] = y;
                 index++;
             }
         }
         for (int i = 0; index < 2 && i < 2; i++) {
-            Point p = new Point(x(yEdges[i]), yEdges[i]);
-            if (p.inside(screenRect)) {
-                edges[index] = p;
+            double y = i == 0 ? 0 : frameWidth;
+            double x = (y - b) / a;
+            if (insideScreen(x, y, frameHeight, frameWidth)) {
+                out[offset + index * 2] = x;
+                out[offset + index * 2 + 1] = y;
                 index++;
             }
         }
 
-        edge1 = (edges[0] != null) ? edges[0] : new Point(0, y(0));
-        edge2 = (edges[1] != null) ? edges[1] : new Point(LaneDetector.mFrameHeight, y(LaneDetector.mFrameHeight));
+        if (index < 1) {
+            out[offset] = 0;
+            out[offset + 1] = b;
+        }
+        if (index < 2) {
+            out[offset + 2] = frameHeight;
+            out[offset + 3] = a * frameHeight + b;
+        }
+    }
+
+    private static boolean insideScreen(double x, double y, int frameHeight, int frameWidth) {
+        return 0 <= x && x < frameHeight + 1 && 0 <= y && y < frameWidth + 1;
+    }
+
+    /**
+     * Replaces the line, the points become the intersections with the edges of the screen.
+     * Existing points are reused.
+     *
+     * @param a slope
+     * @param b offset
+     */
+    public void set(double a, double b) {
+        this.a = a;
+        this.b = b;
+        calcEdges();
+        point1 = edge1;
+        point2 = edge2;
+    }
 
+    /**
+     * Replaces the line with a line of a segment buffer. Existing points are reused.
+     *
+     * @param buffer segment buffer
+     * @param index  index of the segment
+     */
+    public void set(LineSegmentBuffer buffer, int index) {
+        a = buffer.a[index];
+        b = buffer.b[index];
+        // points may be shared with the edges or with each other
+        if (point1 == null || point1 == edge1 || point1 == edge2 || point1 == point2) {
+            point1 = new Point(0, 0);
+            point2 = new Point(0, 0);
+        }
+        point1.x = buffer.x1[index];
+        point1.y = buffer.y1[index];
+        point2.x = buffer.x2[index];
+        point2.y = buffer.y2[index];
+        if (edge1 == null) {
+            edge1 = new Point(0, 0);
+            edge2 = new Point(0, 0);
+        }
+        edge1.x = buffer.edge1X[index];
+        edge1.y = buffer.edge1Y[index];
+        edge2.x = buffer.edge2X[index];
+        edge2.y = buffer.edge2Y[index];
+    }
+
+    /**
+     * Getter for detector context
+     * @return context of the detector that created the line
+     */
+    public DetectorContext getContext() {
+        return context;
     }
 
     /**
@@ -188,7 +288,7 @@ public class LinearEquation {
     public LinearEquation normal(Point p) {
         double a = -1 / this.a;
         double b = -a * p.x + p.y;
-        return new LinearEquation(a, b);
+        return new LinearEquation(context, a, b);
     }
 
 
@@ -0,0 +1,117 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs one LaneDetector per stream on a thread pool.
+ * A detector is only used by one thread at a time, the frames of all streams
+ * are processed concurrently.
+ */
+public class MultiStreamLaneEngine {
+
+    private final ExecutorService mExecutor;
+    private final List<LaneDetector> mDetectors = new ArrayList<>();
+    private final List<StreamTask> mTasks = new ArrayList<>();
+
+    /**
+     * @param threads number of worker threads, usually the number of cores
+     */
+    public MultiStreamLaneEngine(int threads) {
+        mExecutor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Adds a stream with its own detector.
+     *
+     * @param frameWidth  width of the stream frames
+     * @param frameHeight height of the stream frames
+     * @return index of the stream
+     */
+    public int addStream(int frameWidth, int frameHeight) {
+        LaneDetector detector = new LaneDetector(frameWidth, frameHeight);
+        mDetectors.add(detector);
+        mTasks.add(new StreamTask(detector));
+        return mDetectors.size() - 1;
+    }
+
+    /**
+     * Getter for detector of a stream, used to configure it and to read its lanes
+     * @param stream index of the stream
+     * @return detector of the stream
+     */
+    public LaneDetector getDetector(int stream) {
+        return mDetectors.get(stream);
+    }
+
+    /**
+     * Returns the number of streams
+     *
+     * @return number of streams
+     */
+    public int getStreamCount() {
+        return mDetectors.size();
+    }
+
+    /**
+     * Processes one frame of every stream and waits for all of them.
+     *
+     * @param frames a frame per stream, null to skip a stream
+     * @throws InterruptedException if interrupted while waiting
+     * @throws ExecutionException   if a detector failed
+     */
+    public void processFrames(Mat[] frames) throws InterruptedException, ExecutionException {
+        if (frames.length != mDetectors.size()) {
+            throw new IllegalArgumentException("Expected " + mDetectors.size() + " frames, got " + frames.length);
+        }
+
+        List<StreamTask> tasks = new ArrayList<>(frames.length);
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] != null) {
+                StreamTask task = mTasks.get(i);
+                task.frame = frames[i];
+                tasks.add(task);
+            }
+        }
+
+        List<Future<Void>> results = mExecutor.invokeAll(tasks);
+        for (Future<Void> result : results) {
+            result.get();
+        }
+    }
+
+    /**
+     * Stops the worker threads and the parallel stages of the stream detectors.
+     * Must not be called while processFrames() runs.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+        for (LaneDetector detector : mDetectors) {
+            detector.shutdown();
+        }
+    }
+
+    private static class StreamTask implements Callable<Void> {
+
+        private final LaneDetector detector;
+        private Mat frame;
+
+        StreamTask(LaneDetector detector) {
+            this.detector = detector;
+        }
+
+        @Override
+        public Void call() {
+            detector.processFrame(frame);
+            frame = null;
+            return null;
+        }
+    }
+}
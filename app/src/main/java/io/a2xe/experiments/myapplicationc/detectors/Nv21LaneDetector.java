@@ -0,0 +1,546 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import java.util.Arrays;
+
+/**
+ * Lane detection on the NV21 preview buffer of the camera, in plain Java.
+ * The region of interest of the luma plane (the first width * height bytes of NV21) is reduced
+ * to the processing resolution, its edges are found by a Java Canny and its lines by
+ * ParallelHoughTransform. Lanes and bisectors come from the same LaneExtractor as LaneDetector.
+ *
+ * No Mat, JNI call or native library is involved: the detector runs on a desktop JVM and the
+ * preview buffer does not have to be copied into a Mat first. Tracking, parallel Canny and
+ * gradient gating of LaneDetector are not supported.
+ */
+public class Nv21LaneDetector implements LaneSnapshotSource {
+
+    // Canny thresholds are the mean intensity of the region of interest +/- CANNY_SIGMA
+    private static final double CANNY_SIGMA = 0.33;
+    // limits of the gradient direction sectors of non-maximum suppression
+    private static final double TAN_22_5 = 0.4142135623730951;
+    private static final double TAN_67_5 = 2.414213562373095;
+
+    // edge states during Canny
+    private static final byte NOT_EDGE = 0;
+    private static final byte WEAK_EDGE = 1;
+    private static final byte EDGE = (byte) 255;
+
+    private final DetectorContext mContext;
+    private final int mThreads;
+    private LineSegmentBuffer mSegments;
+    private LaneExtractor mExtractor;
+    // lanes of the last frame, for overlays drawn over the camera frame
+    private LaneSnapshot mSnapshot;
+    private IntegralImage mIntegralImage;
+    // whether the integral image was computed for the current frame
+    private boolean mIntegralImageReady = false;
+
+    // processing frame: region of interest of the luma plane reduced by mProcessingScale
+    private int mRows;
+    private int mCols;
+    private byte[] mGray = new byte[0];
+    private int[] mGradientX = new int[0];
+    private int[] mGradientY = new int[0];
+    private int[] mMagnitude = new int[0];
+    private byte[] mEdges = new byte[0];
+    // strong edges whose weak neighbours are not visited yet
+    private int[] mEdgeStack = new int[0];
+    // luma sums of the processing pixels of a row, when the processing scale is > 1
+    private int[] mColumnSums = new int[0];
+    // first and last + 1 column of the region of interest, for every processing row
+    private int[] mRowStart = new int[0];
+    private int[] mRowEnd = new int[0];
+
+    // angle restricted Hough transform of the processing resolution, created on demand
+    private ParallelHoughTransform mHough;
+    private double mHoughRho = 1;
+    private double mHoughTheta = Math.PI / 180;
+
+    // first frame row processed (rows above it are skipped)
+    private int mRoiTop = 0;
+    private double mRoiHorizonRatio = 0;
+    private double mRoiTopWidthRatio = 1;
+    // frame pixels per processing pixel (1 = full resolution)
+    private int mProcessingScale = 1;
+
+    private int frameWidth;
+    private int frameHeight;
+
+    public Nv21LaneDetector(int frameWidth, int frameHeight) {
+        this(frameWidth, frameHeight, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param frameWidth  preview width
+     * @param frameHeight preview height
+     * @param threads     number of Hough voting threads, 1 votes on the calling thread
+     */
+    public Nv21LaneDetector(int frameWidth, int frameHeight, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        mThreads = threads;
+
+        mContext = new DetectorContext(frameWidth, frameHeight);
+        mSegments = new LineSegmentBuffer(mContext);
+        mIntegralImage = new IntegralImage();
+        mExtractor = new LaneExtractor(mSegments, new LaneExtractor.IntegralImageSource() {
+            @Override
+            public IntegralImage integralImage() {
+                return Nv21LaneDetector.this.integralImage();
+            }
+        });
+        mSnapshot = new LaneSnapshot(mContext);
+        updateRegionOfInterest();
+    }
+
+    /**
+     * Detects the lanes of an NV21 preview frame.
+     * Only the luma plane is read, the array is not modified.
+     *
+     * @param frame NV21 frame, at least width * height bytes
+     */
+    public void processFrame(byte[] frame) {
+        if (frame.length < frameWidth * frameHeight) {
+            throw new IllegalArgumentException("Frame smaller than " + frameWidth + "x" + frameHeight);
+        }
+        mSegments.clear();
+        mExtractor.clear();
+        mIntegralImageReady = false;
+
+        readLuma(frame);
+        detectEdges();
+        detectLines();
+        mExtractor.extractLanes();
+        mExtractor.calculateBisectors();
+        mSnapshot.update(mExtractor);
+    }
+
+    /**
+     * Copies the region of interest of the luma plane into the processing frame,
+     * averaging blocks of scale x scale pixels.
+     */
+    private void readLuma(byte[] frame) {
+        int scale = mProcessingScale;
+        if (scale == 1) {
+            // the rows are contiguous in NV21
+            System.arraycopy(frame, mRoiTop * frameWidth, mGray, 0, mRows * mCols);
+            return;
+        }
+
+        int area = scale * scale;
+        for (int row = 0; row < mRows; row++) {
+            Arrays.fill(mColumnSums, 0, mCols, 0);
+            for (int k = 0; k < scale; k++) {
+                int source = (mRoiTop + row * scale + k) * frameWidth;
+                for (int col = 0; col < mCols; col++) {
+                    int sum = 0;
+                    for (int m = 0; m < scale; m++) {
+                        sum += frame[source++] & 0xFF;
+                    }
+                    mColumnSums[col] += sum;
+                }
+            }
+            int target = row * mCols;
+            for (int col = 0; col < mCols; col++) {
+                mGray[target + col] = (byte) ((mColumnSums[col] + area / 2) / area);
+            }
+        }
+    }
+
+    /**
+     * Canny edge detection of the processing frame: 3x3 Sobel, L1 magnitude, non-maximum
+     * suppression and hysteresis, with the thresholds of LaneDetector. Edges outside of the
+     * region of interest are dropped.
+     */
+    private void detectEdges() {
+        long sum = 0;
+        int count = 0;
+        for (int row = 0; row < mRows; row++) {
+            int offset = row * mCols;
+            for (int col = mRowStart[row]; col < mRowEnd[row]; col++) {
+                sum += mGray[offset + col] & 0xFF;
+            }
+            count += mRowEnd[row] - mRowStart[row];
+        }
+        double mean = count > 0 ? (double) sum / count : 0;
+        int low = (int) Math.max(0, (1.0 - CANNY_SIGMA) * mean);
+        int high = (int) Math.min(255, (1.0 + CANNY_SIGMA) * mean);
+
+        computeGradients();
+        int stackSize = suppressNonMaxima(low, high);
+        followEdges(stackSize);
+
+        for (int row = 0; row < mRows; row++) {
+            int offset = row * mCols;
+            for (int col = 0; col < mCols; col++) {
+                if (mEdges[offset + col] != EDGE || col < mRowStart[row] || col >= mRowEnd[row]) {
+                    mEdges[offset + col] = NOT_EDGE;
+                }
+            }
+        }
+    }
+
+    /**
+     * 3x3 Sobel gradients and their L1 magnitude, borders are replicated.
+     */
+    private void computeGradients() {
+        byte[] gray = mGray;
+        for (int row = 0; row < mRows; row++) {
+            int above = Math.max(row - 1, 0) * mCols;
+            int middle = row * mCols;
+            int below = Math.min(row + 1, mRows - 1) * mCols;
+            for (int col = 0; col < mCols; col++) {
+                int left = col > 0 ? col - 1 : 0;
+                int right = col < mCols - 1 ? col + 1 : col;
+
+                int aboveLeft = gray[above + left] & 0xFF, aboveRight = gray[above + right] & 0xFF;
+                int belowLeft = gray[below + left] & 0xFF, belowRight = gray[below + right] & 0xFF;
+                int gx = aboveRight + 2 * (gray[middle + right] & 0xFF) + belowRight
+                        - aboveLeft - 2 * (gray[middle + left] & 0xFF) - belowLeft;
+                int gy = belowLeft + 2 * (gray[below + col] & 0xFF) + belowRight
+                        - aboveLeft - 2 * (gray[above + col] & 0xFF) - aboveRight;
+
+                mGradientX[middle + col] = gx;
+                mGradientY[middle + col] = gy;
+                mMagnitude[middle + col] = Math.abs(gx) + Math.abs(gy);
+            }
+        }
+    }
+
+    /**
+     * Keeps the pixels that are local maxima across the gradient direction and above the low
+     * threshold. The ones above the high threshold are edges and go on the stack.
+     *
+     * @return number of edges on the stack
+     */
+    private int suppressNonMaxima(int low, int high) {
+        int stackSize = 0;
+        for (int row = 0; row < mRows; row++) {
+            for (int col = 0; col < mCols; col++) {
+                int i = row * mCols + col;
+                int m = mMagnitude[i];
+                byte state = NOT_EDGE;
+                if (m > low) {
+                    int gx = mGradientX[i], gy = mGradientY[i];
+                    double ax = Math.abs(gx), ay = Math.abs(gy);
+                    boolean maximum;
+                    if (ay < ax * TAN_22_5) {
+                        maximum = m > magnitude(row, col - 1) && m >= magnitude(row, col + 1);
+                    } else if (ay > ax * TAN_67_5) {
+                        maximum = m > magnitude(row - 1, col) && m >= magnitude(row + 1, col);
+                    } else {
+                        int s = (gx ^ gy) < 0 ? -1 : 1;
+                        maximum = m > magnitude(row - 1, col - s) && m > magnitude(row + 1, col + s);
+                    }
+                    if (maximum) {
+                        if (m > high) {
+                            state = EDGE;
+                            mEdgeStack[stackSize++] = i;
+                        } else {
+                            state = WEAK_EDGE;
+                        }
+                    }
+                }
+                mEdges[i] = state;
+            }
+        }
+        return stackSize;
+    }
+
+    /**
+     * Magnitude of a pixel, 0 outside of the processing frame.
+     */
+    private int magnitude(int row, int col) {
+        if (row < 0 || row >= mRows || col < 0 || col >= mCols) {
+            return 0;
+        }
+        return mMagnitude[row * mCols + col];
+    }
+
+    /**
+     * Hysteresis: weak edges connected to an edge become edges.
+     */
+    private void followEdges(int stackSize) {
+        while (stackSize > 0) {
+            int i = mEdgeStack[--stackSize];
+            int row = i / mCols, col = i % mCols;
+            for (int r = Math.max(0, row - 1); r <= Math.min(mRows - 1, row + 1); r++) {
+                for (int c = Math.max(0, col - 1); c <= Math.min(mCols - 1, col + 1); c++) {
+                    int j = r * mCols + c;
+                    if (mEdges[j] == WEAK_EDGE) {
+                        mEdges[j] = EDGE;
+                        mEdgeStack[stackSize++] = j;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the lines of the edges with the angle restricted Hough transform and adds
+     * the long enough ones to the candidate segments.
+     */
+    private void detectLines() {
+        if (mHough == null || mHough.getWidth() != mCols || mHough.getHeight() != mRows) {
+            // lanes are less than atan(VERTICAL_THRESHOLD_SLOPE) away from vertical
+            double maxAngle = Math.atan(LaneExtractor.VERTICAL_THRESHOLD_SLOPE);
+            if (mHough != null) {
+                mHough.shutdown();
+            }
+            mHough = new ParallelHoughTransform(mCols, mRows, -maxAngle, maxAngle,
+                    mHoughTheta, mHoughRho, mThreads);
+        }
+
+        mHough.setEdgeImage(mEdges);
+        int count = mHough.findSegments(
+                Math.max(LaneDetector.HOUGH_MIN_VOTES, LaneDetector.HOUGH_VOTES / mProcessingScale),
+                (double) mContext.lengthThreshold / mProcessingScale,
+                (int) Math.max(1, LaneDetector.HOUGH_MAX_LINE_GAP / mProcessingScale));
+
+        int[] data = mHough.getSegments();
+        for (int i = 0; i < count; i++) {
+            int offset = i * 4;
+            mSegments.addScaled(data[offset], data[offset + 1], data[offset + 2], data[offset + 3],
+                    mProcessingScale, mRoiTop);
+        }
+    }
+
+    /**
+     * Returns the integral image of the processing frame, computed on first use in every frame.
+     *
+     * @return integral image
+     */
+    private IntegralImage integralImage() {
+        if (!mIntegralImageReady) {
+            mIntegralImage.update(mGray, mRows, mCols, mRoiTop, mProcessingScale);
+            mIntegralImageReady = true;
+        }
+        return mIntegralImage;
+    }
+
+    /**
+     * Sets the resolution of the edge and Hough stages, lanes and bisectors stay in
+     * preview coordinates.
+     *
+     * @param scale frame pixels per processing pixel: 1, 2, 4 or 8
+     */
+    public void setProcessingScale(int scale) {
+        if (scale < 1 || scale > 8 || Integer.bitCount(scale) != 1) {
+            throw new IllegalArgumentException("scale must be 1, 2, 4 or 8");
+        }
+
+        mProcessingScale = scale;
+        updateRegionOfInterest();
+    }
+
+    /**
+     * Getter for processing scale
+     * @return frame pixels per processing pixel
+     */
+    public int getProcessingScale() {
+        return mProcessingScale;
+    }
+
+    /**
+     * Restricts the detection to the part of the frame below the horizon, same region as
+     * LaneDetector.setRegionOfInterest().
+     *
+     * @param horizonRatio  fraction of the frame height (from the top) that is skipped, 0 to 1
+     * @param topWidthRatio width of the trapezoid top edge relative to the frame width, 0 to 1
+     */
+    public void setRegionOfInterest(double horizonRatio, double topWidthRatio) {
+        if (horizonRatio < 0 || horizonRatio >= 1) {
+            throw new IllegalArgumentException("horizonRatio must be in [0, 1)");
+        }
+        if (topWidthRatio <= 0 || topWidthRatio > 1) {
+            throw new IllegalArgumentException("topWidthRatio must be in (0, 1]");
+        }
+
+        mRoiHorizonRatio = horizonRatio;
+        mRoiTopWidthRatio = topWidthRatio;
+        updateRegionOfInterest();
+    }
+
+    /**
+     * Getter for region of interest horizon
+     * @return fraction of the frame height that is skipped
+     */
+    public double getRoiHorizonRatio() {
+        return mRoiHorizonRatio;
+    }
+
+    /**
+     * Getter for region of interest top width
+     * @return width of the trapezoid top edge relative to the frame width
+     */
+    public double getRoiTopWidthRatio() {
+        return mRoiTopWidthRatio;
+    }
+
+    /**
+     * Recalculates the processing frame size and the columns of the trapezoid on every row.
+     */
+    private void updateRegionOfInterest() {
+        mRoiTop = (int) (frameHeight * mRoiHorizonRatio);
+        mRows = Math.max(1, (frameHeight - mRoiTop) / mProcessingScale);
+        mCols = Math.max(1, frameWidth / mProcessingScale);
+
+        int size = mRows * mCols;
+        if (mGray.length != size) {
+            // the Hough transform reads the whole edge array
+            mGray = new byte[size];
+            mGradientX = new int[size];
+            mGradientY = new int[size];
+            mMagnitude = new int[size];
+            mEdges = new byte[size];
+            mEdgeStack = new int[size];
+        }
+        if (mColumnSums.length < mCols) {
+            mColumnSums = new int[mCols];
+        }
+        if (mRowStart.length < mRows) {
+            mRowStart = new int[mRows];
+            mRowEnd = new int[mRows];
+        }
+
+        double inset = mCols * (1 - mRoiTopWidthRatio) / 2;
+        for (int row = 0; row < mRows; row++) {
+            int start = (int) Math.round(inset * (mRows - row) / mRows);
+            mRowStart[row] = start;
+            mRowEnd[row] = mCols - start;
+        }
+    }
+
+    /**
+     * Stops the voting threads of the Java Hough transform, called when the detector is not used
+     * anymore. The transform is created again if the detector processes another frame.
+     */
+    public void shutdown() {
+        if (mHough != null) {
+            mHough.shutdown();
+            mHough = null;
+        }
+    }
+
+    /**
+     * Sets the resolution of the Hough accumulator.
+     *
+     * @param rho   distance resolution, in processing pixels
+     * @param theta angle resolution, in radians
+     */
+    public void setHoughResolution(double rho, double theta) {
+        if (rho <= 0 || theta <= 0) {
+            throw new IllegalArgumentException("Invalid Hough resolution: " + rho + ", " + theta);
+        }
+        if (rho != mHoughRho || theta != mHoughTheta) {
+            mHoughRho = rho;
+            mHoughTheta = theta;
+            // created again with the new resolution
+            if (mHough != null) {
+                mHough.shutdown();
+                mHough = null;
+            }
+        }
+    }
+
+    /**
+     * Getter for the lane extractor, used to configure the ranked pair selection and the candidate budget
+     * @return lane extractor
+     */
+    public LaneExtractor getLaneExtractor() {
+        return mExtractor;
+    }
+
+    /**
+     * Returns the edges of the last frame, in the processing resolution of the region
+     * of interest (getProcessingRows() x getProcessingCols(), 255 on edges)
+     *
+     * @return edge image, reused by the next frame
+     */
+    public byte[] getEdges() {
+        return mEdges;
+    }
+
+    /**
+     * Getter for processing frame rows
+     * @return rows of the processing frame
+     */
+    public int getProcessingRows() {
+        return mRows;
+    }
+
+    /**
+     * Getter for processing frame columns
+     * @return columns of the processing frame
+     */
+    public int getProcessingCols() {
+        return mCols;
+    }
+
+    /**
+     * Returns the number of candidate segments of the current frame
+     *
+     * @return number of segments longer than the length threshold
+     */
+    public int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    /**
+     * Returns whether a pair of line exists
+     *
+     * @param index first or second pair of lanes (0 or 1)
+     * @return pair exists
+     */
+    public boolean lanesFound(int index) {
+        return mExtractor.lanesFound(index);
+    }
+
+    /**
+     * Getter for lane
+     * @param side  LaneExtractor.LEFT or LaneExtractor.RIGHT
+     * @param index first or second pair of lanes
+     * @return lane, null if not found
+     */
+    public LinearEquation getLane(int side, int index) {
+        return mExtractor.getLane(side, index);
+    }
+
+    /**
+     * Getter for bisector line
+     * @param index first or second pair of lanes (0 or 1)
+     * @return bisector line
+     */
+    public LinearEquation getBisectorLine(int index) {
+        return mExtractor.getBisectorLine(index);
+    }
+
+    /**
+     * Getter for bisector lines
+     * @return all bisector lines
+     */
+    public LinearEquation[] getBisectorLines() {
+        return mExtractor.getBisectorLines();
+    }
+
+    /**
+     * Copies the lanes of the last frame
+     *
+     * @param snapshot receives the lanes
+     */
+    @Override
+    public void getLaneSnapshot(LaneSnapshot snapshot) {
+        mSnapshot.copyTo(snapshot);
+    }
+
+    /**
+     * Getter for detector context
+     * @return frame geometry of this detector
+     */
+    public DetectorContext getContext() {
+        return mContext;
+    }
+}
@@ -0,0 +1,155 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Canny edge detection split in horizontal bands running on a fork/join pool.
+ * Every band is extended by a margin above and below, so Sobel and non-maximum suppression
+ * see the same neighbourhood as on the whole frame, and only its own rows are copied to the
+ * output. The output equals the single threaded Canny except for hysteresis chains that
+ * leave a band by more than the margin, where a weak edge may lose its strong neighbour.
+ * Only edge chains reaching a seam between two bands can differ.
+ *
+ * The pool threads run until shutdown().
+ */
+public class ParallelCanny {
+
+    // rows added above and below every band: Sobel and non-maximum suppression need 2,
+    // the rest lets hysteresis chains cross the band seams
+    public static final int DEFAULT_MARGIN = 8;
+
+    private final ForkJoinPool mPool;
+    private final int mBands;
+    private final int mMargin;
+    // edges of every band, including its margins
+    private final Mat[] mBandEdges;
+
+    private Mat mSource;
+    private Mat mEdges;
+    private double mLowThreshold;
+    private double mHighThreshold;
+
+    /**
+     * @param bands number of bands, usually the number of cores
+     */
+    public ParallelCanny(int bands) {
+        this(bands, DEFAULT_MARGIN);
+    }
+
+    /**
+     * @param bands  number of bands, usually the number of cores
+     * @param margin rows added above and below every band
+     */
+    public ParallelCanny(int bands, int margin) {
+        if (bands < 1 || margin < 0) {
+            throw new IllegalArgumentException("Invalid bands or margin: " + bands + ", " + margin);
+        }
+        mBands = bands;
+        mMargin = margin;
+        mPool = new ForkJoinPool(bands);
+        mBandEdges = new Mat[bands];
+        for (int i = 0; i < bands; i++) {
+            mBandEdges[i] = new Mat();
+        }
+    }
+
+    /**
+     * Finds the edges of a grayscale frame, same arguments as Imgproc.Canny().
+     *
+     * @param gray          grayscale frame (CV_8UC1)
+     * @param edges         receives the edges (CV_8UC1)
+     * @param lowThreshold  hysteresis low threshold
+     * @param highThreshold hysteresis high threshold
+     */
+    public void apply(Mat gray, Mat edges, double lowThreshold, double highThreshold) {
+        edges.create(gray.size(), CvType.CV_8UC1);
+        mSource = gray;
+        mEdges = edges;
+        mLowThreshold = lowThreshold;
+        mHighThreshold = highThreshold;
+
+        int bands = bandsFor(gray.rows());
+        mPool.invoke(new BandTask(0, bands, bands));
+
+        mSource = null;
+        mEdges = null;
+    }
+
+    /**
+     * Stops the pool threads, apply() must not be called afterwards.
+     */
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * Number of bands a frame is split in, band b starts at row rows * b / bands.
+     *
+     * @param rows rows of the frame
+     * @return number of bands
+     */
+    int bandsFor(int rows) {
+        // small frames are not worth a band per core
+        return Math.max(1, Math.min(mBands, rows / (mMargin * 2 + 1)));
+    }
+
+    /**
+     * Getter for number of bands
+     * @return number of bands
+     */
+    public int getBands() {
+        return mBands;
+    }
+
+    /**
+     * Runs Canny on a band and copies its own rows to the output.
+     */
+    private void detectBand(int band, int bands) {
+        int rows = mSource.rows();
+        int first = rows * band / bands;
+        int last = rows * (band + 1) / bands;
+        int sourceFirst = Math.max(0, first - mMargin);
+        int sourceLast = Math.min(rows, last + mMargin);
+
+        Mat source = mSource.rowRange(sourceFirst, sourceLast);
+        Imgproc.Canny(source, mBandEdges[band], mLowThreshold, mHighThreshold);
+        source.release();
+
+        Mat inner = mBandEdges[band].rowRange(first - sourceFirst, last - sourceFirst);
+        Mat target = mEdges.rowRange(first, last);
+        inner.copyTo(target);
+        inner.release();
+        target.release();
+    }
+
+    /**
+     * Splits the bands between the pool threads.
+     */
+    private class BandTask extends RecursiveAction {
+
+        private final int firstBand;
+        private final int lastBand;
+        private final int bands;
+
+        BandTask(int firstBand, int lastBand, int bands) {
+            this.firstBand = firstBand;
+            this.lastBand = lastBand;
+            this.bands = bands;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastBand - firstBand == 1) {
+                detectBand(firstBand, bands);
+            } else {
+                int middle = (firstBand + lastBand) / 2;
+                invokeAll(new BandTask(firstBand, middle, bands), new BandTask(middle, lastBand, bands));
+            }
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pure Java probabilistic-style Hough transform restricted to a window of angles.
+ * Edge points vote only for the angles of the window, with precomputed sin/cos tables.
+ * The points are split in chunks voting on a fork/join pool, every chunk has its own
+ * accumulator and the accumulators are merged at the end, so voting needs no synchronization.
+ *
+ * Peaks of the accumulator are walked along the edge image, in decreasing order of votes,
+ * to find segments. Pixels of a found segment are removed, so a segment is reported once.
+ * Segments use the HoughLinesP format: col1, row1, col2, row2.
+ *
+ * Angles are the angles of the line normals: 0 is a vertical line (constant column),
+ * PI / 2 a horizontal one (constant row). The lane window of LaneDetector, atan(4) on both sides
+ * of vertical, still holds about 84% of the angles, so the window alone saves little voting;
+ * how the transform compares with HoughLinesP has to be measured on the device.
+ *
+ * A transform voting on several threads owns a pool, shutdown() stops it.
+ */
+public class ParallelHoughTransform {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final double mThetaMin;
+    private final double mThetaStep;
+    private final double mRhoStep;
+    private final int mThetaCount;
+    private final int mRhoCount;
+    // rho index of rho = 0
+    private final int mRhoOffset;
+    // cos and sin of every angle, divided by the rho step
+    private final double[] mCos;
+    private final double[] mSin;
+
+    private final ForkJoinPool mPool;
+    private final int mChunks;
+    private final int[][] mAccumulators;
+    private final int[] mVotes;
+
+    // edge points, x (column) and y (row) interleaved
+    private int[] mPoints = new int[0];
+    private int mPointCount = 0;
+    private final byte[] mEdges;
+
+    private long[] mPeaks = new long[0];
+    private int[] mSegments = new int[0];
+    private int mSegmentCount = 0;
+
+    /**
+     * @param width     width of the edge image
+     * @param height    height of the edge image
+     * @param thetaMin  first angle of the window, in radians, may be negative
+     * @param thetaMax  last angle of the window, in radians
+     * @param thetaStep angle resolution, in radians
+     * @param rhoStep   distance resolution, in pixels
+     * @param threads   number of voting threads, 1 votes on the calling thread
+     */
+    public ParallelHoughTransform(int width, int height, double thetaMin, double thetaMax,
+                                  double thetaStep, double rhoStep, int threads) {
+        if (width <= 0 || height <= 0 || thetaMax < thetaMin || thetaStep <= 0 || rhoStep <= 0 || threads < 1) {
+            throw new IllegalArgumentException("Invalid Hough parameters");
+        }
+        mWidth = width;
+        mHeight = height;
+        mThetaMin = thetaMin;
+        mThetaStep = thetaStep;
+        mRhoStep = rhoStep;
+
+        mThetaCount = (int) Math.floor((thetaMax - thetaMin) / thetaStep) + 1;
+        mCos = new double[mThetaCount];
+        mSin = new double[mThetaCount];
+        for (int t = 0; t < mThetaCount; t++) {
+            double theta = thetaMin + t * thetaStep;
+            mCos[t] = Math.cos(theta) / rhoStep;
+            mSin[t] = Math.sin(theta) / rhoStep;
+        }
+        mRhoOffset = (int) Math.ceil(Math.sqrt((double) width * width + (double) height * height) / rhoStep) + 1;
+        mRhoCount = mRhoOffset * 2 + 1;
+
+        mChunks = threads;
+        mPool = threads > 1 ? new ForkJoinPool(threads) : null;
+        mAccumulators = new int[mChunks][mThetaCount * mRhoCount];
+        mVotes = mChunks > 1 ? new int[mThetaCount * mRhoCount] : mAccumulators[0];
+        mEdges = new byte[width * height];
+    }
+
+    /**
+     * Stops the voting threads. The transform must not be used afterwards.
+     */
+    public void shutdown() {
+        if (mPool != null) {
+            mPool.shutdown();
+        }
+    }
+
+    /**
+     * Sets the edge points from an edge image, non zero pixels are edges.
+     *
+     * @param edges edge image, row by row (for example a Canny frame)
+     */
+    public void setEdgeImage(byte[] edges) {
+        System.arraycopy(edges, 0, mEdges, 0, mEdges.length);
+        int count = 0;
+        for (int i = 0; i < mEdges.length; i++) {
+            if (mEdges[i] != 0) {
+                count++;
+            }
+        }
+        ensurePointCapacity(count);
+
+        mPointCount = 0;
+        for (int y = 0; y < mHeight; y++) {
+            int offset = y * mWidth;
+            for (int x = 0; x < mWidth; x++) {
+                if (mEdges[offset + x] != 0) {
+                    mPoints[mPointCount * 2] = x;
+                    mPoints[mPointCount * 2 + 1] = y;
+                    mPointCount++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the edge points from a list.
+     *
+     * @param points x (column) and y (row) of every point, interleaved
+     * @param count  number of points
+     */
+    public void setEdgePoints(int[] points, int count) {
+        ensurePointCapacity(count);
+        Arrays.fill(mEdges, (byte) 0);
+        mPointCount = 0;
+        for (int i = 0; i < count; i++) {
+            int x = points[i * 2], y = points[i * 2 + 1];
+            if (x >= 0 && x < mWidth && y >= 0 && y < mHeight) {
+                mPoints[mPointCount * 2] = x;
+                mPoints[mPointCount * 2 + 1] = y;
+                mPointCount++;
+                mEdges[y * mWidth + x] = 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of edge points
+     *
+     * @return number of edge points
+     */
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * Finds the segments of the edge points. The edge points are consumed.
+     *
+     * @param threshold     min votes of a line
+     * @param minLineLength min length of a segment
+     * @param maxLineGap    max gap between the points of a segment
+     * @return number of segments
+     */
+    public int findSegments(int threshold, double minLineLength, int maxLineGap) {
+        vote();
+
+        // peaks sorted by votes, packed as votes << 32 | accumulator index
+        int peakCount = 0;
+        for (int t = 0; t < mThetaCount; t++) {
+            for (int r = 1; r < mRhoCount - 1; r++) {
+                int index = t * mRhoCount + r;
+                int votes = mVotes[index];
+                if (votes >= threshold && isPeak(t, r, votes)) {
+                    if (peakCount == mPeaks.length) {
+                        mPeaks = Arrays.copyOf(mPeaks, Math.max(64, peakCount * 2));
+                    }
+                    mPeaks[peakCount++] = ((long) votes << 32) | index;
+                }
+            }
+        }
+        Arrays.sort(mPeaks, 0, peakCount);
+
+        mSegmentCount = 0;
+        for (int i = peakCount - 1; i >= 0; i--) {
+            int index = (int) mPeaks[i];
+            walkLine(index / mRhoCount, index % mRhoCount, minLineLength, maxLineGap);
+        }
+        return mSegmentCount;
+    }
+
+    /**
+     * Returns the segments found by the last findSegments(),
+     * four values per segment: col1, row1, col2, row2
+     *
+     * @return segment data, valid up to 4 * number of segments
+     */
+    public int[] getSegments() {
+        return mSegments;
+    }
+
+    /**
+     * Getter for edge image width
+     * @return width of the edge image
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Getter for edge image height
+     * @return height of the edge image
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the number of angles of the window
+     *
+     * @return number of angles
+     */
+    public int getThetaCount() {
+        return mThetaCount;
+    }
+
+    private void ensurePointCapacity(int count) {
+        if (mPoints.length < count * 2) {
+            mPoints = new int[count * 2];
+        }
+    }
+
+    private void vote() {
+        if (mPool == null) {
+            vote(0, 0, mPointCount);
+        } else {
+            mPool.invoke(new VoteTask(0, mChunks));
+            mPool.invoke(new MergeTask(0, mThetaCount));
+        }
+    }
+
+    /**
+     * Votes with a range of points into the accumulator of a chunk.
+     */
+    private void vote(int chunk, int from, int to) {
+        int[] accumulator = mAccumulators[chunk];
+        Arrays.fill(accumulator, 0);
+        for (int i = from; i < to; i++) {
+            int x = mPoints[i * 2], y = mPoints[i * 2 + 1];
+            int row = mRhoOffset;
+            for (int t = 0; t < mThetaCount; t++) {
+                int r = (int) Math.round(x * mCos[t] + y * mSin[t]);
+                accumulator[row + r]++;
+                row += mRhoCount;
+            }
+        }
+    }
+
+    /**
+     * Sums the chunk accumulators for a range of angles.
+     */
+    private void merge(int fromTheta, int toTheta) {
+        int from = fromTheta * mRhoCount, to = toTheta * mRhoCount;
+        for (int i = from; i < to; i++) {
+            int sum = 0;
+            for (int chunk = 0; chunk < mChunks; chunk++) {
+                sum += mAccumulators[chunk][i];
+            }
+            mVotes[i] = sum;
+        }
+    }
+
+    /**
+     * Returns whether a cell is a local maximum of the accumulator, ties go to the first cell.
+     */
+    private boolean isPeak(int t, int r, int votes) {
+        int index = t * mRhoCount + r;
+        return votes > mVotes[index - 1] && votes >= mVotes[index + 1]
+                && (t == 0 || votes > mVotes[index - mRhoCount])
+                && (t == mThetaCount - 1 || votes >= mVotes[index + mRhoCount]);
+    }
+
+    /**
+     * Walks a line of the accumulator along the edge image and records its segments.
+     */
+    private void walkLine(int t, int r, double minLineLength, int maxLineGap) {
+        double theta = mThetaMin + t * mThetaStep;
+        double rho = (r - mRhoOffset) * mRhoStep;
+        double cos = Math.cos(theta), sin = Math.sin(theta);
+        // walk along rows for lines closer to vertical, along columns otherwise
+        boolean alongRows = Math.abs(cos) >= Math.abs(sin);
+        int steps = alongRows ? mHeight : mWidth;
+
+        int start = -1, last = -1, gap = 0;
+        for (int s = 0; s < steps; s++) {
+            if (edgeAt(s, alongRows, rho, cos, sin, false)) {
+                if (start < 0) {
+                    start = s;
+                }
+                last = s;
+                gap = 0;
+            } else if (start >= 0 && ++gap > maxLineGap) {
+                addSegment(start, last, alongRows, rho, cos, sin, minLineLength);
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            addSegment(start, last, alongRows, rho, cos, sin, minLineLength);
+        }
+    }
+
+    private void addSegment(int start, int last, boolean alongRows, double rho, double cos, double sin,
+                            double minLineLength) {
+        int x1, y1, x2, y2;
+        if (alongRows) {
+            y1 = start;
+            y2 = last;
+            x1 = (int) Math.round((rho - start * sin) / cos);
+            x2 = (int) Math.round((rho - last * sin) / cos);
+        } else {
+            x1 = start;
+            x2 = last;
+            y1 = (int) Math.round((rho - start * cos) / sin);
+            y2 = (int) Math.round((rho - last * cos) / sin);
+        }
+        double dx = x1 - x2, dy = y1 - y2;
+        if (Math.sqrt(dx * dx + dy * dy) < minLineLength) {
+            return;
+        }
+
+        for (int s = start; s <= last; s++) {
+            edgeAt(s, alongRows, rho, cos, sin, true);
+        }
+
+        if (mSegments.length < (mSegmentCount + 1) * 4) {
+            mSegments = Arrays.copyOf(mSegments, Math.max(64, mSegments.length * 2));
+        }
+        int offset = mSegmentCount * 4;
+        mSegments[offset] = x1;
+        mSegments[offset + 1] = y1;
+        mSegments[offset + 2] = x2;
+        mSegments[offset + 3] = y2;
+        mSegmentCount++;
+    }
+
+    /**
+     * Returns whether there is an edge on the line at a walking step,
+     * within one pixel across the walking direction. Optionally removes the edges found.
+     */
+    private boolean edgeAt(int s, boolean alongRows, double rho, double cos, double sin, boolean erase) {
+        int center = (int) Math.round(alongRows ? (rho - s * sin) / cos : (rho - s * cos) / sin);
+        boolean found = false;
+        for (int across = center - 1; across <= center + 1; across++) {
+            int x = alongRows ? across : s;
+            int y = alongRows ? s : across;
+            if (x >= 0 && x < mWidth && y >= 0 && y < mHeight && mEdges[y * mWidth + x] != 0) {
+                found = true;
+                if (erase) {
+                    mEdges[y * mWidth + x] = 0;
+                } else {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Splits the points between the chunks, every chunk votes into its own accumulator.
+     */
+    private class VoteTask extends RecursiveAction {
+
+        private final int firstChunk;
+        private final int lastChunk;
+
+        VoteTask(int firstChunk, int lastChunk) {
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastChunk - firstChunk == 1) {
+                long from = (long) mPointCount * firstChunk / mChunks;
+                long to = (long) mPointCount * lastChunk / mChunks;
+                vote(firstChunk, (int) from, (int) to);
+            } else {
+                int middle = (firstChunk + lastChunk) / 2;
+                invokeAll(new VoteTask(firstChunk, middle), new VoteTask(middle, lastChunk));
+            }
+        }
+    }
+
+    /**
+     * Splits the angles between the threads to merge the chunk accumulators.
+     */
+    private class MergeTask extends RecursiveAction {
+
+        private final int fromTheta;
+        private final int toTheta;
+
+        MergeTask(int fromTheta, int toTheta) {
+            this.fromTheta = fromTheta;
+            this.toTheta = toTheta;
+        }
+
+        @Override
+        protected void compute() {
+            if (toTheta - fromTheta <= 1 || (toTheta - fromTheta) * mChunks <= mThetaCount) {
+                merge(fromTheta, toTheta);
+            } else {
+                int middle = (fromTheta + toTheta) / 2;
+                invokeAll(new MergeTask(fromTheta, middle), new MergeTask(middle, toTheta));
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lane detection split in two stages that work on consecutive frames at the same time.
+ * Stage A (grayscale, Canny, Hough) runs on the calling thread, stage B (linear equations,
+ * lane extraction, bisectors and drawing) runs on a dedicated thread. The stages exchange
+ * their Mats through a fixed set of slots, so no frame data is allocated or copied twice.
+ *
+ * A frame is returned one call after it was submitted or later, the added latency is
+ * reported by getLatencyNanos(). Tracking is not supported, the tracker would be
+ * read and updated by both stages.
+ */
+public class PipelinedLaneDetector {
+
+    // slot displayed by the caller, slot in stage A, slot handed to stage B and slot in stage B
+    private static final int SLOTS = 4;
+    private static final long HAND_OFF_POLL_MILLIS = 100;
+
+    private final LaneDetector mDetectStage;
+    private final LaneDetector mLaneStage;
+
+    private final BlockingQueue<Slot> mFreeSlots = new ArrayBlockingQueue<>(SLOTS);
+    // the hand-off between the stages, stage A waits when stage B is behind
+    private final BlockingQueue<Slot> mReadySlots = new ArrayBlockingQueue<>(1);
+    private final BlockingQueue<Slot> mCompletedSlots = new ArrayBlockingQueue<>(SLOTS);
+
+    private final Thread mLaneThread;
+    private volatile RuntimeException mFailure;
+
+    // slot of the last completed frame, owned by the caller
+    private Slot mDisplayed;
+    private long mFrameNumber = 0;
+
+    private long mLatencyNanos = 0;
+    private long mTotalLatencyNanos = 0;
+    private long mTotalDetectNanos = 0;
+    private long mTotalLaneNanos = 0;
+    private long mCompletedFrames = 0;
+
+    public PipelinedLaneDetector(int frameWidth, int frameHeight) {
+        mDetectStage = new LaneDetector(frameWidth, frameHeight);
+        mLaneStage = new LaneDetector(frameWidth, frameHeight);
+        for (int i = 0; i < SLOTS; i++) {
+            mFreeSlots.add(new Slot(mLaneStage.getContext()));
+        }
+
+        mLaneThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLaneStage();
+            }
+        }, "LaneStage");
+        mLaneThread.start();
+    }
+
+    /**
+     * Sets the processing scale of both stages. Should be called before the first frame.
+     *
+     * @param scale 1, 2, 4 or 8
+     */
+    public void setProcessingScale(int scale) {
+        mDetectStage.setProcessingScale(scale);
+        mLaneStage.setProcessingScale(scale);
+    }
+
+    /**
+     * Sets the region of interest of both stages. Should be called before the first frame.
+     *
+     * @param horizonRatio  frame height ratio of the trapezoid top
+     * @param topWidthRatio frame width ratio of the trapezoid top
+     */
+    public void setRegionOfInterest(double horizonRatio, double topWidthRatio) {
+        mDetectStage.setRegionOfInterest(horizonRatio, topWidthRatio);
+        mLaneStage.setRegionOfInterest(horizonRatio, topWidthRatio);
+    }
+
+    /**
+     * Runs stage A on a frame and hands it to stage B.
+     * Waits while stage B is still busy with the previous frames.
+     *
+     * @param frame raw camera frame, copied
+     * @return hough frame of the last completed frame, the input frame until the first one completes
+     * @throws InterruptedException if interrupted while waiting for stage B
+     */
+    public Mat processFrame(Mat frame) throws InterruptedException {
+        checkLaneStage();
+        collectCompleted();
+
+        Slot slot = mFreeSlots.take();
+        slot.frameNumber = mFrameNumber++;
+        slot.submitTime = System.nanoTime();
+
+        // the camera reuses its frame, the slot keeps a copy until stage B is done
+        frame.copyTo(slot.rgba);
+        mDetectStage.beginFrame(slot.rgba);
+        mDetectStage.detectLines();
+        mDetectStage.exchangeFrameBuffers(slot);
+        slot.detectTime = System.nanoTime();
+
+        while (!mReadySlots.offer(slot, HAND_OFF_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkLaneStage();
+        }
+        collectCompleted();
+
+        return mDisplayed != null ? mDisplayed.display : frame;
+    }
+
+    /**
+     * Returns the bisector of the last completed frame
+     *
+     * @param index first or second pair of lanes (0 or 1)
+     * @return bisector line, null if the pair was not found
+     */
+    public LinearEquation getBisectorLine(int index) {
+        return mDisplayed != null && mDisplayed.bisectorFound[index] ? mDisplayed.bisectorLines[index] : null;
+    }
+
+    /**
+     * Returns the number of the last completed frame, frames are counted from 0
+     *
+     * @return frame number, -1 before the first frame completes
+     */
+    public long getCompletedFrameNumber() {
+        return mDisplayed != null ? mDisplayed.frameNumber : -1;
+    }
+
+    /**
+     * Returns the time from submission to completion of the last completed frame
+     *
+     * @return latency in nanoseconds
+     */
+    public long getLatencyNanos() {
+        return mLatencyNanos;
+    }
+
+    /**
+     * Returns the mean time from submission to completion
+     *
+     * @return latency in nanoseconds
+     */
+    public long getAverageLatencyNanos() {
+        return mCompletedFrames > 0 ? mTotalLatencyNanos / mCompletedFrames : 0;
+    }
+
+    /**
+     * Returns the mean duration of stage A
+     *
+     * @return duration in nanoseconds
+     */
+    public long getAverageDetectNanos() {
+        return mCompletedFrames > 0 ? mTotalDetectNanos / mCompletedFrames : 0;
+    }
+
+    /**
+     * Returns the mean duration of stage B, without the time spent waiting for stage A
+     *
+     * @return duration in nanoseconds
+     */
+    public long getAverageLaneNanos() {
+        return mCompletedFrames > 0 ? mTotalLaneNanos / mCompletedFrames : 0;
+    }
+
+    /**
+     * Stops stage B. Frames in flight are dropped.
+     */
+    public void shutdown() {
+        mLaneThread.interrupt();
+    }
+
+    /**
+     * Takes the completed slots, keeps the newest one for display and frees the others.
+     */
+    private void collectCompleted() {
+        Slot slot;
+        while ((slot = mCompletedSlots.poll()) != null) {
+            if (mDisplayed != null) {
+                mFreeSlots.add(mDisplayed);
+            }
+            mDisplayed = slot;
+
+            mLatencyNanos = slot.completeTime - slot.submitTime;
+            mTotalLatencyNanos += mLatencyNanos;
+            mTotalDetectNanos += slot.detectTime - slot.submitTime;
+            mTotalLaneNanos += slot.completeTime - slot.laneStartTime;
+            mCompletedFrames++;
+        }
+    }
+
+    private void checkLaneStage() {
+        if (mFailure != null) {
+            throw new IllegalStateException("Lane stage failed", mFailure);
+        }
+    }
+
+    private void runLaneStage() {
+        try {
+            while (true) {
+                Slot slot = mReadySlots.take();
+                slot.laneStartTime = System.nanoTime();
+
+                mLaneStage.beginFrame(slot.rgba);
+                mLaneStage.exchangeFrameBuffers(slot);
+                mLaneStage.findLanes();
+                mLaneStage.getHough();
+                // gives the detection Mats back and the hough frame to the slot
+                mLaneStage.exchangeFrameBuffers(slot);
+
+                for (int i = 0; i < 2; i++) {
+                    LinearEquation bisector = mLaneStage.getBisectorLine(i);
+                    slot.bisectorFound[i] = bisector != null;
+                    if (bisector != null) {
+                        slot.bisectorLines[i].set(bisector.a, bisector.b);
+                    }
+                }
+
+                slot.completeTime = System.nanoTime();
+                mCompletedSlots.add(slot);
+            }
+        } catch (InterruptedException e) {
+            // shutdown
+        } catch (RuntimeException e) {
+            mFailure = e;
+        }
+    }
+
+    /**
+     * Frame data moving from stage A to stage B and then to the caller.
+     */
+    public static class Slot {
+
+        Mat rgba = new Mat();
+        Mat grayscale = new Mat();
+        Mat lines = new Mat();
+        Mat display = new Mat();
+
+        final LinearEquation[] bisectorLines = new LinearEquation[2];
+        final boolean[] bisectorFound = new boolean[2];
+
+        long frameNumber;
+        long submitTime;
+        long detectTime;
+        long laneStartTime;
+        long completeTime;
+
+        Slot(DetectorContext context) {
+            for (int i = 0; i < 2; i++) {
+                bisectorLines[i] = new LinearEquation(context, 0, 0);
+            }
+        }
+    }
+}
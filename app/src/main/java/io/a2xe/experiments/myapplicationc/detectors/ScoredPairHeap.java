@@ -0,0 +1,161 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * Fixed capacity min-heap of scored pairs of lines, keeps the best pairs offered.
+ * Scores and indexes are stored in primitive arrays, offering a pair never allocates.
+ */
+public class ScoredPairHeap {
+
+    private final double[] mScores;
+    private final int[] mFirst;
+    private final int[] mSecond;
+    private int mSize;
+
+    /**
+     * @param capacity number of pairs kept
+     */
+    public ScoredPairHeap(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        mScores = new double[capacity];
+        mFirst = new int[capacity];
+        mSecond = new int[capacity];
+    }
+
+    /**
+     * Removes all pairs.
+     */
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * @return number of pairs in the heap
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return maximum number of pairs kept
+     */
+    public int capacity() {
+        return mScores.length;
+    }
+
+    /**
+     * @return whether a new pair has to beat the minimum to be kept
+     */
+    public boolean isFull() {
+        return mSize == mScores.length;
+    }
+
+    /**
+     * Returns the lowest score kept, only meaningful while the heap is not empty
+     *
+     * @return lowest score
+     */
+    public double minScore() {
+        return mScores[0];
+    }
+
+    /**
+     * Offers a pair, it replaces the lowest scored pair when the heap is full.
+     *
+     * @param score  score of the pair
+     * @param first  index of the first line
+     * @param second index of the second line
+     * @return whether the pair is kept
+     */
+    public boolean offer(double score, int first, int second) {
+        if (mSize < mScores.length) {
+            int i = mSize++;
+            // sift up
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (mScores[parent] <= score) {
+                    break;
+                }
+                move(parent, i);
+                i = parent;
+            }
+            set(i, score, first, second);
+            return true;
+        }
+        if (score <= mScores[0]) {
+            return false;
+        }
+        siftDown(0, mSize, score, first, second);
+        return true;
+    }
+
+    /**
+     * Sorts the pairs by decreasing score. The heap must be cleared before offering new pairs.
+     */
+    public void sortDescending() {
+        for (int end = mSize - 1; end > 0; end--) {
+            // the minimum goes to the end of the array
+            double score = mScores[end];
+            int first = mFirst[end];
+            int second = mSecond[end];
+            move(0, end);
+            siftDown(0, end, score, first, second);
+        }
+    }
+
+    /**
+     * @param k position in the heap, or the rank after sortDescending()
+     * @return score of the pair
+     */
+    public double getScore(int k) {
+        return mScores[k];
+    }
+
+    /**
+     * @param k position in the heap, or the rank after sortDescending()
+     * @return index of the first line of the pair
+     */
+    public int getFirst(int k) {
+        return mFirst[k];
+    }
+
+    /**
+     * @param k position in the heap, or the rank after sortDescending()
+     * @return index of the second line of the pair
+     */
+    public int getSecond(int k) {
+        return mSecond[k];
+    }
+
+    /**
+     * Places a pair at position i of the heap of given size and moves it down to its place.
+     */
+    private void siftDown(int i, int size, double score, int first, int second) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && mScores[child + 1] < mScores[child]) {
+                child++;
+            }
+            if (score <= mScores[child]) {
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, score, first, second);
+    }
+
+    private void move(int from, int to) {
+        set(to, mScores[from], mFirst[from], mSecond[from]);
+    }
+
+    private void set(int i, double score, int first, int second) {
+        mScores[i] = score;
+        mFirst[i] = first;
+        mSecond[i] = second;
+    }
+}
@@ -0,0 +1,459 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Lane engine working on a bird's-eye view of the road.
+ * The road trapezoid is warped to a small top-down image with remap maps computed once per
+ * resolution, bright pixels are found with a threshold, the lane bases are the peaks of the
+ * column histogram and every lane is followed upwards with sliding windows.
+ * The lane pixels are fitted with a second degree curve in the warped image, which follows
+ * curved lanes too, and the part near the vehicle is mapped back to a frame LinearEquation.
+ *
+ * Only the first pair of lanes is found.
+ */
+public class SlidingWindowLaneDetector implements LaneEngine {
+
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+
+    private static final double DEFAULT_HORIZON_RATIO = 0.6;
+    private static final double DEFAULT_TOP_WIDTH_RATIO = 0.15;
+    // horizontal margin of the road in the warped image, as a ratio of its width
+    private static final double WARP_MARGIN_RATIO = 0.25;
+    // the warped image is this many times narrower than the frame
+    private static final int WARP_SCALE = 4;
+
+    private static final int WINDOWS = 9;
+    // half width of a window, as a ratio of the warped width
+    private static final double WINDOW_MARGIN_RATIO = 0.1;
+    // min lane pixels in a window to move the next window
+    private static final int MIN_WINDOW_PIXELS = 5;
+    // min lane pixels to fit a lane
+    private static final int MIN_LANE_PIXELS = 50;
+    // min histogram value of a lane base
+    private static final int MIN_BASE_PIXELS = 5;
+    // lane pixels are brighter than the mean of the warped image by this value
+    private static final int BRIGHTNESS_OFFSET = 40;
+
+    private DetectorContext mContext;
+    private Mat mRgba;
+    // camera frame of the luma path, its RGBA conversion is done only for display
+    private CameraBridgeViewBase.CvCameraViewFrame mCameraFrame;
+    private Mat mWarped;
+    private Mat mWarpedGray;
+    private Mat mBinary;
+    private Mat mDisplayFrame;
+
+    private double mHorizonRatio = DEFAULT_HORIZON_RATIO;
+    private double mTopWidthRatio = DEFAULT_TOP_WIDTH_RATIO;
+
+    // remap maps of the current resolution
+    private Mat mMapX;
+    private Mat mMapY;
+    private int mMapWidth = 0;
+    private int mMapHeight = 0;
+    private int mWarpWidth;
+    private int mWarpHeight;
+    // perspective transform from the warped image to the frame
+    private double[] mToFrame = new double[9];
+
+    // thresholded warped image, 1 for lane pixels
+    private byte[] mPixels = new byte[0];
+    private int[] mHistogram = new int[0];
+
+    // col = c[0] + c[1] * t + c[2] * t^2 in warped pixels, with t = warped row / warped height
+    private double[][] mCurves = new double[2][3];
+    private LinearEquation[] mLanes = new LinearEquation[2];
+    private LinearEquation[] mLanePool = new LinearEquation[2];
+    private LinearEquation[] mBisectorLines = new LinearEquation[2];
+    private LinearEquation mBisectorPool;
+    private double[] mBisector = new double[2];
+
+    // scratch for a point mapped to the frame: row, column
+    private double[] mFramePoint = new double[2];
+    // lanes of the last frame, for overlays drawn outside of the frame Mat
+    private LaneSnapshot mSnapshot;
+
+    public SlidingWindowLaneDetector(int frameWidth, int frameHeight) {
+        mContext = new DetectorContext(frameWidth, frameHeight);
+        mWarped = new Mat();
+        mWarpedGray = new Mat();
+        mBinary = new Mat();
+        mDisplayFrame = new Mat();
+        mMapX = new Mat();
+        mMapY = new Mat();
+        for (int i = 0; i < 2; i++) {
+            mLanePool[i] = new LinearEquation(mContext, 0, 0);
+        }
+        mBisectorPool = new LinearEquation(mContext, 0, 0);
+        mSnapshot = new LaneSnapshot(mContext);
+    }
+
+    /**
+     * Sets the road trapezoid warped to the top-down view.
+     * The trapezoid bottom is the frame bottom.
+     *
+     * @param horizonRatio  frame height ratio of the trapezoid top
+     * @param topWidthRatio frame width ratio of the trapezoid top
+     */
+    public void setRegionOfInterest(double horizonRatio, double topWidthRatio) {
+        if (horizonRatio < 0 || horizonRatio >= 1 || topWidthRatio <= 0 || topWidthRatio > 1) {
+            throw new IllegalArgumentException("Invalid region of interest: " + horizonRatio + ", " + topWidthRatio);
+        }
+        mHorizonRatio = horizonRatio;
+        mTopWidthRatio = topWidthRatio;
+        // recomputed on the next frame
+        mMapWidth = 0;
+        mMapHeight = 0;
+    }
+
+    @Override
+    public void processFrame(Mat frame) {
+        mRgba = frame;
+        mCameraFrame = null;
+        if (frame.cols() != mMapWidth || frame.rows() != mMapHeight) {
+            createMaps(frame.cols(), frame.rows());
+        }
+
+        Imgproc.remap(frame, mWarped, mMapX, mMapY, Imgproc.INTER_LINEAR);
+        Imgproc.cvtColor(mWarped, mWarpedGray, Imgproc.COLOR_RGB2GRAY);
+        findLanes();
+    }
+
+    /**
+     * Processes a camera frame on its luma plane, only the small warped image is converted.
+     * The camera frame is converted to RGBA only if a display frame is requested afterwards.
+     *
+     * @param frame camera frame
+     */
+    @Override
+    public void processFrame(CameraBridgeViewBase.CvCameraViewFrame frame) {
+        mRgba = null;
+        mCameraFrame = frame;
+        Mat gray = frame.gray();
+        if (gray.cols() != mMapWidth || gray.rows() != mMapHeight) {
+            createMaps(gray.cols(), gray.rows());
+        }
+
+        Imgproc.remap(gray, mWarpedGray, mMapX, mMapY, Imgproc.INTER_LINEAR);
+        findLanes();
+    }
+
+    /**
+     * Finds the lanes in the warped gray image and publishes them.
+     */
+    private void findLanes() {
+        for (int i = 0; i < 2; i++) {
+            mLanes[i] = null;
+            mBisectorLines[i] = null;
+        }
+
+        double threshold = Core.mean(mWarpedGray).val[0] + BRIGHTNESS_OFFSET;
+        Imgproc.threshold(mWarpedGray, mBinary, threshold, 1, Imgproc.THRESH_BINARY);
+        mBinary.get(0, 0, mPixels);
+
+        computeHistogram();
+        int leftBase = peak(0, mWarpWidth / 2);
+        int rightBase = peak(mWarpWidth / 2, mWarpWidth);
+
+        if (leftBase >= 0 && rightBase >= 0
+                && findLane(LEFT, leftBase) && findLane(RIGHT, rightBase)) {
+            LinearEquation.calculateAngleBisector(mLanes[LEFT].a, mLanes[LEFT].b,
+                    mLanes[RIGHT].a, mLanes[RIGHT].b, mBisector);
+            mBisectorPool.set(mBisector[0], mBisector[1]);
+            mBisectorLines[0] = mBisectorPool;
+        } else {
+            mLanes[LEFT] = null;
+            mLanes[RIGHT] = null;
+        }
+        mSnapshot.update(mLanes[LEFT], mLanes[RIGHT], mBisectorLines[0]);
+    }
+
+    /**
+     * Computes the perspective transform and the remap maps of a resolution.
+     */
+    private void createMaps(int width, int height) {
+        mWarpWidth = Math.max(1, width / WARP_SCALE);
+        mWarpHeight = Math.max(1, height / 2);
+
+        double top = height * mHorizonRatio;
+        double inset = width * (1 - mTopWidthRatio) / 2;
+        MatOfPoint2f road = new MatOfPoint2f(
+                new org.opencv.core.Point(inset, top),
+                new org.opencv.core.Point(width - inset, top),
+                new org.opencv.core.Point(width, height),
+                new org.opencv.core.Point(0, height));
+        double margin = mWarpWidth * WARP_MARGIN_RATIO;
+        MatOfPoint2f warped = new MatOfPoint2f(
+                new org.opencv.core.Point(margin, 0),
+                new org.opencv.core.Point(mWarpWidth - margin, 0),
+                new org.opencv.core.Point(mWarpWidth - margin, mWarpHeight),
+                new org.opencv.core.Point(margin, mWarpHeight));
+        Mat toFrame = Imgproc.getPerspectiveTransform(warped, road);
+        toFrame.get(0, 0, mToFrame);
+        toFrame.release();
+        road.release();
+        warped.release();
+
+        // every warped pixel samples the frame pixel it comes from
+        float[] mapX = new float[mWarpWidth * mWarpHeight];
+        float[] mapY = new float[mWarpWidth * mWarpHeight];
+        for (int row = 0; row < mWarpHeight; row++) {
+            for (int col = 0; col < mWarpWidth; col++) {
+                toFrame(col, row);
+                mapX[row * mWarpWidth + col] = (float) mFramePoint[1];
+                mapY[row * mWarpWidth + col] = (float) mFramePoint[0];
+            }
+        }
+        mMapX.create(mWarpHeight, mWarpWidth, CvType.CV_32FC1);
+        mMapY.create(mWarpHeight, mWarpWidth, CvType.CV_32FC1);
+        mMapX.put(0, 0, mapX);
+        mMapY.put(0, 0, mapY);
+
+        mPixels = new byte[mWarpWidth * mWarpHeight];
+        mHistogram = new int[mWarpWidth];
+        mMapWidth = width;
+        mMapHeight = height;
+    }
+
+    /**
+     * Maps a warped pixel to the frame, the result is stored in mFramePoint (row, column).
+     */
+    private void toFrame(double col, double row) {
+        double[] m = mToFrame;
+        double w = m[6] * col + m[7] * row + m[8];
+        mFramePoint[1] = (m[0] * col + m[1] * row + m[2]) / w;
+        mFramePoint[0] = (m[3] * col + m[4] * row + m[5]) / w;
+    }
+
+    /**
+     * Counts the lane pixels of every column in the bottom half of the warped image.
+     */
+    private void computeHistogram() {
+        for (int col = 0; col < mWarpWidth; col++) {
+            mHistogram[col] = 0;
+        }
+        for (int row = mWarpHeight / 2; row < mWarpHeight; row++) {
+            int offset = row * mWarpWidth;
+            for (int col = 0; col < mWarpWidth; col++) {
+                mHistogram[col] += mPixels[offset + col];
+            }
+        }
+    }
+
+    /**
+     * Returns the column with most lane pixels in a range
+     *
+     * @return column, -1 if there are too few lane pixels
+     */
+    private int peak(int fromCol, int toCol) {
+        int peak = -1;
+        int max = MIN_BASE_PIXELS - 1;
+        for (int col = fromCol; col < toCol; col++) {
+            if (mHistogram[col] > max) {
+                max = mHistogram[col];
+                peak = col;
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * Follows a lane from its base with sliding windows, fits its pixels and maps it to the frame.
+     *
+     * @param side LEFT (0) or RIGHT (1)
+     * @param base column of the lane at the bottom of the warped image
+     * @return whether the lane was found
+     */
+    private boolean findLane(int side, int base) {
+        int windowHeight = Math.max(1, mWarpHeight / WINDOWS);
+        int margin = (int) Math.max(1, mWarpWidth * WINDOW_MARGIN_RATIO);
+
+        // sums of the normal equations of col = c0 + c1 * t + c2 * t^2
+        double n = 0, st = 0, st2 = 0, st3 = 0, st4 = 0, sc = 0, sct = 0, sct2 = 0;
+        int center = base;
+        for (int window = 0; window < WINDOWS; window++) {
+            int rowHigh = mWarpHeight - window * windowHeight;
+            int rowLow = Math.max(0, rowHigh - windowHeight);
+            int colLow = Math.max(0, center - margin);
+            int colHigh = Math.min(mWarpWidth, center + margin);
+
+            int count = 0;
+            long colSum = 0;
+            for (int row = rowLow; row < rowHigh; row++) {
+                double t = (double) row / mWarpHeight;
+                int offset = row * mWarpWidth;
+                int rowCount = 0;
+                long rowColSum = 0;
+                for (int col = colLow; col < colHigh; col++) {
+                    if (mPixels[offset + col] != 0) {
+                        rowCount++;
+                        rowColSum += col;
+                    }
+                }
+                if (rowCount > 0) {
+                    double t2 = t * t;
+                    n += rowCount;
+                    st += rowCount * t;
+                    st2 += rowCount * t2;
+                    st3 += rowCount * t2 * t;
+                    st4 += rowCount * t2 * t2;
+                    sc += rowColSum;
+                    sct += rowColSum * t;
+                    sct2 += rowColSum * t2;
+                    count += rowCount;
+                    colSum += rowColSum;
+                }
+            }
+            if (count >= MIN_WINDOW_PIXELS) {
+                center = (int) (colSum / count);
+            }
+        }
+
+        if (n < MIN_LANE_PIXELS || !fitCurve(mCurves[side], n, st, st2, st3, st4, sc, sct, sct2)) {
+            return false;
+        }
+
+        // the lane near the vehicle, between the bottom and the middle of the warped image
+        toFrame(curveColumn(mCurves[side], 1), mWarpHeight);
+        double x1 = mFramePoint[0], y1 = mFramePoint[1];
+        toFrame(curveColumn(mCurves[side], 0.5), mWarpHeight / 2.0);
+        double x2 = mFramePoint[0], y2 = mFramePoint[1];
+        if (x1 == x2) {
+            return false;
+        }
+
+        double a = (y1 - y2) / (x1 - x2);
+        mLanePool[side].set(a, y1 - a * x1);
+        mLanes[side] = mLanePool[side];
+        return true;
+    }
+
+    /**
+     * Solves the least squares normal equations of a second degree curve,
+     * falls back to a straight line when the pixels cover too few rows.
+     *
+     * @param out receives c0, c1, c2
+     * @return whether a curve was fitted
+     */
+    private static boolean fitCurve(double[] out, double n, double st, double st2, double st3, double st4,
+                                    double sc, double sct, double sct2) {
+        double det = determinant(n, st, st2, st, st2, st3, st2, st3, st4);
+        if (Math.abs(det) > 1e-9 * n * n * n) {
+            out[0] = determinant(sc, st, st2, sct, st2, st3, sct2, st3, st4) / det;
+            out[1] = determinant(n, sc, st2, st, sct, st3, st2, sct2, st4) / det;
+            out[2] = determinant(n, st, sc, st, st2, sct, st2, st3, sct2) / det;
+            return true;
+        }
+
+        det = n * st2 - st * st;
+        if (Math.abs(det) > 1e-9 * n * n) {
+            out[0] = (sc * st2 - st * sct) / det;
+            out[1] = (n * sct - st * sc) / det;
+            out[2] = 0;
+            return true;
+        }
+        return false;
+    }
+
+    private static double determinant(double a, double b, double c,
+                                      double d, double e, double f,
+                                      double g, double h, double i) {
+        return a * (e * i - f * h) - b * (d * i - f * g) + c * (d * h - e * g);
+    }
+
+    private static double curveColumn(double[] curve, double t) {
+        return curve[0] + curve[1] * t + curve[2] * t * t;
+    }
+
+    /**
+     * Returns the fitted curve of a lane in the warped image:
+     * col = c[0] + c[1] * t + c[2] * t^2, with t = warped row / warped height
+     *
+     * @param side LEFT (0) or RIGHT (1)
+     * @return curve coefficients, valid only when the lanes were found
+     */
+    public double[] getLaneCurve(int side) {
+        return mCurves[side];
+    }
+
+    /**
+     * Getter for lane
+     * @param side LEFT (0) or RIGHT (1)
+     * @return lane near the vehicle, null if not found
+     */
+    public LinearEquation getLane(int side) {
+        return mLanes[side];
+    }
+
+    /**
+     * Getter for the thresholded bird's-eye view, lane pixels are 1
+     * @return warped binary frame
+     */
+    public Mat getWarpedBinary() {
+        return mBinary;
+    }
+
+    @Override
+    public boolean lanesFound(int index) {
+        return index == 0 && mLanes[LEFT] != null && mLanes[RIGHT] != null;
+    }
+
+    @Override
+    public LinearEquation getBisectorLine(int index) {
+        return mBisectorLines[index];
+    }
+
+    @Override
+    public LinearEquation[] getBisectorLines() {
+        return mBisectorLines;
+    }
+
+    @Override
+    public Mat getDisplayFrame() {
+        if (mRgba == null && mCameraFrame != null) {
+            mRgba = mCameraFrame.rgba();
+        }
+        mRgba.copyTo(mDisplayFrame);
+        if (lanesFound(0)) {
+            drawCurve(mDisplayFrame, mCurves[LEFT], new Scalar(250, 0, 0));
+            drawCurve(mDisplayFrame, mCurves[RIGHT], new Scalar(0, 250, 0));
+            LinearEquation bisector = mBisectorLines[0];
+            Imgproc.line(mDisplayFrame, bisector.edge1.reversed(), bisector.edge2.reversed(),
+                    new Scalar(0, 0, 250), 4);
+        }
+        return mDisplayFrame;
+    }
+
+    /**
+     * Draws a fitted lane curve on the frame, one segment per window
+     */
+    private void drawCurve(Mat frame, double[] curve, Scalar color) {
+        toFrame(curveColumn(curve, 0), 0);
+        org.opencv.core.Point previous = new org.opencv.core.Point(mFramePoint[1], mFramePoint[0]);
+        for (int window = 1; window <= WINDOWS; window++) {
+            double t = (double) window / WINDOWS;
+            toFrame(curveColumn(curve, t), t * mWarpHeight);
+            org.opencv.core.Point current = new org.opencv.core.Point(mFramePoint[1], mFramePoint[0]);
+            Imgproc.line(frame, previous, current, color, 4);
+            previous = current;
+        }
+    }
+
+    @Override
+    public DetectorContext getContext() {
+        return mContext;
+    }
+
+    @Override
+    public void getLaneSnapshot(LaneSnapshot snapshot) {
+        mSnapshot.copyTo(snapshot);
+    }
+}
@@ -0,0 +1,131 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+/**
+ * Latency histograms of the stages of LaneDetector.
+ * A stage costs two System.nanoTime() calls, three atomic updates and a compare-and-set
+ * when the maximum grows, cheap enough to stay enabled in production and compare the stages
+ * across devices.
+ */
+public class StageTimings {
+
+    // region of interest conversion to grayscale and reduction to the processing scale
+    public static final int STAGE_GRAYSCALE = 0;
+    // mean intensity for the Canny thresholds
+    public static final int STAGE_THRESHOLD = 1;
+    // Canny, with the gradient gating and the masks
+    public static final int STAGE_CANNY = 2;
+    public static final int STAGE_HOUGH = 3;
+    // reading the segments and building their linear equations
+    public static final int STAGE_EQUATIONS = 4;
+    // pair search, or corridor search and tracking
+    public static final int STAGE_EXTRACT_LANES = 5;
+    public static final int STAGE_BISECTORS = 6;
+    public static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "grayscale", "threshold", "canny", "hough", "equations", "extractLanes", "bisectors"
+    };
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+    private volatile boolean mEnabled = true;
+
+    public StageTimings() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the start time of a stage.
+     *
+     * @return System.nanoTime(), or 0 when timing is disabled
+     */
+    public long start() {
+        return mEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the duration of a stage and returns the start time of the next one.
+     * Nothing is recorded when the stage started while timing was disabled.
+     *
+     * @param stage stage that ends
+     * @param start value returned by start() or by the previous end()
+     * @return System.nanoTime(), or 0 when timing is disabled
+     */
+    public long end(int stage, long start) {
+        if (!mEnabled) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        if (start != 0) {
+            mHistograms[stage].record(now - start);
+        }
+        return now;
+    }
+
+    /**
+     * Enables or disables the timing, the histograms are kept.
+     *
+     * @param enabled whether stages are timed
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * Returns whether the stages are timed
+     *
+     * @return timing is enabled
+     */
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Getter for the histogram of a stage
+     * @param stage one of the STAGE_ constants
+     * @return histogram
+     */
+    public LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    /**
+     * Returns the name of a stage
+     *
+     * @param stage one of the STAGE_ constants
+     * @return stage name
+     */
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    /**
+     * Removes the recorded durations of all stages.
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Formats p50, p95, p99 and max of every stage, one line per stage, in microseconds.
+     * Allocates, not meant to be called on every frame.
+     *
+     * @return summary of all stages
+     */
+    public String summary() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            LatencyHistogram histogram = mHistograms[i];
+            builder.append(STAGE_NAMES[i])
+                    .append(": p50=").append(histogram.getP50Nanos() / 1000)
+                    .append(" p95=").append(histogram.getP95Nanos() / 1000)
+                    .append(" p99=").append(histogram.getP99Nanos() / 1000)
+                    .append(" max=").append(histogram.getMaxNanos() / 1000)
+                    .append(" us\n");
+        }
+        return builder.toString();
+    }
+}
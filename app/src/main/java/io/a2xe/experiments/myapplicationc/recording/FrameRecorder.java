@@ -0,0 +1,274 @@
+package io.a2xe.experiments.myapplicationc.recording;
+
+import android.util.Log;
+
+import org.opencv.android.JavaCameraView;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the NV21 preview buffers of the camera into memory-mapped segment files, read back
+ * by FrameRecording.
+ *
+ * The camera thread only copies the frame into a mapped segment, it never writes to a stream
+ * nor waits for the disk. A roller thread creates and maps the next segment in advance, touches
+ * every page of it so the camera thread does not fault them in, and flushes the full segments.
+ * When the roller thread is late the frame is dropped and counted rather than waited for.
+ * close() may be called from another thread, it waits for the frame being written.
+ */
+public class FrameRecorder implements JavaCameraView.PreviewFrameListener {
+
+    private static final String LOG_TAG = FrameRecorder.class.getSimpleName();
+
+    public static final int DEFAULT_FRAMES_PER_SEGMENT = 120;
+
+    private final File mDirectory;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSlots;
+    private final int mFrameSize;
+    private final int mDataOffset;
+    private final long mSegmentSize;
+
+    // segment receiving the frames, camera thread only
+    private Segment mSegment;
+    // next segment, mapped by the roller thread and taken by the camera thread
+    private final AtomicReference<Segment> mSpare = new AtomicReference<>();
+    // full segments, flushed by the roller thread
+    private final ConcurrentLinkedQueue<Segment> mFinished = new ConcurrentLinkedQueue<>();
+    // roller thread only once started
+    private int mNextSegment;
+
+    private final Thread mRoller;
+    // held by the camera thread while it writes a frame, close() takes it to stop the writes
+    private final Object mWriteLock = new Object();
+    private volatile boolean mClosed;
+
+    private final AtomicLong mRecordedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+
+    /**
+     * Creates the first segment and starts the roller thread.
+     *
+     * @param directory        directory of the recording, created if needed, must not hold
+     *                         another recording
+     * @param width            frame width
+     * @param height           frame height
+     * @param framesPerSegment frames per segment file
+     * @throws IOException when the first segment cannot be created
+     */
+    public FrameRecorder(File directory, int width, int height, int framesPerSegment) throws IOException {
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("Invalid NV21 frame size: " + width + "x" + height);
+        }
+        if (framesPerSegment < 1) {
+            throw new IllegalArgumentException("framesPerSegment must be at least 1");
+        }
+        mSegmentSize = FrameSegments.segmentSize(width, height, framesPerSegment);
+        if (mSegmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment of " + framesPerSegment + " frames too large to map");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        if (FrameSegments.segmentFile(directory, 0).exists()) {
+            throw new IOException(directory + " already holds a recording");
+        }
+
+        mDirectory = directory;
+        mWidth = width;
+        mHeight = height;
+        mSlots = framesPerSegment;
+        mFrameSize = FrameSegments.frameSize(width, height);
+        mDataOffset = FrameSegments.dataOffset(framesPerSegment);
+
+        mSegment = createSegment(mNextSegment++);
+        mRoller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                roll();
+            }
+        }, LOG_TAG);
+        mRoller.start();
+    }
+
+    /**
+     * Records a preview frame, called on the camera thread.
+     */
+    @Override
+    public void onPreviewFrame(byte[] frame, int width, int height) {
+        // uncontended but for close()
+        synchronized (mWriteLock) {
+            if (!mClosed) {
+                writeFrame(frame, width, height);
+            }
+        }
+    }
+
+    private void writeFrame(byte[] frame, int width, int height) {
+        if (width != mWidth || height != mHeight || frame.length < mFrameSize) {
+            mDroppedFrames.incrementAndGet();
+            return;
+        }
+        long timestamp = System.nanoTime() / 1000;
+
+        Segment segment = mSegment;
+        if (segment.mCount == mSlots) {
+            Segment next = mSpare.getAndSet(null);
+            if (next == null) {
+                // the next segment is not mapped yet
+                mDroppedFrames.incrementAndGet();
+                return;
+            }
+            mFinished.add(segment);
+            mSegment = segment = next;
+            LockSupport.unpark(mRoller);
+        }
+
+        int slot = segment.mCount;
+        MappedByteBuffer buffer = segment.mBuffer;
+        buffer.position(mDataOffset + slot * mFrameSize);
+        buffer.put(frame, 0, mFrameSize);
+        buffer.putLong(FrameSegments.TIMESTAMPS_OFFSET + 8 * slot, timestamp);
+        // the count is written last, a reader never sees a slot before its frame
+        segment.mCount = slot + 1;
+        buffer.putInt(FrameSegments.COUNT_OFFSET, segment.mCount);
+        mRecordedFrames.incrementAndGet();
+    }
+
+    /**
+     * Stops the recording and flushes it. Can be called from any thread, a frame being written
+     * is completed first and the later ones are ignored.
+     */
+    public void close() {
+        synchronized (mWriteLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+        }
+        LockSupport.unpark(mRoller);
+        try {
+            mRoller.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Segment finished;
+        while ((finished = mFinished.poll()) != null) {
+            finished.mBuffer.force();
+        }
+        mSegment.mBuffer.force();
+        Segment spare = mSpare.getAndSet(null);
+        if (spare != null && !spare.mFile.delete()) {
+            Log.w(LOG_TAG, "Cannot delete the unused " + spare.mFile);
+        }
+    }
+
+    /**
+     * Waits until the roller thread has mapped the next segment.
+     *
+     * @param timeoutMillis longest wait
+     * @return whether the next segment is ready
+     * @throws InterruptedException when interrupted while waiting
+     */
+    boolean awaitNextSegment(long timeoutMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMillis * 1000000;
+        while (mSpare.get() == null) {
+            if (System.nanoTime() > deadline || !mRoller.isAlive()) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * @return directory of the recording
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @return frames written to the recording
+     */
+    public long getRecordedFrames() {
+        return mRecordedFrames.get();
+    }
+
+    /**
+     * @return frames not recorded, because the next segment was not ready or of a wrong size
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    private void roll() {
+        while (!mClosed) {
+            Segment finished;
+            while ((finished = mFinished.poll()) != null) {
+                finished.mBuffer.force();
+            }
+            if (mSpare.get() == null) {
+                try {
+                    mSpare.set(createSegment(mNextSegment++));
+                } catch (IOException e) {
+                    // the recording ends with the current segment, further frames are dropped
+                    Log.e(LOG_TAG, "Cannot create the next segment", e);
+                    return;
+                }
+                continue;
+            }
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Creates, maps and fills the header of a segment, then touches every page of its frames.
+     */
+    private Segment createSegment(int number) throws IOException {
+        File file = FrameSegments.segmentFile(mDirectory, number);
+        MappedByteBuffer buffer;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(mSegmentSize);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        } finally {
+            // the mapping stays valid without the file
+            raf.close();
+        }
+
+        buffer.putInt(0, FrameSegments.MAGIC);
+        buffer.putInt(4, FrameSegments.VERSION);
+        buffer.putInt(FrameSegments.WIDTH_OFFSET, mWidth);
+        buffer.putInt(FrameSegments.HEIGHT_OFFSET, mHeight);
+        buffer.putInt(FrameSegments.SLOTS_OFFSET, mSlots);
+        buffer.putInt(FrameSegments.COUNT_OFFSET, 0);
+        buffer.putLong(FrameSegments.FIRST_FRAME_OFFSET, (long) number * mSlots);
+        for (int page = mDataOffset; page < mSegmentSize; page += FrameSegments.PAGE_SIZE) {
+            buffer.put(page, (byte) 0);
+        }
+        return new Segment(file, buffer);
+    }
+
+    private static class Segment {
+
+        private final File mFile;
+        private final MappedByteBuffer mBuffer;
+        private int mCount;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            mFile = file;
+            mBuffer = buffer;
+        }
+    }
+}
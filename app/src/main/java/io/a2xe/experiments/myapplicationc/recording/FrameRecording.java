@@ -0,0 +1,194 @@
+package io.a2xe.experiments.myapplicationc.recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads a recording of FrameRecorder. The segments are mapped read-only and any frame is found
+ * in constant time from its index, without reading the frames before it.
+ *
+ * A recording that was not closed, after a crash or when the process was killed, is read up to
+ * its last written frame: it ends at the first segment that is not full, the segment the
+ * recorder had created in advance after it holds no frames and is ignored.
+ */
+public class FrameRecording {
+
+    private final File mDirectory;
+    private final MappedByteBuffer[] mSegments;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mSlots;
+    private final int mFrameSize;
+    private final int mDataOffset;
+    private final int mFrameCount;
+
+    /**
+     * Maps the segments of a recording.
+     *
+     * @param directory directory of the recording
+     * @throws IOException when the directory does not hold a recording
+     */
+    public FrameRecording(File directory) throws IOException {
+        mDirectory = directory;
+
+        int files = 0;
+        while (FrameSegments.segmentFile(directory, files).isFile()) {
+            files++;
+        }
+        if (files == 0) {
+            throw new IOException("No recording in " + directory);
+        }
+
+        MappedByteBuffer[] mapped = new MappedByteBuffer[files];
+        mapped[0] = map(FrameSegments.segmentFile(directory, 0));
+        ByteBuffer first = mapped[0];
+        if (first.capacity() < FrameSegments.TIMESTAMPS_OFFSET) {
+            throw new IOException(FrameSegments.segmentFile(directory, 0) + " is not a segment of the recording");
+        }
+        mWidth = first.getInt(FrameSegments.WIDTH_OFFSET);
+        mHeight = first.getInt(FrameSegments.HEIGHT_OFFSET);
+        mSlots = first.getInt(FrameSegments.SLOTS_OFFSET);
+        mFrameSize = FrameSegments.frameSize(mWidth, mHeight);
+        mDataOffset = FrameSegments.dataOffset(mSlots);
+
+        int segments = 0;
+        long frames = 0;
+        for (int i = 0; i < files; i++) {
+            if (i > 0) {
+                if (!hasFrames(FrameSegments.segmentFile(directory, i))) {
+                    // created in advance, its header may not even be written
+                    break;
+                }
+                mapped[i] = map(FrameSegments.segmentFile(directory, i));
+            }
+            ByteBuffer segment = mapped[i];
+            if (segment.capacity() != FrameSegments.segmentSize(mWidth, mHeight, mSlots)
+                    || segment.getInt(0) != FrameSegments.MAGIC || segment.getInt(4) != FrameSegments.VERSION
+                    || segment.getInt(FrameSegments.WIDTH_OFFSET) != mWidth
+                    || segment.getInt(FrameSegments.HEIGHT_OFFSET) != mHeight
+                    || segment.getInt(FrameSegments.SLOTS_OFFSET) != mSlots
+                    || segment.getLong(FrameSegments.FIRST_FRAME_OFFSET) != (long) i * mSlots) {
+                throw new IOException(FrameSegments.segmentFile(directory, i) + " is not a segment of the recording");
+            }
+            int count = segment.getInt(FrameSegments.COUNT_OFFSET);
+            if (count < 0 || count > mSlots) {
+                throw new IOException(FrameSegments.segmentFile(directory, i) + " has a wrong frame count");
+            }
+            segments = i + 1;
+            frames += count;
+            if (count < mSlots) {
+                // the last written segment, the recording was not closed
+                break;
+            }
+        }
+        for (int i = segments; i < files; i++) {
+            if (hasFrames(FrameSegments.segmentFile(directory, i))) {
+                throw new IOException(FrameSegments.segmentFile(directory, i) + " follows an incomplete segment");
+            }
+        }
+        if (frames > Integer.MAX_VALUE) {
+            throw new IOException("Too many frames in " + directory);
+        }
+        mSegments = Arrays.copyOf(mapped, segments);
+        mFrameCount = (int) frames;
+    }
+
+    /**
+     * @return directory of the recording
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @return frame width
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return frame height
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return number of recorded frames
+     */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @param frame index of the frame
+     * @return capture time of the frame in microseconds, only meaningful relative to the others
+     */
+    public long getTimestamp(int frame) {
+        checkFrame(frame);
+        return mSegments[frame / mSlots].getLong(FrameSegments.TIMESTAMPS_OFFSET + 8 * (frame % mSlots));
+    }
+
+    /**
+     * Returns a frame without copying it, the buffer reads the mapped file.
+     *
+     * @param frame index of the frame
+     * @return read-only NV21 frame, from position 0 to its limit
+     */
+    public ByteBuffer getFrame(int frame) {
+        checkFrame(frame);
+        ByteBuffer buffer = mSegments[frame / mSlots].duplicate();
+        int offset = mDataOffset + (frame % mSlots) * mFrameSize;
+        buffer.limit(offset + mFrameSize);
+        buffer.position(offset);
+        return buffer.slice();
+    }
+
+    /**
+     * Copies a frame.
+     *
+     * @param frame index of the frame
+     * @param nv21  receives the frame, at least width * height * 3 / 2 bytes
+     */
+    public void readFrame(int frame, byte[] nv21) {
+        getFrame(frame).get(nv21, 0, mFrameSize);
+    }
+
+    private void checkFrame(int frame) {
+        if (frame < 0 || frame >= mFrameCount) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + mFrameCount);
+        }
+    }
+
+    /**
+     * Reads the frame count of a segment without mapping it, the recorder may have been stopped
+     * before it wrote the header.
+     */
+    private static boolean hasFrames(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < FrameSegments.COUNT_OFFSET + 4) {
+                return false;
+            }
+            raf.seek(FrameSegments.COUNT_OFFSET);
+            return raf.readInt() != 0;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+    }
+}
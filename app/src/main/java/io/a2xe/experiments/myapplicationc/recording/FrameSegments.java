@@ -0,0 +1,80 @@
+package io.a2xe.experiments.myapplicationc.recording;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Layout of the segment files of a frame recording.
+ *
+ * A recording is a directory of segments, every segment holds a fixed number of frame slots:
+ * <pre>
+ *   0  int  MAGIC
+ *   4  int  VERSION
+ *   8  int  frame width
+ *  12  int  frame height
+ *  16  int  slots per segment
+ *  20  int  recorded frames, written after the frame and its timestamp
+ *  24  long index of the first frame of the segment in the recording
+ *  32  long[slots] timestamps in microseconds
+ *  page aligned: slots * width * height * 3 / 2 bytes of NV21 frames
+ * </pre>
+ * Frame i of the recording is slot i % slots of segment i / slots, every segment but the last
+ * one is full. A recording that was not closed may be followed by a segment without frames.
+ */
+final class FrameSegments {
+
+    static final int MAGIC = 0x4e563231; // "NV21"
+    static final int VERSION = 1;
+
+    static final int WIDTH_OFFSET = 8;
+    static final int HEIGHT_OFFSET = 12;
+    static final int SLOTS_OFFSET = 16;
+    static final int COUNT_OFFSET = 20;
+    static final int FIRST_FRAME_OFFSET = 24;
+    static final int TIMESTAMPS_OFFSET = 32;
+
+    static final int PAGE_SIZE = 4096;
+
+    private static final String PREFIX = "segment-";
+    static final String SUFFIX = ".frames";
+
+    private FrameSegments() {
+    }
+
+    /**
+     * @param width  frame width
+     * @param height frame height
+     * @return bytes of an NV21 frame
+     */
+    static int frameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * @param slots frames per segment
+     * @return offset of the first frame, after the header and the timestamps
+     */
+    static int dataOffset(int slots) {
+        int header = TIMESTAMPS_OFFSET + 8 * slots;
+        return (header + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    /**
+     * @param width  frame width
+     * @param height frame height
+     * @param slots  frames per segment
+     * @return size of a segment file
+     */
+    static long segmentSize(int width, int height, int slots) {
+        return dataOffset(slots) + (long) slots * frameSize(width, height);
+    }
+
+    /**
+     * @param directory directory of the recording
+     * @param segment   number of the segment
+     * @return file of the segment, the names sort in recording order
+     */
+    static File segmentFile(File directory, int segment) {
+        return new File(directory, String.format(Locale.US, "%s%06d%s", PREFIX, segment, SUFFIX));
+    }
+}
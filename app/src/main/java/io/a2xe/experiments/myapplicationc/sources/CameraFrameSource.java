@@ -0,0 +1,64 @@
+package io.a2xe.experiments.myapplicationc.sources;
+
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame source of the live camera, delivers the frames of a CameraBridgeViewBase.
+ */
+public class CameraFrameSource implements FrameSource {
+
+    private final CameraBridgeViewBase mCameraView;
+    private final AtomicLong mDeliveredFrames = new AtomicLong();
+    private CameraBridgeViewBase.CvCameraViewListener2 mListener;
+
+    /**
+     * @param cameraView camera view, its listener is replaced by the one of this source
+     */
+    public CameraFrameSource(CameraBridgeViewBase cameraView) {
+        mCameraView = cameraView;
+    }
+
+    @Override
+    public void setCvCameraViewListener(CameraBridgeViewBase.CvCameraViewListener2 listener) {
+        mListener = listener;
+        mCameraView.setCvCameraViewListener(new CameraBridgeViewBase.CvCameraViewListener2() {
+            @Override
+            public void onCameraViewStarted(int width, int height) {
+                mDeliveredFrames.set(0);
+                mListener.onCameraViewStarted(width, height);
+            }
+
+            @Override
+            public void onCameraViewStopped() {
+                mListener.onCameraViewStopped();
+            }
+
+            @Override
+            public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+                mDeliveredFrames.incrementAndGet();
+                return mListener.onCameraFrame(inputFrame);
+            }
+        });
+    }
+
+    /**
+     * Opens the camera, the OpenCV library must be loaded.
+     */
+    @Override
+    public void start() {
+        mCameraView.enableView();
+    }
+
+    @Override
+    public void stop() {
+        mCameraView.disableView();
+    }
+
+    @Override
+    public long getDeliveredFrames() {
+        return mDeliveredFrames.get();
+    }
+}
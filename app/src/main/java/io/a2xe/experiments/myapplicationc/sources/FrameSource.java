@@ -0,0 +1,36 @@
+package io.a2xe.experiments.myapplicationc.sources;
+
+import org.opencv.android.CameraBridgeViewBase;
+
+/**
+ * Delivers frames to a CvCameraViewListener2, from the live camera or from recorded frames,
+ * so the same lane pipeline runs on both.
+ * The listener is called in the same order as by CameraBridgeViewBase: onCameraViewStarted()
+ * once, onCameraFrame() for every frame and onCameraViewStopped() once.
+ */
+public interface FrameSource {
+
+    /**
+     * Sets the listener receiving the frames, before start()
+     *
+     * @param listener frame listener
+     */
+    void setCvCameraViewListener(CameraBridgeViewBase.CvCameraViewListener2 listener);
+
+    /**
+     * Starts delivering frames on the thread of the source.
+     */
+    void start();
+
+    /**
+     * Stops delivering frames, returns once the listener has been stopped.
+     */
+    void stop();
+
+    /**
+     * Returns the number of frames given to the listener since start()
+     *
+     * @return delivered frames
+     */
+    long getDeliveredFrames();
+}
@@ -0,0 +1,87 @@
+package io.a2xe.experiments.myapplicationc.sources;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Replays a directory of raw NV21 frames, one frame per file, in the order of the file names.
+ * Every file holds width * height * 3 / 2 bytes; the frames are timed by a fixed frame rate.
+ */
+public class RawFrameDirectorySource extends ReplayFrameSource {
+
+    private final File mDirectory;
+    private final int mWidth;
+    private final int mHeight;
+    private final double mFramesPerSecond;
+
+    private File[] mFiles;
+    private int mNextFile;
+
+    /**
+     * @param directory       directory of the frames
+     * @param width           frame width
+     * @param height          frame height
+     * @param framesPerSecond frame rate of the recording, for PACING_REAL_TIME
+     */
+    public RawFrameDirectorySource(File directory, int width, int height, double framesPerSecond) {
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("Invalid NV21 frame size: " + width + "x" + height);
+        }
+        if (framesPerSecond <= 0) {
+            throw new IllegalArgumentException("Invalid frame rate: " + framesPerSecond);
+        }
+        mDirectory = directory;
+        mWidth = width;
+        mHeight = height;
+        mFramesPerSecond = framesPerSecond;
+    }
+
+    @Override
+    protected int[] open() throws IOException {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            throw new IOException("Cannot list " + mDirectory);
+        }
+        Arrays.sort(files);
+        mFiles = files;
+        mNextFile = 0;
+        return new int[]{mWidth, mHeight};
+    }
+
+    @Override
+    protected long readFrame(byte[] nv21) throws IOException {
+        while (mNextFile < mFiles.length && !mFiles[mNextFile].isFile()) {
+            mNextFile++;
+        }
+        if (mNextFile == mFiles.length) {
+            return -1;
+        }
+
+        File file = mFiles[mNextFile];
+        if (file.length() != nv21.length) {
+            throw new IOException(file + " is not a " + mWidth + "x" + mHeight + " NV21 frame");
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < nv21.length) {
+                int n = in.read(nv21, read, nv21.length - read);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        return (long) (mNextFile++ * 1e6 / mFramesPerSecond);
+    }
+
+    @Override
+    protected void close() {
+        mFiles = null;
+    }
+}
@@ -0,0 +1,68 @@
+package io.a2xe.experiments.myapplicationc.sources;
+
+import io.a2xe.experiments.myapplicationc.recording.FrameRecording;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a recording of FrameRecorder with its capture timestamps. The frames are read from the
+ * mapped segments, the replay can start at any frame without reading the ones before it.
+ */
+public class RecordingFrameSource extends ReplayFrameSource {
+
+    private final File mDirectory;
+    private volatile int mFirstFrame;
+
+    private FrameRecording mRecording;
+    private int mNextFrame;
+
+    /**
+     * @param directory directory of the recording
+     */
+    public RecordingFrameSource(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Sets the frame the next replay starts at.
+     *
+     * @param frame index of the frame, the replay is empty past the last frame
+     */
+    public void setFirstFrame(int frame) {
+        if (frame < 0) {
+            throw new IllegalArgumentException("Frame must not be negative: " + frame);
+        }
+        mFirstFrame = frame;
+    }
+
+    /**
+     * @return index of the frame the replay starts at
+     */
+    public int getFirstFrame() {
+        return mFirstFrame;
+    }
+
+    @Override
+    protected int[] open() throws IOException {
+        mRecording = new FrameRecording(mDirectory);
+        mNextFrame = mFirstFrame;
+        return new int[]{mRecording.getWidth(), mRecording.getHeight()};
+    }
+
+    @Override
+    protected long readFrame(byte[] nv21) throws IOException {
+        if (mNextFrame >= mRecording.getFrameCount()) {
+            return -1;
+        }
+        // the only copy of the frame before the Mat, from the mapped file
+        mRecording.readFrame(mNextFrame, nv21);
+        return mRecording.getTimestamp(mNextFrame++);
+    }
+
+    @Override
+    protected void close() {
+        // the segments are unmapped once the recording is collected
+        mRecording = null;
+    }
+}
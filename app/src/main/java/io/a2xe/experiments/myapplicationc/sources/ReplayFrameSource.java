@@ -0,0 +1,291 @@
+package io.a2xe.experiments.myapplicationc.sources;
+
+import android.util.Log;
+
+import org.opencv.android.CachedCameraViewFrame;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frame source replaying recorded NV21 frames on its own thread, without a camera.
+ * PACING_FAST delivers every frame as soon as the listener returns, to measure the throughput
+ * of the pipeline; PACING_REAL_TIME waits for the timestamp of every frame, as a camera would.
+ *
+ * Subclasses read the frames, the listener receives them as camera frames with the same
+ * derived image cache as the ones of JavaCameraView.
+ */
+public abstract class ReplayFrameSource implements FrameSource {
+
+    private static final String LOG_TAG = ReplayFrameSource.class.getSimpleName();
+
+    public static final int PACING_FAST = 0;
+    public static final int PACING_REAL_TIME = 1;
+
+    /**
+     * Receives the end of a replay
+     */
+    public interface OnFinishedListener {
+        /**
+         * Called on the replay thread after onCameraViewStopped()
+         *
+         * @param frames      delivered frames
+         * @param elapsedNanos time from the first to the end of the last frame
+         */
+        void onFinished(long frames, long elapsedNanos);
+    }
+
+    private CameraBridgeViewBase.CvCameraViewListener2 mListener;
+    private OnFinishedListener mOnFinishedListener;
+    private volatile int mPacing = PACING_FAST;
+    private final AtomicLong mDeliveredFrames = new AtomicLong();
+    private volatile long mElapsedNanos;
+
+    // thread of the running replay, null once stopped; a replay thread runs while it is this one
+    private volatile Thread mThread;
+    // thread of the last replay, it may still be finishing after stop() from the listener
+    private Thread mLastThread;
+
+    /**
+     * Opens the recording.
+     *
+     * @return frame size, width and height
+     * @throws IOException when the recording cannot be read
+     */
+    protected abstract int[] open() throws IOException;
+
+    /**
+     * Reads the next frame. A subclass waiting for a frame checks isStopped() while it waits.
+     *
+     * @param nv21 receives the frame, width * height * 3 / 2 bytes
+     * @return presentation time of the frame in microseconds, -1 at the end of the recording
+     * or once the replay is stopped
+     * @throws IOException when the recording cannot be read
+     */
+    protected abstract long readFrame(byte[] nv21) throws IOException;
+
+    /**
+     * Closes the recording, called on the replay thread even after a failure.
+     */
+    protected abstract void close();
+
+    @Override
+    public void setCvCameraViewListener(CameraBridgeViewBase.CvCameraViewListener2 listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets the listener receiving the end of the replay
+     *
+     * @param listener listener, null to remove it
+     */
+    public void setOnFinishedListener(OnFinishedListener listener) {
+        mOnFinishedListener = listener;
+    }
+
+    /**
+     * Sets how fast the frames are delivered, can be changed during the replay.
+     *
+     * @param pacing PACING_FAST or PACING_REAL_TIME
+     */
+    public void setPacing(int pacing) {
+        if (pacing != PACING_FAST && pacing != PACING_REAL_TIME) {
+            throw new IllegalArgumentException("Unknown pacing: " + pacing);
+        }
+        mPacing = pacing;
+    }
+
+    /**
+     * @return PACING_FAST or PACING_REAL_TIME
+     */
+    public int getPacing() {
+        return mPacing;
+    }
+
+    /**
+     * Starts a replay. A replay stopped by its listener is waited for, it must not be restarted
+     * from its own thread.
+     */
+    @Override
+    public void start() {
+        Thread last;
+        synchronized (this) {
+            if (mThread != null) {
+                throw new IllegalStateException("Replay already started");
+            }
+            last = mLastThread;
+        }
+        if (last == Thread.currentThread()) {
+            throw new IllegalStateException("Replay restarted from its own thread");
+        }
+        if (last != null) {
+            // the subclass state is shared, the previous replay closes it first
+            join(last);
+        }
+
+        synchronized (this) {
+            if (mThread != null) {
+                throw new IllegalStateException("Replay already started");
+            }
+            mDeliveredFrames.set(0);
+            mElapsedNanos = 0;
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    replay();
+                }
+            }, LOG_TAG);
+            mLastThread = mThread;
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stops the replay. Called by the listener, the replay ends after the current frame,
+     * otherwise the replay thread is interrupted and waited for.
+     */
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (this) {
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        // outside of the lock, the listener may call stop() meanwhile
+        thread.interrupt();
+        join(thread);
+    }
+
+    /**
+     * Returns whether the replay running on the calling thread was stopped
+     *
+     * @return the calling thread is not the thread of the running replay
+     */
+    protected boolean isStopped() {
+        return mThread != Thread.currentThread();
+    }
+
+    @Override
+    public long getDeliveredFrames() {
+        return mDeliveredFrames.get();
+    }
+
+    /**
+     * Returns the delivery rate of the replay, during the replay or once it is finished
+     *
+     * @return frames per second, 0 before the first frame
+     */
+    public double getFramesPerSecond() {
+        long nanos = mElapsedNanos;
+        return nanos == 0 ? 0 : mDeliveredFrames.get() * 1e9 / nanos;
+    }
+
+    private void replay() {
+        // the listener of this replay, another one may be set for the next replay
+        CameraBridgeViewBase.CvCameraViewListener2 cameraListener = mListener;
+        Nv21Frame frame = null;
+        boolean started = false;
+        try {
+            int[] size = open();
+            frame = new Nv21Frame(size[0], size[1]);
+            cameraListener.onCameraViewStarted(size[0], size[1]);
+            started = true;
+
+            long start = System.nanoTime();
+            long firstTime = -1;
+            while (!isStopped()) {
+                long time = readFrame(frame.mData);
+                if (time < 0) {
+                    break;
+                }
+                if (firstTime < 0) {
+                    firstTime = time;
+                }
+                if (mPacing == PACING_REAL_TIME) {
+                    long wait = start + (time - firstTime) * 1000 - System.nanoTime();
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                    }
+                }
+
+                frame.update();
+                cameraListener.onCameraFrame(frame);
+                mDeliveredFrames.incrementAndGet();
+                mElapsedNanos = System.nanoTime() - start;
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Replay failed", e);
+        } finally {
+            close();
+            if (started) {
+                cameraListener.onCameraViewStopped();
+            }
+            if (frame != null) {
+                frame.release();
+            }
+        }
+
+        OnFinishedListener listener = mOnFinishedListener;
+        if (listener != null) {
+            listener.onFinished(mDeliveredFrames.get(), mElapsedNanos);
+        }
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Camera frame over an NV21 buffer, the buffer is copied into the Mat once per frame.
+     */
+    private static class Nv21Frame extends CachedCameraViewFrame {
+
+        private final byte[] mData;
+        private final Mat mYuv;
+        private final Mat mGray;
+
+        Nv21Frame(int width, int height) {
+            mData = new byte[width * height * 3 / 2];
+            mYuv = new Mat(height + height / 2, width, CvType.CV_8UC1);
+            mGray = mYuv.submat(0, height, 0, width);
+        }
+
+        /**
+         * Copies the buffer into the Mat and marks the derived images as outdated.
+         */
+        void update() {
+            mYuv.put(0, 0, mData);
+            nextGeneration();
+        }
+
+        @Override
+        protected void computeRgba(Mat rgba) {
+            Imgproc.cvtColor(mYuv, rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        }
+
+        @Override
+        protected Mat computeGray() {
+            return mGray;
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            mGray.release();
+            mYuv.release();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package io.a2xe.experiments.myapplicationc.sources;
+
+import android.content.res.AssetFileDescriptor;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Replays the first video track of a file, decoded by MediaCodec into NV21 frames.
+ * The decoder writes into its own buffers, every frame is copied once into the NV21 buffer.
+ */
+public class VideoFileFrameSource extends ReplayFrameSource {
+
+    // wait for a decoder buffer, in microseconds
+    private static final long DEQUEUE_TIMEOUT = 10000;
+    // dequeues without a frame before the decoder is considered stalled, 5 s
+    private static final int MAX_EMPTY_DEQUEUES = 500;
+
+    private final String mPath;
+    private final AssetFileDescriptor mAssetFile;
+
+    private MediaExtractor mExtractor;
+    private MediaCodec mDecoder;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private boolean mInputDone;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * @param path path of the video file
+     */
+    public VideoFileFrameSource(String path) {
+        mPath = path;
+        mAssetFile = null;
+    }
+
+    /**
+     * @param assetFile video in the resources of the application, for example from
+     *                  Resources.openRawResourceFd(), closed by the caller after the replay
+     */
+    public VideoFileFrameSource(AssetFileDescriptor assetFile) {
+        mPath = null;
+        mAssetFile = assetFile;
+    }
+
+    @Override
+    protected int[] open() throws IOException {
+        mExtractor = new MediaExtractor();
+        if (mAssetFile != null) {
+            mExtractor.setDataSource(mAssetFile.getFileDescriptor(),
+                    mAssetFile.getStartOffset(), mAssetFile.getLength());
+        } else {
+            mExtractor.setDataSource(mPath);
+        }
+
+        MediaFormat format = null;
+        for (int track = 0; track < mExtractor.getTrackCount(); track++) {
+            MediaFormat trackFormat = mExtractor.getTrackFormat(track);
+            String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/")) {
+                mExtractor.selectTrack(track);
+                format = trackFormat;
+                break;
+            }
+        }
+        if (format == null) {
+            throw new IOException("No video track");
+        }
+
+        mWidth = format.getInteger(MediaFormat.KEY_WIDTH);
+        mHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
+        if (mWidth % 2 != 0 || mHeight % 2 != 0) {
+            throw new IOException("Odd video size " + mWidth + "x" + mHeight + " cannot be NV21");
+        }
+
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        mDecoder = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        mDecoder.configure(format, null, null, 0);
+        mDecoder.start();
+        mInputDone = false;
+        return new int[]{mWidth, mHeight};
+    }
+
+    @Override
+    protected long readFrame(byte[] nv21) throws IOException {
+        for (int attempt = 0; attempt < MAX_EMPTY_DEQUEUES; attempt++) {
+            if (isStopped()) {
+                return -1;
+            }
+            if (!mInputDone) {
+                queueInput();
+            }
+
+            int index = mDecoder.dequeueOutputBuffer(mBufferInfo, DEQUEUE_TIMEOUT);
+            if (index < 0) {
+                // try again later, or the output format or buffers changed
+                continue;
+            }
+            if ((mBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                mDecoder.releaseOutputBuffer(index, false);
+                return -1;
+            }
+            if (mBufferInfo.size == 0) {
+                mDecoder.releaseOutputBuffer(index, false);
+                continue;
+            }
+
+            Image image = mDecoder.getOutputImage(index);
+            if (image == null) {
+                mDecoder.releaseOutputBuffer(index, false);
+                throw new IOException("Decoder output is not a YUV 420 image");
+            }
+            try {
+                toNv21(image, nv21, mWidth, mHeight);
+            } finally {
+                image.close();
+                mDecoder.releaseOutputBuffer(index, false);
+            }
+            return mBufferInfo.presentationTimeUs;
+        }
+        throw new IOException("Decoder stalled, no frame after " + MAX_EMPTY_DEQUEUES + " attempts");
+    }
+
+    @Override
+    protected void close() {
+        if (mDecoder != null) {
+            try {
+                mDecoder.stop();
+            } catch (IllegalStateException e) {
+                // never started
+            }
+            mDecoder.release();
+            mDecoder = null;
+        }
+        if (mExtractor != null) {
+            mExtractor.release();
+            mExtractor = null;
+        }
+    }
+
+    /**
+     * Gives the next sample of the track to the decoder, or the end of stream.
+     */
+    private void queueInput() {
+        int index = mDecoder.dequeueInputBuffer(DEQUEUE_TIMEOUT);
+        if (index < 0) {
+            return;
+        }
+        int size = mExtractor.readSampleData(mDecoder.getInputBuffer(index), 0);
+        if (size < 0) {
+            mDecoder.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            mInputDone = true;
+        } else {
+            mDecoder.queueInputBuffer(index, 0, size, mExtractor.getSampleTime(), 0);
+            mExtractor.advance();
+        }
+    }
+
+    /**
+     * Copies a YUV 420 image into an NV21 buffer: the Y plane, then V and U interleaved.
+     */
+    private static void toNv21(Image image, byte[] nv21, int width, int height) {
+        Image.Plane[] planes = image.getPlanes();
+        int chroma = width * height;
+        copyPlane(planes[0], width, height, nv21, 0, 1);
+        copyPlane(planes[2], width / 2, height / 2, nv21, chroma, 2);
+        copyPlane(planes[1], width / 2, height / 2, nv21, chroma + 1, 2);
+    }
+
+    /**
+     * Copies a plane into a buffer, every pixel goes outPixelStride bytes after the previous one.
+     */
+    private static void copyPlane(Image.Plane plane, int width, int height,
+                                  byte[] out, int offset, int outPixelStride) {
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+
+        for (int row = 0; row < height; row++) {
+            int target = offset + row * width * outPixelStride;
+            if (pixelStride == 1 && outPixelStride == 1) {
+                buffer.position(row * rowStride);
+                buffer.get(out, target, width);
+            } else {
+                int source = row * rowStride;
+                for (int col = 0; col < width; col++) {
+                    out[target + col * outPixelStride] = buffer.get(source + col * pixelStride);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the level changes of the frame budget governor.
+ */
+public class BudgetHysteresisTest {
+
+    private static final long BUDGET = 30000000L;
+    // the detection runs on every frame at all levels
+    private static final int[] EVERY_FRAME = {1, 1, 1, 1, 1, 1};
+    // the cadences of the governor
+    private static final int[] CADENCES = {1, 1, 1, 1, 2, 3};
+
+    @Test
+    public void stepsDownAfterDegradeFramesOverBudget() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, EVERY_FRAME);
+        for (int i = 1; i < BudgetHysteresis.DEGRADE_FRAMES; i++) {
+            assertFalse(hysteresis.recordDetection(BUDGET * 2));
+        }
+        assertTrue(hysteresis.recordDetection(BUDGET * 2));
+        assertEquals(1, hysteresis.getLevel());
+    }
+
+    @Test
+    public void stepsUpAfterUpgradeFramesUnderBudget() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, EVERY_FRAME);
+        hysteresis.setLevel(3);
+        for (int i = 1; i < BudgetHysteresis.UPGRADE_FRAMES; i++) {
+            assertFalse(hysteresis.recordDetection(BUDGET / 2));
+        }
+        assertTrue(hysteresis.recordDetection(BUDGET / 2));
+        assertEquals(2, hysteresis.getLevel());
+    }
+
+    @Test
+    public void holdsLevelBetweenThresholds() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, EVERY_FRAME);
+        hysteresis.setLevel(2);
+        for (int i = 0; i < BudgetHysteresis.UPGRADE_FRAMES * 3; i++) {
+            assertFalse(hysteresis.recordDetection((long) (BUDGET * 0.8)));
+        }
+        assertEquals(2, hysteresis.getLevel());
+    }
+
+    @Test
+    public void ignoresShortSpike() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, EVERY_FRAME);
+        for (int i = 0; i < 20; i++) {
+            hysteresis.recordDetection(BUDGET / 2);
+        }
+        hysteresis.recordDetection(BUDGET * 2);
+        hysteresis.recordDetection(BUDGET * 2);
+        for (int i = 0; i < 20; i++) {
+            hysteresis.recordDetection(BUDGET / 2);
+        }
+        assertEquals(0, hysteresis.getLevel());
+    }
+
+    @Test
+    public void doesNotOscillateAfterStepDown() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, EVERY_FRAME);
+        // level 0 costs 1.5 budgets, level 1 fits with a margin but is not cheap enough to step up
+        int changes = 0;
+        for (int i = 0; i < 500; i++) {
+            long cost = hysteresis.getLevel() == 0 ? BUDGET * 3 / 2 : (long) (BUDGET * 0.7);
+            if (hysteresis.recordDetection(cost)) {
+                changes++;
+            }
+        }
+        assertEquals(1, changes);
+        assertEquals(1, hysteresis.getLevel());
+    }
+
+    @Test
+    public void startsNewAverageAtLevelChange() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, EVERY_FRAME);
+        for (int i = 0; i < BudgetHysteresis.DEGRADE_FRAMES; i++) {
+            hysteresis.recordDetection(BUDGET * 3);
+        }
+        assertEquals(1, hysteresis.getLevel());
+
+        // the cost of level 0 does not step the level down again
+        for (int i = 0; i < BudgetHysteresis.DEGRADE_FRAMES * 4; i++) {
+            assertFalse(hysteresis.recordDetection(BUDGET * 3 / 4));
+        }
+        assertEquals(1, hysteresis.getLevel());
+        assertEquals(BUDGET * 3 / 4, hysteresis.getAverageNanos());
+    }
+
+    @Test
+    public void staysWithinLevels() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, EVERY_FRAME);
+        for (int i = 0; i < BudgetHysteresis.UPGRADE_FRAMES * 2; i++) {
+            assertFalse(hysteresis.recordDetection(0));
+        }
+        assertEquals(0, hysteresis.getLevel());
+
+        hysteresis.setLevel(EVERY_FRAME.length - 1);
+        for (int i = 0; i < BudgetHysteresis.DEGRADE_FRAMES * 2; i++) {
+            assertFalse(hysteresis.recordDetection(BUDGET * 10));
+        }
+        assertEquals(EVERY_FRAME.length - 1, hysteresis.getLevel());
+    }
+
+    @Test
+    public void averagesCostPerCameraFrame() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, CADENCES);
+        hysteresis.setLevel(4);
+        hysteresis.recordDetection(BUDGET * 3 / 2);
+        assertEquals(BUDGET * 3 / 4, hysteresis.getAverageNanos());
+    }
+
+    @Test
+    public void settlesOnCheapestCadenceWithinBudget() throws Exception {
+        // detection costs of the levels, level 3 is over budget but level 4 detecting on every
+        // other frame fits, and is not cheap enough to step back to level 3
+        long[] costs = {BUDGET * 8 / 3, BUDGET * 5 / 3, BUDGET * 4 / 3, BUDGET * 6 / 5,
+                BUDGET * 6 / 5, BUDGET * 5 / 6};
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, CADENCES);
+        int changes = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (hysteresis.recordDetection(costs[hysteresis.getLevel()])) {
+                changes++;
+            }
+        }
+        assertEquals(4, hysteresis.getLevel());
+        assertEquals(4, changes);
+    }
+
+    @Test
+    public void stepsBackToShorterCadenceWhenItFits() throws Exception {
+        BudgetHysteresis hysteresis = new BudgetHysteresis(BUDGET, CADENCES);
+        hysteresis.setLevel(5);
+        // 1.5 budgets over 3 frames is half the budget per frame, twice that at cadence 2 is over
+        for (int i = 0; i < BudgetHysteresis.UPGRADE_FRAMES * 3; i++) {
+            assertFalse(hysteresis.recordDetection(BUDGET * 3 / 2));
+        }
+        assertEquals(5, hysteresis.getLevel());
+
+        // 0.75 budgets over 3 frames is 0.375 per frame at cadence 2, under the upgrade ratio
+        int detections = 0;
+        while (!hysteresis.recordDetection(BUDGET * 3 / 4)) {
+            detections++;
+            assertTrue(detections < BudgetHysteresis.UPGRADE_FRAMES * 2);
+        }
+        assertEquals(4, hysteresis.getLevel());
+    }
+}
@@ -0,0 +1,137 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the candidate index visits the same lane pairs as the full pair search
+ * and bounds the number of evaluated pairs.
+ */
+public class LaneCandidateIndexTest {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final double MAX_SLOPE = 4;
+    private static final double MIN_DISTANCE = WIDTH / 3;
+
+    private LineSegmentBuffer mLines;
+
+    @Before
+    public void setUp() {
+        mLines = new LineSegmentBuffer(new DetectorContext(WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void visitsQualifyingPairsInNestedLoopOrder() throws Exception {
+        for (int seed = 0; seed < 20; seed++) {
+            randomLines(150, seed);
+
+            List<int[]> expected = bruteForce(mLines, 2);
+            List<int[]> actual = new ArrayList<>();
+            visitIndex(new LaneCandidateIndex(WIDTH, HEIGHT, MAX_SLOPE, MIN_DISTANCE), actual, 2);
+
+            assertEquals("seed " + seed, expected.size(), actual.size());
+            for (int k = 0; k < expected.size(); k++) {
+                assertArrayEquals(expected.get(k), actual.get(k));
+            }
+        }
+    }
+
+    @Test
+    public void visitsEveryQualifyingPair() throws Exception {
+        randomLines(200, 42);
+
+        List<int[]> expected = bruteForce(mLines, Integer.MAX_VALUE);
+        List<int[]> actual = new ArrayList<>();
+        visitIndex(new LaneCandidateIndex(WIDTH, HEIGHT, MAX_SLOPE, MIN_DISTANCE), actual, Integer.MAX_VALUE);
+
+        assertEquals(expected.size(), actual.size());
+        for (int k = 0; k < expected.size(); k++) {
+            assertArrayEquals(expected.get(k), actual.get(k));
+        }
+    }
+
+    @Test
+    public void pairEvaluationsAreBounded() throws Exception {
+        LaneCandidateIndex index = new LaneCandidateIndex(WIDTH, HEIGHT, MAX_SLOPE, MIN_DISTANCE);
+        for (int n = 50; n <= 400; n *= 2) {
+            randomLines(n, n);
+            int candidates = 0;
+            int compatible = 0;
+            for (int i = 0; i < mLines.size(); i++) {
+                if (Math.abs(mLines.a[i]) >= MAX_SLOPE) {
+                    continue;
+                }
+                candidates++;
+                for (int j = i + 1; j < mLines.size(); j++) {
+                    if (Math.abs(mLines.a[j]) < MAX_SLOPE && mLines.edgesCenterDistance(i, j) > MIN_DISTANCE) {
+                        compatible++;
+                    }
+                }
+            }
+            int indexed = visitIndex(index, new ArrayList<int[]>(), Integer.MAX_VALUE);
+
+            // every compatible pair is visited, pairs of incompatible buckets are not
+            assertTrue("lines " + n, indexed >= compatible);
+            assertTrue("lines " + n, indexed < candidates * (candidates - 1) / 2);
+        }
+    }
+
+    /**
+     * Stands in for qualifyAsLanes(): the conditions known to the index plus an arbitrary
+     * rejection in place of the intersection and brightness tests.
+     */
+    private boolean qualifies(int i, int j) {
+        return Math.abs(mLines.a[i]) < MAX_SLOPE && Math.abs(mLines.a[j]) < MAX_SLOPE
+                && mLines.edgesCenterDistance(i, j) > MIN_DISTANCE
+                && (i * 31 + j * 17) % 7 == 0;
+    }
+
+    private List<int[]> bruteForce(LineSegmentBuffer lines, int limit) {
+        List<int[]> found = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            for (int j = i + 1; j < lines.size(); j++) {
+                if (qualifies(i, j)) {
+                    found.add(new int[]{i, j});
+                    if (found.size() >= limit) {
+                        return found;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    private int visitIndex(LaneCandidateIndex index, final List<int[]> found, final int limit) {
+        index.build(mLines);
+        return index.visitPairs(new LaneCandidateIndex.PairVisitor() {
+            @Override
+            public boolean visit(int i, int j) {
+                if (qualifies(i, j)) {
+                    found.add(new int[]{i, j});
+                }
+                return found.size() >= limit;
+            }
+        });
+    }
+
+    private void randomLines(int count, long seed) {
+        Random random = new Random(seed);
+        mLines.clear();
+        for (int i = 0; i < count; i++) {
+            double x1 = random.nextInt(HEIGHT),
+                    y1 = random.nextInt(WIDTH),
+                    x2 = random.nextInt(HEIGHT),
+                    y2 = random.nextInt(WIDTH);
+            if (x1 != x2) {
+                mLines.add(x1, y1, x2, y2);
+            }
+        }
+    }
+}
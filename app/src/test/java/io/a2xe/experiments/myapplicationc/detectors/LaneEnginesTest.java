@@ -0,0 +1,25 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the engine selected for a frame size and a number of cores.
+ */
+public class LaneEnginesTest {
+
+    @Test
+    public void selectsHoughWhenPixelsPerCoreFitTheBudget() throws Exception {
+        assertEquals(LaneEngines.ENGINE_HOUGH, LaneEngines.selectEngine(1280, 720, 4));
+        assertEquals(LaneEngines.ENGINE_HOUGH, LaneEngines.selectEngine(640, 480, 2));
+        assertEquals(LaneEngines.ENGINE_HOUGH, LaneEngines.selectEngine(1280, 720, 8));
+    }
+
+    @Test
+    public void selectsSlidingWindowOnSlowDevices() throws Exception {
+        assertEquals(LaneEngines.ENGINE_SLIDING_WINDOW, LaneEngines.selectEngine(1280, 720, 2));
+        assertEquals(LaneEngines.ENGINE_SLIDING_WINDOW, LaneEngines.selectEngine(1920, 1080, 4));
+        assertEquals(LaneEngines.ENGINE_SLIDING_WINDOW, LaneEngines.selectEngine(640, 480, 1));
+    }
+}
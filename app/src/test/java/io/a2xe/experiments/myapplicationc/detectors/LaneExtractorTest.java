@@ -0,0 +1,124 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the ranked selection of the lane extractor does not depend on the order of
+ * the candidate lines.
+ */
+public class LaneExtractorTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // the boundaries meet above the frame, at this row of the center column
+    private static final double VANISHING_ROW = -300;
+    // columns of the boundaries between darker and lighter stripes on the last row
+    private static final double[] BOUNDARIES_BOTTOM = {40, 140, 260, 380, 500, 600};
+
+    @Test
+    public void rankedSelectionIgnoresCandidateOrder() throws Exception {
+        final IntegralImage integralImage = new IntegralImage();
+        integralImage.update(roadImage(new Random(1)), HEIGHT, WIDTH, 0, 1);
+
+        for (int seed = 0; seed < 10; seed++) {
+            Random random = new Random(seed);
+            List<double[]> candidates = candidates(random);
+
+            LaneExtractor expected = extract(candidates, integralImage);
+            assertTrue(expected.lanesFound(0));
+            assertTrue(expected.lanesFound(1));
+            for (int shuffle = 0; shuffle < 5; shuffle++) {
+                Collections.shuffle(candidates, random);
+                LaneExtractor actual = extract(candidates, integralImage);
+
+                for (int index = 0; index < 2; index++) {
+                    String message = "seed " + seed + ", shuffle " + shuffle + ", pair " + index;
+                    assertEquals(message, expected.lanesFound(index), actual.lanesFound(index));
+                    assertEquals(message, expected.getPairScore(index), actual.getPairScore(index), 1e-9);
+                    if (!expected.lanesFound(index)) {
+                        continue;
+                    }
+                    for (int side = LaneExtractor.LEFT; side <= LaneExtractor.RIGHT; side++) {
+                        LinearEquation expectedLane = expected.getLane(side, index);
+                        LinearEquation actualLane = actual.getLane(side, index);
+                        assertEquals(message, expectedLane.a, actualLane.a, 0);
+                        assertEquals(message, expectedLane.b, actualLane.b, 0);
+                    }
+                }
+            }
+        }
+    }
+
+    private static LaneExtractor extract(List<double[]> candidates, final IntegralImage integralImage) {
+        LineSegmentBuffer segments = new LineSegmentBuffer(new DetectorContext(WIDTH, HEIGHT));
+        for (double[] line : candidates) {
+            segments.add(line[0], line[1], line[2], line[3]);
+        }
+        LaneExtractor extractor = new LaneExtractor(segments, new LaneExtractor.IntegralImageSource() {
+            @Override
+            public IntegralImage integralImage() {
+                return integralImage;
+            }
+        });
+        extractor.setRankedSelectionEnabled(true);
+        extractor.extractLanes();
+        return extractor;
+    }
+
+    /**
+     * Every boundary a few times with some jitter, and random lines.
+     * A line is row1, col1, row2, col2.
+     */
+    private static List<double[]> candidates(Random random) {
+        List<double[]> candidates = new ArrayList<>();
+        for (double bottom : BOUNDARIES_BOTTOM) {
+            for (int k = 0; k < 3; k++) {
+                candidates.add(new double[]{
+                        HEIGHT * 0.4, column(bottom, HEIGHT * 0.4) + random.nextDouble() * 4 - 2,
+                        HEIGHT - 1, column(bottom, HEIGHT - 1) + random.nextDouble() * 4 - 2});
+            }
+        }
+        for (int k = 0; k < 20; k++) {
+            candidates.add(new double[]{
+                    random.nextInt(HEIGHT / 2), random.nextInt(WIDTH),
+                    HEIGHT / 2 + random.nextInt(HEIGHT / 2), random.nextInt(WIDTH)});
+        }
+        return candidates;
+    }
+
+    /**
+     * Column of a boundary at a row, from its column on the last row.
+     */
+    private static double column(double bottom, double row) {
+        double center = WIDTH / 2.0;
+        double t = (row - VANISHING_ROW) / (HEIGHT - VANISHING_ROW);
+        return center + (bottom - center) * t;
+    }
+
+    /**
+     * Gray road of alternating darker and lighter stripes, with some noise.
+     */
+    private static byte[] roadImage(Random random) {
+        byte[] gray = new byte[WIDTH * HEIGHT];
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < WIDTH; col++) {
+                int stripe = 0;
+                for (double bottom : BOUNDARIES_BOTTOM) {
+                    if (col >= column(bottom, row)) {
+                        stripe++;
+                    }
+                }
+                int luma = stripe % 2 == 0 ? 50 : 120;
+                gray[row * WIDTH + col] = (byte) (luma + random.nextInt(9) - 4);
+            }
+        }
+        return gray;
+    }
+}
@@ -0,0 +1,80 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the percentiles of the latency histogram, its bucket layout and concurrent recording.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentilesOfUniformDurations() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1 to 1000 us
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMaxNanos());
+        assertEquals(500500, histogram.getMeanNanos());
+        // buckets are at most 1/16 wide
+        assertEquals(500000, histogram.getP50Nanos(), 500000 / 16);
+        assertEquals(950000, histogram.getP95Nanos(), 950000 / 16);
+        assertEquals(990000, histogram.getP99Nanos(), 990000 / 16);
+        assertTrue(histogram.getP50Nanos() >= 500000);
+        assertEquals(1000000, histogram.getPercentileNanos(1));
+    }
+
+    @Test
+    public void bucketsCoverEveryDuration() throws Exception {
+        int previous = -1;
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int bucket = LatencyHistogram.bucket(micros);
+            assertTrue(bucket == previous || bucket == previous + 1);
+            assertTrue(micros < LatencyHistogram.bucketEnd(bucket));
+            previous = bucket;
+        }
+        // longer durations are counted in the last bucket
+        assertEquals(LatencyHistogram.bucket(Long.MAX_VALUE / 1000), LatencyHistogram.bucket(1L << 40));
+    }
+
+    @Test
+    public void resetRemovesDurations() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getP99Nanos());
+    }
+
+    @Test
+    public void concurrentRecordingKeepsEveryDuration() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record((thread + 1) * 1000L);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threads.length * perThread, histogram.getCount());
+        assertEquals(threads.length * 1000, histogram.getMaxNanos());
+        assertEquals(threads.length * 1000, histogram.getPercentileNanos(1));
+    }
+}
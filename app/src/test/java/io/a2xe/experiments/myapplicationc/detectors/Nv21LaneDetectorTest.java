@@ -0,0 +1,133 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the NV21 lane detector on synthetic road frames, no native library needed.
+ * Nv21LaneDetectorBenchmarkTest measures it on the device.
+ */
+public class Nv21LaneDetectorTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // the lanes meet above the frame, at this row of the center column
+    private static final double VANISHING_ROW = -300;
+    // columns of the lanes on the last row
+    private static final double LEFT_BOTTOM = 80;
+    private static final double RIGHT_BOTTOM = 560;
+
+    @Test
+    public void findsLanes() throws Exception {
+        Nv21LaneDetector detector = new Nv21LaneDetector(WIDTH, HEIGHT, 1);
+        detector.processFrame(roadFrame(WIDTH, HEIGHT, VANISHING_ROW, new Random(1)));
+
+        assertTrue(detector.lanesFound(0));
+        assertLanes(detector, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void findsLanesInReducedRegionOfInterest() throws Exception {
+        Nv21LaneDetector detector = new Nv21LaneDetector(WIDTH, HEIGHT, 2);
+        detector.setProcessingScale(2);
+        detector.setRegionOfInterest(0.4, 0.5);
+        detector.processFrame(roadFrame(WIDTH, HEIGHT, VANISHING_ROW, new Random(2)));
+        detector.shutdown();
+
+        assertEquals(WIDTH / 2, detector.getProcessingCols());
+        assertEquals((HEIGHT - (int) (HEIGHT * 0.4)) / 2, detector.getProcessingRows());
+        assertTrue(detector.lanesFound(0));
+        assertLanes(detector, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void publishesLaneSnapshot() throws Exception {
+        Nv21LaneDetector detector = new Nv21LaneDetector(WIDTH, HEIGHT, 1);
+        detector.processFrame(roadFrame(WIDTH, HEIGHT, VANISHING_ROW, new Random(5)));
+
+        LaneSnapshot snapshot = new LaneSnapshot();
+        detector.getLaneSnapshot(snapshot);
+        assertEquals(WIDTH, snapshot.frameWidth);
+        assertEquals(HEIGHT, snapshot.frameHeight);
+        assertEquals(1, snapshot.sequence);
+        assertTrue(snapshot.found[0]);
+        assertEquals(detector.getLane(LaneExtractor.LEFT, 0).a, snapshot.leftA[0], 0);
+        assertEquals(detector.getLane(LaneExtractor.RIGHT, 0).b, snapshot.rightB[0], 0);
+        assertEquals(detector.getBisectorLine(0).a, snapshot.bisectorA[0], 0);
+        assertEquals(detector.getBisectorLine(0).b, snapshot.bisectorB[0], 0);
+    }
+
+    @Test
+    public void rankedSelectionFindsLanes() throws Exception {
+        Nv21LaneDetector detector = new Nv21LaneDetector(WIDTH, HEIGHT, 1);
+        LaneExtractor extractor = detector.getLaneExtractor();
+        extractor.setRankedSelectionEnabled(true);
+        extractor.setCandidateBudget(200);
+        for (int frame = 0; frame < 2; frame++) {
+            detector.processFrame(roadFrame(WIDTH, HEIGHT, VANISHING_ROW, new Random(6 + frame)));
+
+            assertTrue(detector.lanesFound(0));
+            assertLanes(detector, WIDTH, HEIGHT);
+            assertTrue(extractor.getPairEvaluations() <= 200);
+        }
+        // the second frame agrees with the lanes of the first one
+        assertTrue(extractor.getPairScore(0) > 0.5);
+        assertTrue(extractor.getPairScore(0) <= 1);
+    }
+
+    @Test
+    public void noLanesOnEmptyRoad() throws Exception {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        Random random = new Random(3);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            frame[i] = (byte) (100 + random.nextInt(9) - 4);
+        }
+
+        Nv21LaneDetector detector = new Nv21LaneDetector(WIDTH, HEIGHT, 1);
+        detector.processFrame(frame);
+
+        assertFalse(detector.lanesFound(0));
+        assertNull(detector.getBisectorLine(0));
+    }
+
+    /**
+     * The bisector of the symmetric lanes is the center column.
+     */
+    private static void assertLanes(Nv21LaneDetector detector, int width, int height) {
+        LinearEquation left = detector.getLane(LaneExtractor.LEFT, 0);
+        LinearEquation right = detector.getLane(LaneExtractor.RIGHT, 0);
+        double scale = width / (double) WIDTH;
+        assertEquals(LEFT_BOTTOM * scale, left.y(height), 8 * scale);
+        assertEquals(RIGHT_BOTTOM * scale, right.y(height), 8 * scale);
+
+        LinearEquation bisector = detector.getBisectorLine(0);
+        assertEquals(0, bisector.a, 0.02);
+        assertEquals(width / 2.0, bisector.y(height), 8 * scale);
+    }
+
+    /**
+     * NV21 frame of a straight road: darker shoulders beside a lighter road, with some noise.
+     * The chroma plane is neutral.
+     */
+    private static byte[] roadFrame(int width, int height, double vanishingRow, Random random) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        double scale = width / (double) WIDTH;
+        double center = width / 2.0;
+        for (int row = 0; row < height; row++) {
+            double t = (row - vanishingRow) / (height - vanishingRow);
+            double left = center + (LEFT_BOTTOM * scale - center) * t;
+            double right = center + (RIGHT_BOTTOM * scale - center) * t;
+            for (int col = 0; col < width; col++) {
+                int luma = col > left && col < right ? 130 : 50;
+                frame[row * width + col] = (byte) (luma + random.nextInt(9) - 4);
+            }
+        }
+        for (int i = width * height; i < frame.length; i++) {
+            frame[i] = (byte) 128;
+        }
+        return frame;
+    }
+}
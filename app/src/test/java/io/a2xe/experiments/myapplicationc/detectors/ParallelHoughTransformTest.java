@@ -0,0 +1,93 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the segments of the angle restricted Hough transform and compares serial and parallel
+ * voting.
+ */
+public class ParallelHoughTransformTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final double LANE_ANGLE = Math.atan(4);
+    private static final double STEP = Math.PI / 180;
+
+    @Test
+    public void findsLaneSegment() throws Exception {
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        drawLine(edges, 100, 20, 160, 220);
+
+        ParallelHoughTransform hough = new ParallelHoughTransform(WIDTH, HEIGHT, -LANE_ANGLE, LANE_ANGLE, STEP, 1, 1);
+        hough.setEdgeImage(edges);
+
+        assertEquals(1, hough.findSegments(30, 20, 5));
+        int[] segment = hough.getSegments();
+        assertEquals(100, segment[0], 3);
+        assertEquals(20, segment[1], 3);
+        assertEquals(160, segment[2], 3);
+        assertEquals(220, segment[3], 3);
+    }
+
+    @Test
+    public void ignoresAnglesOutsideOfWindow() throws Exception {
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        // a horizontal line
+        drawLine(edges, 20, 120, 300, 120);
+
+        ParallelHoughTransform hough = new ParallelHoughTransform(WIDTH, HEIGHT, -LANE_ANGLE, LANE_ANGLE, STEP, 1, 1);
+        hough.setEdgeImage(edges);
+
+        assertEquals(0, hough.findSegments(30, 20, 5));
+    }
+
+    @Test
+    public void parallelVotingMatchesSerial() throws Exception {
+        byte[] edges = roadEdges(new Random(3));
+
+        ParallelHoughTransform serial = new ParallelHoughTransform(WIDTH, HEIGHT, -LANE_ANGLE, LANE_ANGLE, STEP, 1, 1);
+        ParallelHoughTransform parallel = new ParallelHoughTransform(WIDTH, HEIGHT, -LANE_ANGLE, LANE_ANGLE, STEP, 1, 4);
+        serial.setEdgeImage(edges);
+        parallel.setEdgeImage(edges);
+
+        try {
+            int count = serial.findSegments(30, 20, 5);
+            assertTrue(count > 0);
+            assertEquals(count, parallel.findSegments(30, 20, 5));
+            assertArrayEquals(Arrays.copyOf(serial.getSegments(), count * 4),
+                    Arrays.copyOf(parallel.getSegments(), count * 4));
+        } finally {
+            parallel.shutdown();
+        }
+    }
+
+    /**
+     * Two lanes, a few other lines and some noise.
+     */
+    private static byte[] roadEdges(Random random) {
+        byte[] edges = new byte[WIDTH * HEIGHT];
+        drawLine(edges, 140, 0, 20, 239);
+        drawLine(edges, 180, 0, 300, 239);
+        for (int i = 0; i < 10; i++) {
+            drawLine(edges, random.nextInt(WIDTH), random.nextInt(HEIGHT), random.nextInt(WIDTH), random.nextInt(HEIGHT));
+        }
+        for (int i = 0; i < 2000; i++) {
+            edges[random.nextInt(edges.length)] = (byte) 255;
+        }
+        return edges;
+    }
+
+    private static void drawLine(byte[] edges, int x1, int y1, int x2, int y2) {
+        int steps = Math.max(Math.abs(x2 - x1), Math.abs(y2 - y1));
+        for (int s = 0; s <= steps; s++) {
+            int x = x1 + Math.round((float) (x2 - x1) * s / steps);
+            int y = y1 + Math.round((float) (y2 - y1) * s / steps);
+            edges[y * WIDTH + x] = (byte) 255;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the scored pair heap keeps the best pairs and sorts them.
+ */
+public class ScoredPairHeapTest {
+
+    @Test
+    public void keepsBestPairsInDecreasingOrder() throws Exception {
+        Random random = new Random(7);
+        for (int capacity = 1; capacity <= 16; capacity *= 2) {
+            ScoredPairHeap heap = new ScoredPairHeap(capacity);
+            double[] scores = new double[500];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = random.nextDouble();
+                heap.offer(scores[i], i, i + 1);
+                assertEquals(Math.min(i + 1, capacity), heap.size());
+            }
+
+            Arrays.sort(scores);
+            assertEquals(scores[scores.length - capacity], heap.minScore(), 0);
+            heap.sortDescending();
+            for (int k = 0; k < capacity; k++) {
+                assertEquals(scores[scores.length - 1 - k], heap.getScore(k), 0);
+                assertEquals(heap.getFirst(k) + 1, heap.getSecond(k));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsPairsBelowMinimumWhenFull() throws Exception {
+        ScoredPairHeap heap = new ScoredPairHeap(2);
+        assertTrue(heap.offer(0.5, 0, 1));
+        assertTrue(heap.offer(0.7, 0, 2));
+        assertTrue(heap.isFull());
+        assertFalse(heap.offer(0.5, 1, 2));
+        assertTrue(heap.offer(0.6, 1, 3));
+        assertEquals(0.6, heap.minScore(), 0);
+
+        heap.clear();
+        assertEquals(0, heap.size());
+    }
+}
@@ -0,0 +1,39 @@
+package io.a2xe.experiments.myapplicationc.detectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks what the stage timings record when timing is switched during a frame.
+ */
+public class StageTimingsTest {
+
+    @Test
+    public void recordsEveryStageOfTimedFrame() throws Exception {
+        StageTimings timings = new StageTimings();
+        long time = timings.start();
+        time = timings.end(StageTimings.STAGE_GRAYSCALE, time);
+        timings.end(StageTimings.STAGE_CANNY, time);
+
+        assertEquals(1, timings.getHistogram(StageTimings.STAGE_GRAYSCALE).getCount());
+        assertEquals(1, timings.getHistogram(StageTimings.STAGE_CANNY).getCount());
+    }
+
+    @Test
+    public void skipsStageStartedWhileDisabled() throws Exception {
+        StageTimings timings = new StageTimings();
+        timings.setEnabled(false);
+        long time = timings.start();
+        time = timings.end(StageTimings.STAGE_GRAYSCALE, time);
+        // enabled in the middle of the frame
+        timings.setEnabled(true);
+        time = timings.end(StageTimings.STAGE_THRESHOLD, time);
+        timings.end(StageTimings.STAGE_CANNY, time);
+
+        assertEquals(0, timings.getHistogram(StageTimings.STAGE_GRAYSCALE).getCount());
+        assertEquals(0, timings.getHistogram(StageTimings.STAGE_THRESHOLD).getCount());
+        assertEquals(1, timings.getHistogram(StageTimings.STAGE_CANNY).getCount());
+        assertTrue(timings.getHistogram(StageTimings.STAGE_CANNY).getMaxNanos() < 1000000000L);
+    }
+}
@@ -0,0 +1,183 @@
+package io.a2xe.experiments.myapplicationc.recording;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records frames over several segments and reads them back from the mapped files.
+ */
+public class FrameRecordingTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+    private static final int FRAME_SIZE = WIDTH * HEIGHT * 3 / 2;
+
+    private File mDirectory;
+
+    @Before
+    public void createDirectory() throws Exception {
+        mDirectory = File.createTempFile("recording", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void deleteDirectory() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void readsRecordedFramesAcrossSegments() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(mDirectory, WIDTH, HEIGHT, 4);
+        byte[] frame = new byte[FRAME_SIZE];
+        for (int i = 0; i < 30; i++) {
+            fill(frame, i);
+            recorder.onPreviewFrame(frame, WIDTH, HEIGHT);
+            // leaves the roller thread time to map the next segment
+            Thread.sleep(2);
+        }
+        recorder.close();
+        assertEquals(30, recorder.getRecordedFrames() + recorder.getDroppedFrames());
+
+        FrameRecording recording = new FrameRecording(mDirectory);
+        assertEquals(WIDTH, recording.getWidth());
+        assertEquals(HEIGHT, recording.getHeight());
+        assertEquals(recorder.getRecordedFrames(), recording.getFrameCount());
+
+        // a dropped frame is missing, the others keep their order
+        int previous = -1;
+        byte[] read = new byte[FRAME_SIZE];
+        for (int i = 0; i < recording.getFrameCount(); i++) {
+            recording.readFrame(i, read);
+            int value = read[0];
+            assertTrue(value > previous);
+            assertEquals(value, read[FRAME_SIZE - 1]);
+            if (i > 0) {
+                assertTrue(recording.getTimestamp(i) >= recording.getTimestamp(i - 1));
+            }
+            previous = value;
+        }
+    }
+
+    @Test
+    public void seeksToAnyFrameWithoutCopy() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(mDirectory, WIDTH, HEIGHT, 1);
+        byte[] frame = new byte[FRAME_SIZE];
+        for (int i = 0; i < 5; i++) {
+            // one frame per segment, every frame needs the next one mapped
+            assertTrue(recorder.awaitNextSegment(5000));
+            fill(frame, i);
+            recorder.onPreviewFrame(frame, WIDTH, HEIGHT);
+        }
+        recorder.close();
+        assertEquals(5, recorder.getRecordedFrames());
+
+        FrameRecording recording = new FrameRecording(mDirectory);
+        for (int i = 4; i >= 0; i--) {
+            ByteBuffer buffer = recording.getFrame(i);
+            assertTrue(buffer.isReadOnly());
+            assertEquals(FRAME_SIZE, buffer.remaining());
+            assertEquals(i, buffer.get(FRAME_SIZE / 2));
+        }
+    }
+
+    @Test
+    public void closesWhileFramesArrive() throws Exception {
+        final FrameRecorder recorder = new FrameRecorder(mDirectory, WIDTH, HEIGHT, 2);
+        final byte[] frame = new byte[FRAME_SIZE];
+        Thread camera = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100000; i++) {
+                    recorder.onPreviewFrame(frame, WIDTH, HEIGHT);
+                }
+            }
+        });
+        camera.start();
+        while (recorder.getRecordedFrames() < 10 && camera.isAlive()) {
+            Thread.yield();
+        }
+        recorder.close();
+        long recorded = recorder.getRecordedFrames();
+        camera.join();
+
+        // no frame is written after close
+        assertEquals(recorded, recorder.getRecordedFrames());
+        assertEquals(recorded, new FrameRecording(mDirectory).getFrameCount());
+    }
+
+    @Test
+    public void readsRecordingThatWasNotClosed() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(mDirectory, WIDTH, HEIGHT, 3);
+        try {
+            byte[] frame = new byte[FRAME_SIZE];
+            for (int i = 0; i < 5; i++) {
+                assertTrue(recorder.awaitNextSegment(5000));
+                fill(frame, i);
+                recorder.onPreviewFrame(frame, WIDTH, HEIGHT);
+            }
+            // the second segment is partly filled and the third one is created in advance
+            assertTrue(recorder.awaitNextSegment(5000));
+            assertTrue(FrameSegments.segmentFile(mDirectory, 2).isFile());
+
+            FrameRecording recording = new FrameRecording(mDirectory);
+            assertEquals(5, recording.getFrameCount());
+            byte[] read = new byte[FRAME_SIZE];
+            for (int i = 0; i < 5; i++) {
+                recording.readFrame(i, read);
+                assertEquals(i, read[FRAME_SIZE - 1]);
+            }
+        } finally {
+            recorder.close();
+        }
+    }
+
+    @Test
+    public void ignoresSegmentWithoutHeader() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(mDirectory, WIDTH, HEIGHT, 2);
+        byte[] frame = new byte[FRAME_SIZE];
+        for (int i = 0; i < 2; i++) {
+            assertTrue(recorder.awaitNextSegment(5000));
+            recorder.onPreviewFrame(frame, WIDTH, HEIGHT);
+        }
+        recorder.close();
+        // the recorder was stopped right after creating the next segment file
+        assertTrue(FrameSegments.segmentFile(mDirectory, 1).createNewFile());
+
+        assertEquals(2, new FrameRecording(mDirectory).getFrameCount());
+    }
+
+    @Test
+    public void rejectsFramesOfAnotherSize() throws Exception {
+        FrameRecorder recorder = new FrameRecorder(mDirectory, WIDTH, HEIGHT, 4);
+        recorder.onPreviewFrame(new byte[FRAME_SIZE], WIDTH / 2, HEIGHT / 2);
+        recorder.close();
+        assertEquals(0, recorder.getRecordedFrames());
+        assertEquals(1, recorder.getDroppedFrames());
+        assertEquals(0, new FrameRecording(mDirectory).getFrameCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesToOverwriteRecording() throws Exception {
+        new FrameRecorder(mDirectory, WIDTH, HEIGHT, 4).close();
+        new FrameRecorder(mDirectory, WIDTH, HEIGHT, 4);
+    }
+
+    private static void fill(byte[] frame, int value) {
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) value;
+        }
+    }
+}
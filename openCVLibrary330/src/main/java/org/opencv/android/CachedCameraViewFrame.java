@@ -0,0 +1,176 @@
+package org.opencv.android;
+
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Camera frame that derives its images lazily and at most once per frame.
+ * Every derived Mat carries the generation of the frame it was computed for; a subclass calls
+ * nextGeneration() when the frame receives a new image and the Mats are recomputed on their
+ * next use, into the same buffers.
+ *
+ * Subclasses only provide the RGBA conversion and the gray plane.
+ */
+public abstract class CachedCameraViewFrame implements CameraBridgeViewBase.CvCameraViewFrame {
+
+    // distinct Gaussian blurs kept per frame, the least recently computed one is replaced
+    private static final int BLUR_SLOTS = 4;
+
+    private long mGeneration = 1;
+
+    private Mat mRgba = new Mat();
+    private long mRgbaGeneration;
+    private Mat mGray;
+    private long mGrayGeneration;
+    private final Mat mHsv = new Mat();
+    private long mHsvGeneration;
+
+    // pyramid levels from 1, level 0 is gray()
+    private Mat[] mPyramid = new Mat[0];
+    private long[] mPyramidGenerations = new long[0];
+
+    private final Mat[] mBlurred = new Mat[BLUR_SLOTS];
+    private final int[] mBlurKernels = new int[BLUR_SLOTS];
+    private final double[] mBlurSigmas = new double[BLUR_SLOTS];
+    private final long[] mBlurGenerations = new long[BLUR_SLOTS];
+    private int mNextBlurSlot;
+
+    /**
+     * Converts the frame to RGBA.
+     *
+     * @param rgba receives the RGBA image, reused from the previous frame
+     */
+    protected abstract void computeRgba(Mat rgba);
+
+    /**
+     * Returns the single channel gray plane of the frame.
+     *
+     * @return gray Mat owned by the subclass, valid until the next generation
+     */
+    protected abstract Mat computeGray();
+
+    /**
+     * Marks all derived images as outdated, called when the frame receives a new image.
+     */
+    protected void nextGeneration() {
+        mGeneration++;
+    }
+
+    @Override
+    public long generation() {
+        return mGeneration;
+    }
+
+    @Override
+    public Mat rgba() {
+        if (mRgbaGeneration != mGeneration) {
+            computeRgba(mRgba);
+            mRgbaGeneration = mGeneration;
+        }
+        return mRgba;
+    }
+
+    /**
+     * Hands the RGBA Mat over to the caller, when it is the given Mat, and converts the next
+     * frames into the replacement instead.
+     *
+     * @param rgba        Mat returned by rgba()
+     * @param replacement Mat taking its place, no longer used by the caller
+     * @return whether rgba was the RGBA Mat of this frame, nothing changes otherwise
+     */
+    boolean handOverRgba(Mat rgba, Mat replacement) {
+        if (rgba != mRgba)
+            return false;
+        mRgba = replacement;
+        mRgbaGeneration = 0;
+        return true;
+    }
+
+    @Override
+    public Mat gray() {
+        if (mGrayGeneration != mGeneration) {
+            mGray = computeGray();
+            mGrayGeneration = mGeneration;
+        }
+        return mGray;
+    }
+
+    @Override
+    public Mat pyramid(int level) {
+        if (level < 0)
+            throw new IllegalArgumentException("Pyramid level must not be negative: " + level);
+        if (level == 0)
+            return gray();
+
+        if (mPyramid.length < level) {
+            int levels = mPyramid.length;
+            mPyramid = Arrays.copyOf(mPyramid, level);
+            mPyramidGenerations = Arrays.copyOf(mPyramidGenerations, level);
+            for (int i = levels; i < level; i++)
+                mPyramid[i] = new Mat();
+        }
+        int index = level - 1;
+        if (mPyramidGenerations[index] != mGeneration) {
+            Imgproc.pyrDown(pyramid(level - 1), mPyramid[index]);
+            mPyramidGenerations[index] = mGeneration;
+        }
+        return mPyramid[index];
+    }
+
+    @Override
+    public Mat hsv() {
+        if (mHsvGeneration != mGeneration) {
+            Imgproc.cvtColor(rgba(), mHsv, Imgproc.COLOR_RGB2HSV);
+            mHsvGeneration = mGeneration;
+        }
+        return mHsv;
+    }
+
+    @Override
+    public Mat blurred(int kernelSize, double sigma) {
+        int slot = -1;
+        for (int i = 0; i < BLUR_SLOTS; i++) {
+            if (mBlurred[i] != null && mBlurKernels[i] == kernelSize && mBlurSigmas[i] == sigma) {
+                slot = i;
+                break;
+            }
+        }
+        if (slot < 0) {
+            slot = mNextBlurSlot;
+            mNextBlurSlot = (mNextBlurSlot + 1) % BLUR_SLOTS;
+            if (mBlurred[slot] == null)
+                mBlurred[slot] = new Mat();
+            mBlurKernels[slot] = kernelSize;
+            mBlurSigmas[slot] = sigma;
+            mBlurGenerations[slot] = 0;
+        }
+        if (mBlurGenerations[slot] != mGeneration) {
+            Imgproc.GaussianBlur(gray(), mBlurred[slot], new Size(kernelSize, kernelSize), sigma);
+            mBlurGenerations[slot] = mGeneration;
+        }
+        return mBlurred[slot];
+    }
+
+    /**
+     * Releases the derived images.
+     */
+    public void release() {
+        mRgba.release();
+        mHsv.release();
+        for (Mat level : mPyramid)
+            level.release();
+        for (Mat blurred : mBlurred) {
+            if (blurred != null)
+                blurred.release();
+        }
+        mRgbaGeneration = mGrayGeneration = mHsvGeneration = 0;
+        mPyramid = new Mat[0];
+        mPyramidGenerations = new long[0];
+        for (int i = 0; i < BLUR_SLOTS; i++) {
+            mBlurred[i] = null;
+        }
+    }
+}
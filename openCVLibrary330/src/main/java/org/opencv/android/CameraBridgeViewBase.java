@@ -39,6 +39,7 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     private int mState = STOPPED;
     private Bitmap mCacheBitmap;
     private CvCameraViewListener2 mListener;
+    private FrameOverlay mFrameOverlay;
     private boolean mSurfaceExist;
     private Object mSyncObject = new Object();
 
@@ -224,6 +225,10 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
+     *
+     * The derived images of a frame are computed lazily, at most once per frame, and shared by
+     * every consumer of the frame. They must not be released, and a consumer that modifies one
+     * must be the last one to read it during the frame.
      */
     public interface CvCameraViewFrame {
 
@@ -236,6 +241,28 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns the gray frame reduced level times with Imgproc.pyrDown,
+         * level 0 is gray()
+         */
+        public Mat pyramid(int level);
+
+        /**
+         * This method returns the frame in HSV, converted from rgba()
+         */
+        public Mat hsv();
+
+        /**
+         * This method returns gray() blurred by a square Gaussian kernel
+         */
+        public Mat blurred(int kernelSize, double sigma);
+
+        /**
+         * This method returns the generation of the frame, it changes every time
+         * the frame holds a new image
+         */
+        public long generation();
     }
 
     ;
@@ -319,6 +346,30 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
         mListener = adapter;
     }
 
+    /**
+     * Draws vector graphics over every displayed frame, without modifying the frame itself.
+     */
+    public interface FrameOverlay {
+        /**
+         * Called on the frame thread after the frame is drawn.
+         * The canvas is transformed to frame pixel coordinates (x = column, y = row).
+         *
+         * @param canvas      canvas of the view
+         * @param frameWidth  width of the frame
+         * @param frameHeight height of the frame
+         */
+        void onDrawOverlay(Canvas canvas, int frameWidth, int frameHeight);
+    }
+
+    /**
+     * Sets the overlay drawn over the frames
+     *
+     * @param overlay overlay, null to remove it
+     */
+    public void setFrameOverlay(FrameOverlay overlay) {
+        mFrameOverlay = overlay;
+    }
+
     /**
      * This method sets the maximum size that camera frame is allowed to be. When selecting
      * size - the biggest size which less or equal the size set will be selected.
@@ -438,14 +489,29 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
      * @param frame - the current frame to be delivered
      */
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
-        Mat modified;
+        drawFrame(deliverFrame(frame));
+    }
 
+    /**
+     * Delivers a frame to the external client (via callback) without displaying it.
+     *
+     * @param frame - the current frame to be delivered
+     * @return the Mat to display, may be null
+     */
+    protected Mat deliverFrame(CvCameraViewFrame frame) {
         if (mListener != null) {
-            modified = mListener.onCameraFrame(frame);
+            return mListener.onCameraFrame(frame);
         } else {
-            modified = frame.rgba();
+            return frame.rgba();
         }
+    }
 
+    /**
+     * Displays a Mat returned by deliverFrame() on the screen, with the overlay and the fps meter.
+     *
+     * @param modified - the Mat to display, nothing is drawn when null
+     */
+    protected void drawFrame(Mat modified) {
         boolean bmpValid = true;
         if (modified != null) {
             try {
@@ -500,6 +566,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                                     (canvas.getWidth() - mCacheBitmap.getWidth()) / 2 + mCacheBitmap.getWidth(),
                                     (canvas.getHeight() - mCacheBitmap.getHeight()) / 2 + mCacheBitmap.getHeight()), null);
                 }
+                FrameOverlay overlay = mFrameOverlay;
+                if (overlay != null) {
+                    float scale = mScale != 0 ? mScale : 1;
+                    canvas.translate((canvas.getWidth() - scale * mCacheBitmap.getWidth()) / 2,
+                            (canvas.getHeight() - scale * mCacheBitmap.getHeight()) / 2);
+                    canvas.scale(scale, scale);
+                    overlay.onDrawOverlay(canvas, mCacheBitmap.getWidth(), mCacheBitmap.getHeight());
+                }
                 canvas.restoreToCount(saveCount);
                 if (mFpsMeter != null) {
                     mFpsMeter.measure();
@@ -0,0 +1,141 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free hand-off of frame indexes from a single producer (the camera callback) to a single
+ * consumer (the processing thread). The drop policy decides which frames reach the consumer:
+ * POLICY_LATEST_WINS keeps only the newest frame, POLICY_BOUNDED_QUEUE keeps frames in order up
+ * to a capacity and POLICY_EVERY_NTH passes one frame out of N, latest wins.
+ *
+ * offer() returns the frame that is dropped, if any, so that its buffer can be reused at once.
+ */
+public class FrameMailbox {
+
+    public static final int POLICY_LATEST_WINS = 0;
+    public static final int POLICY_BOUNDED_QUEUE = 1;
+    public static final int POLICY_EVERY_NTH = 2;
+
+    private static final int EMPTY = -1;
+
+    private final int mPolicy;
+    private final int mParameter;
+
+    // single slot of the latest wins and every Nth policies
+    private final AtomicInteger mSlot = new AtomicInteger(EMPTY);
+    // ring of the bounded queue policy, the producer advances mTail and the consumer mHead
+    private final int[] mRing;
+    private final AtomicLong mHead = new AtomicLong();
+    private final AtomicLong mTail = new AtomicLong();
+    // frames offered, only touched by the producer
+    private long mOffered;
+
+    private volatile Thread mConsumer;
+    private volatile boolean mClosed;
+
+    /**
+     * @param policy    one of the POLICY_ constants
+     * @param parameter queue capacity for POLICY_BOUNDED_QUEUE, N for POLICY_EVERY_NTH, ignored otherwise
+     */
+    public FrameMailbox(int policy, int parameter) {
+        if (policy != POLICY_LATEST_WINS && policy != POLICY_BOUNDED_QUEUE && policy != POLICY_EVERY_NTH)
+            throw new IllegalArgumentException("Unknown mailbox policy: " + policy);
+        if (policy != POLICY_LATEST_WINS && parameter < 1)
+            throw new IllegalArgumentException("Mailbox parameter must be at least 1");
+        mPolicy = policy;
+        mParameter = parameter;
+        mRing = new int[policy == POLICY_BOUNDED_QUEUE ? parameter : 0];
+    }
+
+    /**
+     * @return one of the POLICY_ constants
+     */
+    public int getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Offers a frame, called by the producer only.
+     *
+     * @param frame index of the frame, not negative
+     * @return index of the dropped frame, the offered one or an older one, -1 if none
+     */
+    public int offer(int frame) {
+        int dropped;
+        switch (mPolicy) {
+            case POLICY_BOUNDED_QUEUE:
+                long tail = mTail.get();
+                if (tail - mHead.get() == mRing.length) {
+                    // full, the newest frame is dropped so the producer never touches the head
+                    dropped = frame;
+                } else {
+                    mRing[(int) (tail % mRing.length)] = frame;
+                    mTail.set(tail + 1);
+                    dropped = EMPTY;
+                }
+                break;
+            case POLICY_EVERY_NTH:
+                if (mOffered % mParameter != 0) {
+                    dropped = frame;
+                } else {
+                    dropped = mSlot.getAndSet(frame);
+                }
+                break;
+            default:
+                dropped = mSlot.getAndSet(frame);
+                break;
+        }
+        mOffered++;
+
+        if (dropped != frame) {
+            Thread consumer = mConsumer;
+            if (consumer != null)
+                LockSupport.unpark(consumer);
+        }
+        return dropped;
+    }
+
+    /**
+     * Takes the next frame without waiting, called by the consumer only.
+     *
+     * @return index of the frame, -1 if there is none
+     */
+    public int poll() {
+        if (mPolicy == POLICY_BOUNDED_QUEUE) {
+            long head = mHead.get();
+            if (head == mTail.get())
+                return EMPTY;
+            int frame = mRing[(int) (head % mRing.length)];
+            mHead.set(head + 1);
+            return frame;
+        }
+        return mSlot.getAndSet(EMPTY);
+    }
+
+    /**
+     * Waits for the next frame, called by the consumer only.
+     *
+     * @return index of the frame, -1 once the mailbox is closed or the thread is interrupted
+     */
+    public int take() {
+        mConsumer = Thread.currentThread();
+        while (true) {
+            int frame = poll();
+            if (frame != EMPTY || mClosed || Thread.interrupted())
+                return frame;
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Wakes the consumer up, take() returns -1 from now on when no frame is left.
+     */
+    public void close() {
+        mClosed = true;
+        Thread consumer = mConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+    }
+}
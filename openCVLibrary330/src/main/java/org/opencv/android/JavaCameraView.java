@@ -1,6 +1,9 @@
 package org.opencv.android;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import android.content.Context;
 import android.graphics.ImageFormat;
@@ -26,22 +29,72 @@ import org.opencv.imgproc.Imgproc;
  * disconnectCamera - closes the camera and stops preview.
  * When frame is delivered via callback from Camera - it processed via OpenCV to be
  * converted to RGBA32 and then passed to the external callback for modifications if required.
+ *
+ * The camera fills a pool of preview buffers. A buffer is handed to the processing thread through
+ * a lock-free FrameMailbox and goes back to the camera once the frame has been delivered, so the
+ * camera keeps free buffers while a frame is processed. The buffer is copied into its Mat only
+ * when the frame is first read as a Mat.
+ *
+ * The Mat returned by the listener goes into a triple buffer drawn by a display thread,
+ * capture, processing and display run concurrently. The RGBA Mat of the camera frame is handed
+ * over without a copy, any other Mat is copied. The display always shows the newest processed
+ * frame.
  */
 public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallback {
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
+    private static final int DEFAULT_PREVIEW_BUFFERS = 3;
+    // marks a display Mat published by the processing thread and not drawn yet
+    private static final int DISPLAY_FRESH = 0x100;
 
-    private byte mBuffer[];
+    private int mPreviewBufferCount = DEFAULT_PREVIEW_BUFFERS;
+    private byte[][] mBuffers;
     private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private int mMailboxPolicy = FrameMailbox.POLICY_LATEST_WINS;
+    private int mMailboxParameter = 1;
+    private FrameMailbox mMailbox;
+    // buffers received from the camera and not returned yet
+    private final AtomicInteger mHeldBuffers = new AtomicInteger();
+
+    // triple buffer between processing and display: the processing thread owns mDisplayBack,
+    // the display thread owns mDisplayFront and they swap through mDisplayExchange
+    private Mat[] mDisplayMats;
+    private int mDisplayBack;
+    private int mDisplayFront;
+    private final AtomicInteger mDisplayExchange = new AtomicInteger();
+
+    private final AtomicLong mCapturedFrames = new AtomicLong();
+    private final AtomicLong mProcessedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private final AtomicLong mDisplayedFrames = new AtomicLong();
+    private final AtomicLong mSkippedDisplayFrames = new AtomicLong();
+    private final AtomicLong mStarvedFrames = new AtomicLong();
+    private final AtomicLong mCopiedBytes = new AtomicLong();
     private Thread mThread;
-    private boolean mStopThread;
+    private volatile Thread mDisplayThread;
+    private volatile boolean mStopThread;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
     private SurfaceTexture mSurfaceTexture;
     private int mPreviewFormat = ImageFormat.NV21;
+    private PreviewFrameListener mPreviewFrameListener;
+
+    /**
+     * Receives the raw preview buffers before they are copied into the frame Mats.
+     */
+    public interface PreviewFrameListener {
+        /**
+         * Called on the camera thread. The buffer is reused by the camera once its frame has been
+         * delivered, so it must be copied to be used later.
+         *
+         * @param frame  preview buffer, NV21 unless another preview format was set
+         * @param width  preview width
+         * @param height preview height
+         */
+        void onPreviewFrame(byte[] frame, int width, int height);
+    }
 
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
 
@@ -66,6 +119,119 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Sets the listener receiving the raw preview buffers
+     *
+     * @param listener listener, null to remove it
+     */
+    public void setPreviewFrameListener(PreviewFrameListener listener) {
+        mPreviewFrameListener = listener;
+    }
+
+    /**
+     * Sets the number of preview buffers, used from the next camera connection.
+     * With a single buffer the camera drops every frame that arrives during processing.
+     *
+     * @param count number of buffers, at least 1
+     */
+    public void setPreviewBufferCount(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("At least one preview buffer is needed");
+        mPreviewBufferCount = count;
+    }
+
+    /**
+     * @return number of preview buffers
+     */
+    public int getPreviewBufferCount() {
+        return mPreviewBufferCount;
+    }
+
+    /**
+     * Sets how frames are handed from the camera to the processing thread, used from the next
+     * camera connection. Frames that are not processed are dropped and their buffer reused.
+     *
+     * @param policy    one of the FrameMailbox.POLICY_ constants
+     * @param parameter queue capacity for POLICY_BOUNDED_QUEUE, N for POLICY_EVERY_NTH
+     */
+    public void setFrameMailboxPolicy(int policy, int parameter) {
+        // validates the arguments
+        new FrameMailbox(policy, parameter);
+        mMailboxPolicy = policy;
+        mMailboxParameter = parameter;
+    }
+
+    /**
+     * @return number of preview frames received from the camera
+     */
+    public long getCapturedFrames() {
+        return mCapturedFrames.get();
+    }
+
+    /**
+     * @return number of frames delivered to the listener
+     */
+    public long getProcessedFrames() {
+        return mProcessedFrames.get();
+    }
+
+    /**
+     * Returns the number of captured frames dropped by the mailbox policy
+     *
+     * @return dropped frames
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * @return number of frames drawn on the screen
+     */
+    public long getDisplayedFrames() {
+        return mDisplayedFrames.get();
+    }
+
+    /**
+     * Returns the number of processed frames replaced by a newer one before being drawn
+     *
+     * @return processed frames never displayed
+     */
+    public long getSkippedDisplayFrames() {
+        return mSkippedDisplayFrames.get();
+    }
+
+    /**
+     * Returns the number of frames after which the camera had no free buffer left,
+     * the camera itself drops the frames that arrive in that state
+     *
+     * @return frames that left the camera without buffer
+     */
+    public long getStarvedFrames() {
+        return mStarvedFrames.get();
+    }
+
+    /**
+     * Returns the number of bytes copied from the preview buffers into Mats
+     *
+     * @return copied bytes
+     */
+    public long getCopiedBytes() {
+        return mCopiedBytes.get();
+    }
+
+    /**
+     * Sets all frame counters back to 0.
+     */
+    public void resetFrameCounters() {
+        mCapturedFrames.set(0);
+        mProcessedFrames.set(0);
+        mDroppedFrames.set(0);
+        mDisplayedFrames.set(0);
+        mSkippedDisplayFrames.set(0);
+        mStarvedFrames.set(0);
+        mCopiedBytes.set(0);
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -190,20 +356,30 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
 
-                    mCamera.addCallbackBuffer(mBuffer);
-                    mCamera.setPreviewCallbackWithBuffer(this);
+                    int count = mPreviewBufferCount;
+                    mBuffers = new byte[count][];
+                    mFrameChain = new Mat[count];
+                    mCameraFrame = new JavaCameraFrame[count];
+                    for (int i = 0; i < count; i++) {
+                        mBuffers[i] = new byte[size];
+                        mFrameChain[i] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                        mCameraFrame[i] = new JavaCameraFrame(mFrameChain[i], mBuffers[i], mFrameWidth, mFrameHeight);
+                        mCamera.addCallbackBuffer(mBuffers[i]);
+                    }
+                    mHeldBuffers.set(0);
+                    mMailbox = new FrameMailbox(mMailboxPolicy, mMailboxParameter);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    mDisplayMats = new Mat[3];
+                    for (int i = 0; i < mDisplayMats.length; i++)
+                        mDisplayMats[i] = new Mat();
+                    mDisplayBack = 0;
+                    mDisplayExchange.set(1);
+                    mDisplayFront = 2;
 
-                    AllocateCache();
+                    mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    AllocateCache();
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -236,18 +412,20 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             }
             mCamera = null;
             if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+                for (Mat frame : mFrameChain)
+                    frame.release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame frame : mCameraFrame)
+                    frame.release();
+            }
+            if (mDisplayMats != null) {
+                for (Mat frame : mDisplayMats)
+                    frame.release();
             }
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -259,13 +437,13 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
         mThread = new Thread(new CameraWorker());
         mThread.start();
+        mDisplayThread = new Thread(new DisplayWorker());
+        mDisplayThread.start();
 
         return true;
     }
@@ -278,70 +456,156 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         Log.d(TAG, "Disconnecting from camera");
         try {
             mStopThread = true;
-            Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
-            Log.d(TAG, "Waiting for thread");
+            Log.d(TAG, "Notify threads");
+            if (mMailbox != null)
+                mMailbox.close();
+            Thread displayThread = mDisplayThread;
+            if (displayThread != null)
+                LockSupport.unpark(displayThread);
+            Log.d(TAG, "Waiting for threads");
             if (mThread != null)
                 mThread.join();
+            if (displayThread != null)
+                displayThread.join();
         } catch (InterruptedException e) {
             e.printStackTrace();
         } finally {
             mThread =  null;
+            mDisplayThread = null;
         }
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+        PreviewFrameListener listener = mPreviewFrameListener;
+        if (listener != null)
+            listener.onPreviewFrame(frame, mFrameWidth, mFrameHeight);
+        int idx = bufferIndex(frame);
+        if (mCamera == null || idx < 0)
+            return;
+
+        mCapturedFrames.incrementAndGet();
+        mHeldBuffers.incrementAndGet();
+        mCameraFrame[idx].invalidate();
+        int dropped = mMailbox.offer(idx);
+        if (dropped >= 0) {
+            // not processed, the buffer is reused at once
+            mDroppedFrames.incrementAndGet();
+            returnBuffer(dropped);
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+        if (mHeldBuffers.get() == mBuffers.length)
+            mStarvedFrames.incrementAndGet();
+    }
+
+    /**
+     * Returns the index of a preview buffer in the pool, -1 for a buffer of a released camera.
+     */
+    private int bufferIndex(byte[] frame) {
+        if (mBuffers == null)
+            return -1;
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == frame)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Gives a preview buffer back to the camera.
+     */
+    private void returnBuffer(int idx) {
+        mHeldBuffers.decrementAndGet();
+        Camera camera = mCamera;
+        if (camera != null)
+            camera.addCallbackBuffer(mBuffers[idx]);
     }
 
-    private class JavaCameraFrame implements CvCameraViewFrame {
+    /**
+     * Publishes a processed frame to the display thread. When the listener returned the RGBA Mat
+     * of the camera frame, that Mat becomes the back display Mat and the frame converts into
+     * the previous back Mat from now on; any other Mat is copied, the listener keeps it.
+     * A frame published before and not drawn yet is replaced.
+     */
+    private void publishDisplayFrame(Mat modified, JavaCameraFrame frame) {
+        Mat back = mDisplayMats[mDisplayBack];
+        if (frame.handOverRgba(modified, back))
+            mDisplayMats[mDisplayBack] = modified;
+        else
+            modified.copyTo(back);
+        int previous = mDisplayExchange.getAndSet(mDisplayBack | DISPLAY_FRESH);
+        if ((previous & DISPLAY_FRESH) != 0)
+            mSkippedDisplayFrames.incrementAndGet();
+        mDisplayBack = previous & ~DISPLAY_FRESH;
+
+        Thread displayThread = mDisplayThread;
+        if (displayThread != null)
+            LockSupport.unpark(displayThread);
+    }
+
+    private class JavaCameraFrame extends CachedCameraViewFrame {
         @Override
-        public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+        protected Mat computeGray() {
+            yuv();
+            return mGray;
         }
 
         @Override
-        public Mat rgba() {
+        protected void computeRgba(Mat rgba) {
             if (mPreviewFormat == ImageFormat.NV21)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                Imgproc.cvtColor(yuv(), rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
             else if (mPreviewFormat == ImageFormat.YV12)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
+                Imgproc.cvtColor(yuv(), rgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
             else
                 throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
-
-            return mRgba;
         }
 
-        public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
+        public JavaCameraFrame(Mat Yuv420sp, byte[] buffer, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
-            mRgba = new Mat();
+            mBuffer = buffer;
+            // view of the luma plane, the data is written by yuv()
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
+        }
+
+        /**
+         * Marks the Mat and the derived images as outdated, the camera has written
+         * a new frame into the buffer.
+         */
+        public void invalidate() {
+            mCopied = false;
+            nextGeneration();
         }
 
+        @Override
         public void release() {
-            mRgba.release();
+            super.release();
+            mGray.release();
+        }
+
+        /**
+         * Copies the preview buffer into the Mat on first use, frames that are never read
+         * as a Mat are never copied.
+         */
+        private Mat yuv() {
+            if (!mCopied) {
+                mYuvFrameData.put(0, 0, mBuffer);
+                mCopiedBytes.addAndGet(mBuffer.length);
+                mCopied = true;
+            }
+            return mYuvFrameData;
         }
 
         private Mat mYuvFrameData;
-        private Mat mRgba;
+        private byte[] mBuffer;
+        private boolean mCopied;
+        private Mat mGray;
         private int mWidth;
         private int mHeight;
     };
@@ -351,29 +615,36 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         @Override
         public void run() {
             do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
+                int idx = mMailbox.take();
+                if (idx >= 0) {
+                    // the camera keeps filling the other buffers meanwhile
+                    if (!mStopThread) {
+                        Mat modified = deliverFrame(mCameraFrame[idx]);
+                        mProcessedFrames.incrementAndGet();
+                        if (modified != null)
+                            publishDisplayFrame(modified, mCameraFrame[idx]);
                     }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
-                }
-
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                    returnBuffer(idx);
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");
         }
     }
+
+    private class DisplayWorker implements Runnable {
+
+        @Override
+        public void run() {
+            while (!mStopThread) {
+                if ((mDisplayExchange.get() & DISPLAY_FRESH) == 0) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                mDisplayFront = mDisplayExchange.getAndSet(mDisplayFront) & ~DISPLAY_FRESH;
+                drawFrame(mDisplayMats[mDisplayFront]);
+                mDisplayedFrames.incrementAndGet();
+            }
+            Log.d(TAG, "Finish display thread");
+        }
+    }
 }
@@ -0,0 +1,117 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the drop policies of the mailbox and the wake up of its consumer.
+ */
+public class FrameMailboxTest {
+
+    @Test
+    public void latestWinsKeepsNewestFrame() throws Exception {
+        FrameMailbox mailbox = new FrameMailbox(FrameMailbox.POLICY_LATEST_WINS, 0);
+        assertEquals(-1, mailbox.poll());
+        assertEquals(-1, mailbox.offer(0));
+        assertEquals(0, mailbox.offer(1));
+        assertEquals(1, mailbox.offer(2));
+        assertEquals(2, mailbox.poll());
+        assertEquals(-1, mailbox.poll());
+    }
+
+    @Test
+    public void boundedQueueKeepsOrderAndDropsNewestWhenFull() throws Exception {
+        FrameMailbox mailbox = new FrameMailbox(FrameMailbox.POLICY_BOUNDED_QUEUE, 2);
+        assertEquals(-1, mailbox.offer(0));
+        assertEquals(-1, mailbox.offer(1));
+        assertEquals(2, mailbox.offer(2));
+        assertEquals(0, mailbox.poll());
+        assertEquals(-1, mailbox.offer(3));
+        assertEquals(1, mailbox.poll());
+        assertEquals(3, mailbox.poll());
+        assertEquals(-1, mailbox.poll());
+
+        // the ring wraps around
+        for (int frame = 10; frame < 20; frame++) {
+            assertEquals(-1, mailbox.offer(frame));
+            assertEquals(frame, mailbox.poll());
+        }
+    }
+
+    @Test
+    public void everyNthPassesOneFrameOutOfN() throws Exception {
+        FrameMailbox mailbox = new FrameMailbox(FrameMailbox.POLICY_EVERY_NTH, 3);
+        assertEquals(-1, mailbox.offer(0));
+        assertEquals(1, mailbox.offer(1));
+        assertEquals(2, mailbox.offer(2));
+        assertEquals(0, mailbox.poll());
+
+        // frame 3 passes, frame 6 replaces it when it was not taken
+        assertEquals(-1, mailbox.offer(3));
+        assertEquals(4, mailbox.offer(4));
+        assertEquals(5, mailbox.offer(5));
+        assertEquals(3, mailbox.offer(6));
+        assertEquals(6, mailbox.poll());
+        assertEquals(-1, mailbox.poll());
+    }
+
+    @Test
+    public void takeWaitsForOfferedFrame() throws Exception {
+        final FrameMailbox mailbox = new FrameMailbox(FrameMailbox.POLICY_LATEST_WINS, 0);
+        final AtomicInteger taken = new AtomicInteger(-2);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken.set(mailbox.take());
+            }
+        });
+        consumer.start();
+
+        mailbox.offer(7);
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(7, taken.get());
+    }
+
+    @Test
+    public void closeWakesUpConsumer() throws Exception {
+        final FrameMailbox mailbox = new FrameMailbox(FrameMailbox.POLICY_BOUNDED_QUEUE, 4);
+        final AtomicInteger taken = new AtomicInteger(-2);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken.set(mailbox.take());
+            }
+        });
+        consumer.start();
+
+        mailbox.close();
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(-1, taken.get());
+    }
+
+    @Test
+    public void takeReturnsFramesLeftAfterClose() throws Exception {
+        FrameMailbox mailbox = new FrameMailbox(FrameMailbox.POLICY_BOUNDED_QUEUE, 4);
+        mailbox.offer(0);
+        mailbox.offer(1);
+        mailbox.close();
+        assertEquals(0, mailbox.take());
+        assertEquals(1, mailbox.take());
+        assertEquals(-1, mailbox.take());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPolicy() throws Exception {
+        new FrameMailbox(3, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyQueue() throws Exception {
+        new FrameMailbox(FrameMailbox.POLICY_BOUNDED_QUEUE, 0);
+    }
+}